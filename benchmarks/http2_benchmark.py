@@ -0,0 +1,216 @@
+#!/usr/bin/env python3
+"""
+Connection benchmark for the calls the marketplace makes to the account and wallet services.
+
+Starts the user, wallets and products services and places single-item orders (POST /orders) from many
+concurrent clients, so the marketplace has about that many calls to each service in flight at once.
+Protocols (resilience.<dependency>.http2-enabled of the marketplace):
+  - http1: every call in flight holds an HTTP/1.1 connection of its own; the JDK keeps only a few idle
+           ones, so connections are opened and closed all the time under load
+  - http2: calls are multiplexed as streams over the h2c connections to each service
+
+While the load runs, the established connections from the marketplace to each service (and the client
+sockets left in TIME_WAIT by closed ones) are sampled from /proc every half second. The marketplace's
+admission control is turned off and its bulkheads and request threads are raised to the concurrency so
+that they do not cap it; there are twice as many users as clients, so few orders wait for another order
+of the same user. Linux only.
+
+Usage: python3 benchmarks/http2_benchmark.py [--concurrency 1000] [--warmup 15] [--seconds 30] [--users 2000] [--protocols http1,http2]
+All three jars must be built first (./mvnw package -DskipTests in user, wallets and products).
+"""
+
+import argparse
+import http.client
+import json
+import os
+import random
+import shutil
+import subprocess
+import tempfile
+import threading
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+USER_JAR = os.path.join(ROOT, "user", "target", "user-0.0.1-SNAPSHOT.jar")
+WALLETS_JAR = os.path.join(ROOT, "wallets", "target", "wallets-0.0.1-SNAPSHOT.jar")
+PRODUCTS_JAR = os.path.join(ROOT, "products", "target", "products-0.0.1-SNAPSHOT.jar")
+USER_PORT, WALLETS_PORT, PRODUCTS_PORT = 18380, 18382, 18381
+PRODUCT = 1
+ESTABLISHED, TIME_WAIT = "01", "06"
+
+
+def request(conn, method, path, body=None):
+    headers = {"Content-Type": "application/json"} if body is not None else {}
+    conn.request(method, path, body=json.dumps(body) if body is not None else None, headers=headers)
+    response = conn.getresponse()
+    return response.status, response.read()
+
+
+def start(jar, port, options, probe):
+    process = subprocess.Popen(["java", "-Dserver.port=%d" % port] + options + ["-jar", jar],
+                               stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+    for _ in range(180):
+        time.sleep(1)
+        try:
+            conn = http.client.HTTPConnection("localhost", port, timeout=5)
+            status, body = request(conn, "GET", probe)
+            conn.close()
+            if status == 200 or probe != "/actuator/health/readiness":
+                return process
+        except OSError:
+            pass
+    process.kill()
+    raise RuntimeError("%s did not start" % os.path.basename(jar))
+
+
+def start_stack(protocol, concurrency, work):
+    csv = os.path.join(work, "products.csv")
+    with open(csv, "w") as f:
+        f.write("id,name,description,price,stock_quantity\n")
+        f.write("%d,Benchmark item,HTTP/2 benchmark,10,%d\n" % (PRODUCT, 100_000_000))
+    products_options = [
+        "-Dspring.datasource.url=jdbc:h2:file:%s/db" % work,
+        "-Dspring.datasource.replica.url=jdbc:h2:mem:replica",
+        "-Dspring.jpa.show-sql=false",
+        "-Dcatalog.csv.path=%s" % csv,
+        "-Daccount.service.url=http://localhost:%d" % USER_PORT,
+        "-Dwallets.service.url=http://localhost:%d" % WALLETS_PORT,
+        "-Dserver.tomcat.threads.max=%d" % concurrency,
+        # The point is to have the calls in flight, not to shed them
+        "-Dorders.admission.enabled=false",
+    ]
+    for dependency in ("account", "wallets"):
+        products_options += [
+            "-Dresilience.%s.http2-enabled=%s" % (dependency, str(protocol == "http2").lower()),
+            "-Dresilience.%s.max-concurrent-calls=%d" % (dependency, concurrency),
+            "-Dresilience.%s.bulkhead-wait-ms=5000" % dependency,
+            "-Dresilience.%s.read-timeout-ms=10000" % dependency,
+        ]
+    server_options = ["-Dhttp2.max-concurrent-streams=%d" % concurrency]
+    return {
+        "user": start(USER_JAR, USER_PORT, server_options +
+                      ["-Dservice.wallets.address=http://localhost:%d/wallets" % WALLETS_PORT], "/users/1"),
+        "wallets": start(WALLETS_JAR, WALLETS_PORT, server_options, "/wallets/1"),
+        "products": start(PRODUCTS_JAR, PRODUCTS_PORT, products_options, "/actuator/health/readiness"),
+    }
+
+
+def socket_inodes(pid):
+    inodes = set()
+    for fd in os.listdir("/proc/%d/fd" % pid):
+        try:
+            link = os.readlink("/proc/%d/fd/%s" % (pid, fd))
+        except OSError:
+            continue
+        if link.startswith("socket:["):
+            inodes.add(link[8:-1])
+    return inodes
+
+
+def client_sockets(pid, ports):
+    """
+    :return: Per port, the connections to it that pid has established and the client sockets in TIME_WAIT
+    """
+    inodes = socket_inodes(pid)
+    established = {port: 0 for port in ports}
+    time_wait = {port: 0 for port in ports}
+    for table in ("/proc/net/tcp", "/proc/net/tcp6"):
+        with open(table) as f:
+            for line in f.readlines()[1:]:
+                fields = line.split()
+                port = int(fields[2].split(":")[1], 16)
+                if port not in established:
+                    continue
+                if fields[3] == ESTABLISHED and fields[9] in inodes:
+                    established[port] += 1
+                elif fields[3] == TIME_WAIT:
+                    time_wait[port] += 1
+    return established, time_wait
+
+
+def run_load(users, concurrency, seconds, sample=None):
+    deadline = time.time() + seconds
+    results = []
+    lock = threading.Lock()
+
+    def worker():
+        conn = http.client.HTTPConnection("localhost", PRODUCTS_PORT, timeout=60)
+        latencies, placed, failed = [], 0, 0
+        while time.time() < deadline:
+            order = {"user_id": random.randint(1, users), "items": [{"product_id": PRODUCT, "quantity": 1}]}
+            started = time.perf_counter()
+            try:
+                status, _ = request(conn, "POST", "/orders", order)
+            except OSError:
+                conn.close()
+                conn = http.client.HTTPConnection("localhost", PRODUCTS_PORT, timeout=60)
+                status = None
+            latencies.append(time.perf_counter() - started)
+            if status in (200, 201):
+                placed += 1
+            else:
+                failed += 1
+        conn.close()
+        with lock:
+            results.append((latencies, placed, failed))
+
+    workers = [threading.Thread(target=worker) for _ in range(concurrency)]
+    for w in workers:
+        w.start()
+    samples = []
+    while sample is not None and time.time() < deadline:
+        time.sleep(0.5)
+        samples.append(sample())
+    for w in workers:
+        w.join()
+    latencies = sorted(l for r in results for l in r[0])
+    return latencies, sum(r[1] for r in results), sum(r[2] for r in results), samples
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--concurrency", type=int, default=1000)
+    parser.add_argument("--warmup", type=int, default=15)
+    parser.add_argument("--seconds", type=int, default=30)
+    parser.add_argument("--users", type=int, default=2000)
+    parser.add_argument("--protocols", default="http1,http2")
+    args = parser.parse_args()
+
+    print("%-6s %9s %9s %9s %8s %14s %14s %14s" % (
+        "proto", "orders/s", "p50 ms", "p99 ms", "failed", "user conns", "wallet conns", "TIME_WAIT"))
+    for protocol in args.protocols.split(","):
+        work = tempfile.mkdtemp(prefix="http2-")
+        processes = start_stack(protocol, args.concurrency, work)
+        try:
+            users = http.client.HTTPConnection("localhost", USER_PORT, timeout=30)
+            wallets = http.client.HTTPConnection("localhost", WALLETS_PORT, timeout=30)
+            for user_id in range(1, args.users + 1):
+                request(users, "POST", "/users", {"id": user_id, "name": "u%d" % user_id,
+                                                  "email": "u%d@example.com" % user_id})
+                request(wallets, "PUT", "/wallets/%d" % user_id, {"action": "credit", "amount": 100_000_000})
+
+            run_load(args.users, args.concurrency, args.warmup)
+            pid = processes["products"].pid
+            latencies, placed, failed, samples = run_load(
+                args.users, args.concurrency, args.seconds,
+                lambda: client_sockets(pid, (USER_PORT, WALLETS_PORT)))
+
+            def summary(values):
+                return "%d avg / %d max" % (sum(values) / max(len(values), 1), max(values, default=0))
+
+            print("%-6s %9.1f %9.1f %9.1f %8d %14s %14s %14s" % (
+                protocol, placed / args.seconds,
+                latencies[len(latencies) // 2] * 1000, latencies[int(len(latencies) * 0.99)] * 1000, failed,
+                summary([established[USER_PORT] for established, _ in samples]),
+                summary([established[WALLETS_PORT] for established, _ in samples]),
+                summary([sum(time_wait.values()) for _, time_wait in samples])))
+        finally:
+            for process in processes.values():
+                process.terminate()
+            for process in processes.values():
+                process.wait()
+            shutil.rmtree(work, ignore_errors=True)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,173 @@
+#!/usr/bin/env python3
+"""
+Allocation benchmark for the read endpoints of the user, wallets and products services.
+
+Starts the three services, creates a user with a funded wallet, a catalog of products and a number of
+multi-item orders, then sends each GET endpoint a fixed number of requests one after another:
+  - GET /users/{id}, GET /users?ids=
+  - GET /wallets/{id}, GET /wallets?ids=
+  - GET /products, GET /products/{id}, GET /products?ids=
+  - GET /orders/{id}, GET /orders/users/{id}, GET /orders
+
+Around each batch a full GC is forced (jcmd <pid> GC.run) and the JVM's jvm.gc.memory.allocated counter is
+read from the actuator, so the difference is what the batch allocated; divided by the number of requests it
+gives the heap allocated per request by the whole request path (Tomcat, Spring MVC, the transaction, the
+queries, Jackson). The two metric reads of each batch are included, which is noise of a few KB spread over
+all its requests.
+
+To compare two trees (e.g. before and after a change), build the jars in both and pass each with --root.
+
+Usage: python3 benchmarks/read_model_benchmark.py [--requests 2000] [--warmup 2000] [--products 200] [--orders 50] [--root DIR ...]
+All three jars must be built first (./mvnw package -DskipTests in user, wallets and products).
+"""
+
+import argparse
+import http.client
+import json
+import os
+import shutil
+import subprocess
+import tempfile
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+USER_PORT, WALLETS_PORT, PRODUCTS_PORT = 18480, 18482, 18481
+USER = 1
+
+
+def jars(root):
+    return (os.path.join(root, "user", "target", "user-0.0.1-SNAPSHOT.jar"),
+            os.path.join(root, "wallets", "target", "wallets-0.0.1-SNAPSHOT.jar"),
+            os.path.join(root, "products", "target", "products-0.0.1-SNAPSHOT.jar"))
+
+
+def request(conn, method, path, body=None):
+    headers = {"Content-Type": "application/json"} if body is not None else {}
+    conn.request(method, path, body=json.dumps(body) if body is not None else None, headers=headers)
+    response = conn.getresponse()
+    return response.status, response.read()
+
+
+def start(jar, port, options, probe):
+    process = subprocess.Popen(["java", "-Dserver.port=%d" % port] + options + ["-jar", jar],
+                               stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+    for _ in range(180):
+        time.sleep(1)
+        try:
+            conn = http.client.HTTPConnection("localhost", port, timeout=5)
+            status, body = request(conn, "GET", probe)
+            conn.close()
+            if status == 200 or probe != "/actuator/health/readiness":
+                return process
+        except OSError:
+            pass
+    process.kill()
+    raise RuntimeError("%s did not start" % os.path.basename(jar))
+
+
+def start_stack(root, products, work):
+    user_jar, wallets_jar, products_jar = jars(root)
+    csv = os.path.join(work, "products.csv")
+    with open(csv, "w") as f:
+        f.write("id,name,description,price,stock_quantity\n")
+        for product_id in range(1, products + 1):
+            f.write("%d,Item %d,Read model benchmark item %d,10,%d\n" % (product_id, product_id, product_id,
+                                                                        1_000_000))
+    products_options = [
+        "-Dspring.datasource.url=jdbc:h2:file:%s/db" % work,
+        "-Dspring.datasource.replica.url=jdbc:h2:mem:replica",
+        "-Dspring.jpa.show-sql=false",
+        "-Dcatalog.csv.path=%s" % csv,
+        "-Daccount.service.url=http://localhost:%d" % USER_PORT,
+        "-Dwallets.service.url=http://localhost:%d" % WALLETS_PORT,
+    ]
+    return {
+        "user": start(user_jar, USER_PORT,
+                      ["-Dservice.wallets.address=http://localhost:%d/wallets" % WALLETS_PORT], "/users/1"),
+        "wallets": start(wallets_jar, WALLETS_PORT, [], "/wallets/1"),
+        "products": start(products_jar, PRODUCTS_PORT, products_options, "/actuator/health/readiness"),
+    }
+
+
+def allocated_bytes(process, conn):
+    subprocess.run(["jcmd", str(process.pid), "GC.run"], stdout=subprocess.DEVNULL, check=True)
+    # The counter is updated by a GC notification listener, shortly after the collection
+    time.sleep(0.5)
+    status, body = request(conn, "GET", "/actuator/metrics/jvm.gc.memory.allocated")
+    return json.loads(body)["measurements"][0]["value"]
+
+
+def measure(process, port, path, requests):
+    conn = http.client.HTTPConnection("localhost", port, timeout=30)
+    before = allocated_bytes(process, conn)
+    started = time.perf_counter()
+    for _ in range(requests):
+        status, _ = request(conn, "GET", path)
+        if status != 200:
+            raise RuntimeError("GET %s returned %d" % (path, status))
+    elapsed = time.perf_counter() - started
+    after = allocated_bytes(process, conn)
+    conn.close()
+    return (after - before) / requests, elapsed * 1000 / requests
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--requests", type=int, default=2000)
+    parser.add_argument("--warmup", type=int, default=2000)
+    parser.add_argument("--products", type=int, default=200)
+    parser.add_argument("--orders", type=int, default=50)
+    parser.add_argument("--root", action="append", help="Tree whose jars are measured (default: this one)")
+    args = parser.parse_args()
+
+    ids = ",".join(str(i) for i in range(1, 21))
+    endpoints = [
+        ("user", USER_PORT, "/users/%d" % USER),
+        ("user", USER_PORT, "/users?ids=%d" % USER),
+        ("wallets", WALLETS_PORT, "/wallets/%d" % USER),
+        ("wallets", WALLETS_PORT, "/wallets?ids=%d" % USER),
+        ("products", PRODUCTS_PORT, "/products"),
+        ("products", PRODUCTS_PORT, "/products/1"),
+        ("products", PRODUCTS_PORT, "/products?ids=%s" % ids),
+        ("products", PRODUCTS_PORT, "/orders/1"),
+        ("products", PRODUCTS_PORT, "/orders/users/%d" % USER),
+        ("products", PRODUCTS_PORT, "/orders"),
+    ]
+
+    results = {}
+    roots = args.root or [ROOT]
+    for root in roots:
+        work = tempfile.mkdtemp(prefix="read-model-")
+        processes = start_stack(root, args.products, work)
+        try:
+            users = http.client.HTTPConnection("localhost", USER_PORT, timeout=30)
+            wallets = http.client.HTTPConnection("localhost", WALLETS_PORT, timeout=30)
+            orders = http.client.HTTPConnection("localhost", PRODUCTS_PORT, timeout=30)
+            request(users, "POST", "/users", {"id": USER, "name": "u", "email": "u@example.com"})
+            request(wallets, "PUT", "/wallets/%d" % USER, {"action": "credit", "amount": 100_000_000})
+            for n in range(args.orders):
+                items = [{"product_id": (n * 3 + i) % args.products + 1, "quantity": 1} for i in range(3)]
+                status, body = request(orders, "POST", "/orders", {"user_id": USER, "items": items})
+                if status not in (200, 201):
+                    raise RuntimeError("Order was not placed: %s" % body)
+
+            for service, port, path in endpoints:
+                measure(processes[service], port, path, args.warmup)
+            for service, port, path in endpoints:
+                results[(root, path)] = measure(processes[service], port, path, args.requests)
+        finally:
+            for process in processes.values():
+                process.terminate()
+            for process in processes.values():
+                process.wait()
+            shutil.rmtree(work, ignore_errors=True)
+
+    width = max(len(path) for _, _, path in endpoints)
+    print("%-*s %s" % (width, "endpoint", " ".join("%26s" % os.path.basename(os.path.normpath(r)) for r in roots)))
+    print("%-*s %s" % (width, "", " ".join("%14s %11s" % ("bytes/request", "ms/request") for _ in roots)))
+    for _, _, path in endpoints:
+        print("%-*s %s" % (width, path, " ".join("%14.0f %11.3f" % results[(root, path)] for root in roots)))
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,295 @@
+#!/usr/bin/env python3
+"""
+Encoding benchmark for the calls the marketplace makes to the account and wallet services.
+
+Starts the user, wallets and products services and places single-item orders (POST /orders, the takeOrder
+call chain: customer lookup, wallet hold, discount update, hold capture) for a fixed time. Encodings
+(resilience.<dependency>.encoding of the marketplace):
+  - json:  request and response bodies are JSON
+  - smile: request and response bodies are Smile (binary JSON); the services negotiate it per request
+
+The marketplace reaches both services through a relay in this script that parses the HTTP messages and
+counts the body bytes sent each way. The CPU time of each JVM (utime + stime from /proc) is read before
+and after the load; per order it covers serialization on both ends of every call plus everything else the
+order costs, so the difference between the encodings is what the encoding saves. Linux only.
+
+Usage: python3 benchmarks/rpc_encoding_benchmark.py [--threads 16] [--warmup 10] [--seconds 20] [--users 200] [--encodings json,smile]
+All three jars must be built first (./mvnw package -DskipTests in user, wallets and products).
+"""
+
+import argparse
+import collections
+import http.client
+import json
+import os
+import random
+import shutil
+import socket
+import subprocess
+import tempfile
+import threading
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+USER_JAR = os.path.join(ROOT, "user", "target", "user-0.0.1-SNAPSHOT.jar")
+WALLETS_JAR = os.path.join(ROOT, "wallets", "target", "wallets-0.0.1-SNAPSHOT.jar")
+PRODUCTS_JAR = os.path.join(ROOT, "products", "target", "products-0.0.1-SNAPSHOT.jar")
+USER_PORT, WALLETS_PORT, PRODUCTS_PORT = 18280, 18282, 18281
+USER_RELAY_PORT, WALLETS_RELAY_PORT = 18290, 18292
+PRODUCT = 1
+CLOCK_TICKS = os.sysconf("SC_CLK_TCK")
+
+
+def request(conn, method, path, body=None):
+    headers = {"Content-Type": "application/json"} if body is not None else {}
+    conn.request(method, path, body=json.dumps(body) if body is not None else None, headers=headers)
+    response = conn.getresponse()
+    return response.status, response.read()
+
+
+def start(jar, port, options, probe):
+    process = subprocess.Popen(["java", "-Dserver.port=%d" % port] + options + ["-jar", jar],
+                               stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+    for _ in range(180):
+        time.sleep(1)
+        try:
+            conn = http.client.HTTPConnection("localhost", port, timeout=5)
+            status, body = request(conn, "GET", probe)
+            conn.close()
+            if status == 200 or probe != "/actuator/health/readiness":
+                return process
+        except OSError:
+            pass
+    process.kill()
+    raise RuntimeError("%s did not start" % os.path.basename(jar))
+
+
+def cpu_seconds(process):
+    with open("/proc/%d/stat" % process.pid) as f:
+        fields = f.read().rsplit(")", 1)[1].split()
+    return (int(fields[11]) + int(fields[12])) / CLOCK_TICKS
+
+
+class Relay:
+    """
+    Forwards HTTP/1.1 connections to a backend one exchange at a time (the JDK client does not pipeline)
+    and counts the messages and body bytes per direction and content type.
+    """
+
+    def __init__(self, port, backend_port):
+        self.backend_port = backend_port
+        self.lock = threading.Lock()
+        self.counting = False
+        self.bytes = collections.Counter()
+        self.messages = collections.Counter()
+        self.server = socket.create_server(("localhost", port))
+        threading.Thread(target=self.accept, daemon=True).start()
+
+    def accept(self):
+        while True:
+            try:
+                client, _ = self.server.accept()
+            except OSError:
+                return
+            threading.Thread(target=self.serve, args=(client,), daemon=True).start()
+
+    def serve(self, client):
+        backend = socket.create_connection(("localhost", self.backend_port))
+        from_client, from_backend = client.makefile("rb"), backend.makefile("rb")
+        try:
+            while True:
+                message = self.forward(from_client, backend, "request", False)
+                if message is None:
+                    return
+                if self.forward(from_backend, client, "response", message.startswith("HEAD ")) is None:
+                    return
+        except OSError:
+            pass
+        finally:
+            client.close()
+            backend.close()
+
+    def forward(self, source, target, direction, head_request):
+        """
+        Copies one HTTP message from source to target.
+
+        :return: The start line, or None if the connection was closed
+        """
+        start_line = source.readline()
+        if not start_line:
+            return None
+        raw = [start_line]
+        headers = {}
+        while True:
+            line = source.readline()
+            raw.append(line)
+            if line in (b"\r\n", b"\n", b""):
+                break
+            name, _, value = line.decode("latin-1").partition(":")
+            headers[name.strip().lower()] = value.strip()
+
+        body_length = 0
+        status = start_line.split(b" ")[1] if direction == "response" else b""
+        if head_request or status in (b"204", b"304") or status.startswith(b"1"):
+            pass
+        elif headers.get("transfer-encoding", "").lower() == "chunked":
+            while True:
+                size_line = source.readline()
+                raw.append(size_line)
+                size = int(size_line.split(b";")[0], 16)
+                if size == 0:
+                    # Trailers end with an empty line
+                    while True:
+                        line = source.readline()
+                        raw.append(line)
+                        if line in (b"\r\n", b"\n", b""):
+                            break
+                    break
+                raw.append(source.read(size + 2))
+                body_length += size
+        elif "content-length" in headers:
+            body_length = int(headers["content-length"])
+            raw.append(source.read(body_length))
+        target.sendall(b"".join(raw))
+
+        if body_length and self.counting:
+            content_type = headers.get("content-type", "-").split(";")[0]
+            with self.lock:
+                self.bytes[(direction, content_type)] += body_length
+                self.messages[(direction, content_type)] += 1
+        return start_line.decode("latin-1")
+
+    def reset(self, counting):
+        with self.lock:
+            self.counting = counting
+            self.bytes.clear()
+            self.messages.clear()
+
+    def close(self):
+        self.server.close()
+
+
+def start_stack(encoding, work):
+    csv = os.path.join(work, "products.csv")
+    with open(csv, "w") as f:
+        f.write("id,name,description,price,stock_quantity\n")
+        f.write("%d,Benchmark item,Encoding benchmark,10,%d\n" % (PRODUCT, 100_000_000))
+    products_options = [
+        "-Dspring.datasource.url=jdbc:h2:file:%s/db" % work,
+        "-Dspring.datasource.replica.url=jdbc:h2:mem:replica",
+        "-Dspring.jpa.show-sql=false",
+        "-Dcatalog.csv.path=%s" % csv,
+        "-Daccount.service.url=http://localhost:%d" % USER_RELAY_PORT,
+        "-Dwallets.service.url=http://localhost:%d" % WALLETS_RELAY_PORT,
+        "-Dresilience.account.encoding=%s" % encoding,
+        "-Dresilience.wallets.encoding=%s" % encoding,
+        # Hedges would send some calls twice, which blurs the per-order numbers
+        "-Dresilience.account.hedging-enabled=false",
+        "-Dresilience.wallets.hedging-enabled=false",
+    ]
+    return {
+        "user": start(USER_JAR, USER_PORT,
+                      ["-Dservice.wallets.address=http://localhost:%d/wallets" % WALLETS_PORT], "/users/1"),
+        "wallets": start(WALLETS_JAR, WALLETS_PORT, [], "/wallets/1"),
+        "products": start(PRODUCTS_JAR, PRODUCTS_PORT, products_options, "/actuator/health/readiness"),
+    }
+
+
+def run_load(users, threads, seconds):
+    deadline = time.time() + seconds
+    results = []
+    lock = threading.Lock()
+
+    def worker():
+        conn = http.client.HTTPConnection("localhost", PRODUCTS_PORT, timeout=60)
+        latencies, placed, failed = [], 0, 0
+        while time.time() < deadline:
+            order = {"user_id": random.randint(1, users), "items": [{"product_id": PRODUCT, "quantity": 1}]}
+            started = time.perf_counter()
+            status, _ = request(conn, "POST", "/orders", order)
+            latencies.append(time.perf_counter() - started)
+            if status in (200, 201):
+                placed += 1
+            else:
+                failed += 1
+        conn.close()
+        with lock:
+            results.append((latencies, placed, failed))
+
+    workers = [threading.Thread(target=worker) for _ in range(threads)]
+    for w in workers:
+        w.start()
+    for w in workers:
+        w.join()
+    latencies = sorted(l for r in results for l in r[0])
+    return latencies, sum(r[1] for r in results), sum(r[2] for r in results)
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--threads", type=int, default=16)
+    parser.add_argument("--warmup", type=int, default=10)
+    parser.add_argument("--seconds", type=int, default=20)
+    parser.add_argument("--users", type=int, default=200)
+    parser.add_argument("--encodings", default="json,smile")
+    args = parser.parse_args()
+
+    relays = [Relay(USER_RELAY_PORT, USER_PORT), Relay(WALLETS_RELAY_PORT, WALLETS_PORT)]
+    summary = []
+    try:
+        for encoding in args.encodings.split(","):
+            work = tempfile.mkdtemp(prefix="rpc-encoding-")
+            processes = start_stack(encoding, work)
+            try:
+                users = http.client.HTTPConnection("localhost", USER_PORT, timeout=30)
+                wallets = http.client.HTTPConnection("localhost", WALLETS_PORT, timeout=30)
+                for user_id in range(1, args.users + 1):
+                    request(users, "POST", "/users", {"id": user_id, "name": "u%d" % user_id,
+                                                      "email": "u%d@example.com" % user_id})
+                    request(wallets, "PUT", "/wallets/%d" % user_id, {"action": "credit", "amount": 100_000_000})
+
+                for relay in relays:
+                    relay.reset(False)
+                run_load(args.users, args.threads, args.warmup)
+
+                for relay in relays:
+                    relay.reset(True)
+                cpu_before = {name: cpu_seconds(p) for name, p in processes.items()}
+                latencies, placed, failed = run_load(args.users, args.threads, args.seconds)
+                cpu_after = {name: cpu_seconds(p) for name, p in processes.items()}
+                for relay in relays:
+                    relay.counting = False
+
+                print("\n== %s: %d orders placed, %d failed, %.0f orders/s, p50 %.2f ms, p99 %.2f ms" % (
+                    encoding, placed, failed, placed / args.seconds,
+                    latencies[len(latencies) // 2] * 1000, latencies[int(len(latencies) * 0.99)] * 1000))
+                orders = max(placed + failed, 1)
+                print("%-8s %-10s %-28s %10s %12s" % ("service", "direction", "content type", "messages",
+                                                      "bytes/order"))
+                body_bytes = 0
+                for name, relay in zip(("user", "wallets"), relays):
+                    for (direction, content_type), size in sorted(relay.bytes.items()):
+                        body_bytes += size
+                        print("%-8s %-10s %-28s %10d %12.1f" % (
+                            name, direction, content_type, relay.messages[(direction, content_type)],
+                            size / orders))
+                cpu = {name: (cpu_after[name] - cpu_before[name]) * 1000 / orders for name in processes}
+                print("CPU ms/order: " + ", ".join("%s %.3f" % (name, ms) for name, ms in cpu.items()))
+                summary.append((encoding, body_bytes / orders, sum(cpu.values()), placed / args.seconds))
+            finally:
+                for process in processes.values():
+                    process.terminate()
+                for process in processes.values():
+                    process.wait()
+                shutil.rmtree(work, ignore_errors=True)
+    finally:
+        for relay in relays:
+            relay.close()
+
+    print("\n%-8s %16s %16s %10s" % ("encoding", "body bytes/order", "CPU ms/order", "orders/s"))
+    for encoding, body_bytes, cpu, rate in summary:
+        print("%-8s %16.1f %16.3f %10.0f" % (encoding, body_bytes, cpu, rate))
+
+
+if __name__ == "__main__":
+    main()
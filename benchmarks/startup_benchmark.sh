@@ -0,0 +1,69 @@
+#!/bin/bash
+
+# Startup-time benchmark for the user, wallets and marketplace services.
+#
+# For every service this builds the startup-optimized jar (Maven "aot" profile), extracts it,
+# creates an AppCDS archive with a training run, and then compares the wall-clock time from JVM launch
+# until the application context has been refreshed (-Dspring.context.exit=onRefresh) for:
+#   - plain:   java -jar on the fat jar (what the images used to run)
+#   - aot+cds: extracted jar + AppCDS archive + -Dspring.aot.enabled=true (what the images run now)
+#
+# The marketplace normally talks to the shared H2 server, so it is pointed at in-memory databases here.
+#
+# Usage: ./benchmarks/startup_benchmark.sh [runs-per-mode]
+
+RUNS=${1:-5}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+
+# service directory -> jar name
+declare -A JARS
+JARS["user"]="user-0.0.1-SNAPSHOT.jar"
+JARS["wallets"]="wallets-0.0.1-SNAPSHOT.jar"
+JARS["products"]="products-0.0.1-SNAPSHOT.jar"
+
+# Extra JVM options needed to start a service outside the cluster
+declare -A OPTS
+OPTS["user"]=""
+OPTS["wallets"]=""
+OPTS["products"]="-Dspring.datasource.url=jdbc:h2:mem:bench -Dspring.datasource.replica.url=jdbc:h2:mem:bench-replica"
+
+# Stop right after the context refresh instead of serving requests
+EXIT_OPTS="-Dspring.context.exit=onRefresh -Dserver.port=0"
+
+# Runs the given command and prints the elapsed seconds
+measure() {
+    local start end
+    start=$(date +%s.%N)
+    "$@" > /dev/null 2>&1
+    end=$(date +%s.%N)
+    awk "BEGIN { print $end - $start }"
+}
+
+for service in user wallets products; do
+    jar=${JARS[$service]}
+    echo "=== $service"
+
+    (cd "$ROOT/$service" && ./mvnw -q -Paot package -DskipTests > /dev/null) || exit 1
+    java -Djarmode=tools -jar "$ROOT/$service/target/$jar" extract --destination "$WORK/$service" > /dev/null
+
+    # Training run that records the loaded classes into the AppCDS archive
+    (cd "$WORK/$service" && java -XX:ArchiveClassesAtExit=application.jsa -Dspring.aot.enabled=true \
+        -Dspring.context.exit=onRefresh ${OPTS[$service]} -jar "$jar" > /dev/null 2>&1)
+
+    for mode in plain aot+cds; do
+        total=0
+        for run in $(seq 1 "$RUNS"); do
+            if [ "$mode" == "plain" ]; then
+                t=$(measure java $EXIT_OPTS ${OPTS[$service]} -jar "$ROOT/$service/target/$jar")
+            else
+                t=$(cd "$WORK/$service" && measure java -XX:SharedArchiveFile=application.jsa \
+                    -Dspring.aot.enabled=true $EXIT_OPTS ${OPTS[$service]} -jar "$jar")
+            fi
+            total=$(awk "BEGIN { print $total + $t }")
+        done
+        printf "  %-8s avg %.2f s over %d runs\n" "$mode" "$(awk "BEGIN { print $total / $RUNS }")" "$RUNS"
+    done
+done
+
+rm -rf "$WORK"
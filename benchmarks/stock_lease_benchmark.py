@@ -0,0 +1,175 @@
+#!/usr/bin/env python3
+"""
+Flash-sale benchmark for stock leasing in the marketplace service.
+
+Starts the user and wallets services and two marketplace replicas that share one H2 database, then lets
+many users order the same product through both replicas at once. Modes (stock.lease.enabled):
+  - row:   every order decrements the product row, which stays locked until the order commits
+  - lease: each replica leases chunks of the hot product's stock and sells from an in-memory counter
+
+After the load the product's stock reported by GET /products/{id} (on both replicas) is checked against
+the initial stock minus the units sold. In lease mode one replica is then killed with SIGKILL while it
+still holds a lease, and the check is repeated once the surviving replica has settled the expired lease.
+
+Usage: python3 benchmarks/stock_lease_benchmark.py [--threads 32] [--seconds 10] [--users 200] [--modes row,lease]
+All three jars must be built first (./mvnw package -DskipTests in user, wallets and products).
+"""
+
+import argparse
+import http.client
+import json
+import os
+import random
+import shutil
+import signal
+import subprocess
+import tempfile
+import threading
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+USER_JAR = os.path.join(ROOT, "user", "target", "user-0.0.1-SNAPSHOT.jar")
+WALLETS_JAR = os.path.join(ROOT, "wallets", "target", "wallets-0.0.1-SNAPSHOT.jar")
+PRODUCTS_JAR = os.path.join(ROOT, "products", "target", "products-0.0.1-SNAPSHOT.jar")
+USER_PORT, WALLETS_PORT, REPLICA_PORTS = 18180, 18182, [18181, 18183]
+HOT_PRODUCT = 1
+INITIAL_STOCK = 1_000_000
+LEASE_TTL_MS = 6000
+
+
+def request(conn, method, path, body=None):
+    headers = {"Content-Type": "application/json"} if body is not None else {}
+    conn.request(method, path, body=json.dumps(body) if body is not None else None, headers=headers)
+    response = conn.getresponse()
+    return response.status, response.read()
+
+
+def start(jar, port, options, probe):
+    process = subprocess.Popen(["java", "-Dserver.port=%d" % port] + options + ["-jar", jar],
+                               stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+    for _ in range(180):
+        time.sleep(1)
+        try:
+            conn = http.client.HTTPConnection("localhost", port, timeout=5)
+            status, body = request(conn, "GET", probe)
+            conn.close()
+            if status == 200 or probe != "/actuator/health/readiness":
+                return process
+        except OSError:
+            pass
+    process.kill()
+    raise RuntimeError("%s did not start" % os.path.basename(jar))
+
+
+def start_stack(mode, work):
+    csv = os.path.join(work, "products.csv")
+    with open(csv, "w") as f:
+        f.write("id,name,description,price,stock_quantity\n")
+        f.write("%d,Flash sale item,Hot product,10,%d\n" % (HOT_PRODUCT, INITIAL_STOCK))
+    replica_options = [
+        "-Dspring.datasource.url=jdbc:h2:file:%s/db;AUTO_SERVER=TRUE" % work,
+        "-Dspring.datasource.replica.url=jdbc:h2:mem:replica",
+        "-Dspring.jpa.show-sql=false",
+        "-Dcatalog.csv.path=%s" % csv,
+        "-Daccount.service.url=http://localhost:%d" % USER_PORT,
+        "-Dwallets.service.url=http://localhost:%d" % WALLETS_PORT,
+        "-Dstock.lease.enabled=%s" % str(mode == "lease").lower(),
+        "-Dstock.lease.ttl-ms=%d" % LEASE_TTL_MS,
+    ]
+    processes = [
+        start(USER_JAR, USER_PORT, ["-Dservice.wallets.address=http://localhost:%d/wallets" % WALLETS_PORT],
+              "/users/1"),
+        start(WALLETS_JAR, WALLETS_PORT, [], "/wallets/1"),
+    ]
+    for port in REPLICA_PORTS:
+        processes.append(start(PRODUCTS_JAR, port, replica_options, "/actuator/health/readiness"))
+    return processes
+
+
+def reported_stock(port):
+    conn = http.client.HTTPConnection("localhost", port, timeout=30)
+    _, body = request(conn, "GET", "/products/%d" % HOT_PRODUCT)
+    conn.close()
+    return json.loads(body)["stock_quantity"]
+
+
+def run_load(users, threads, seconds):
+    deadline = time.time() + seconds
+    results = []
+    lock = threading.Lock()
+
+    def worker(index):
+        conns = [http.client.HTTPConnection("localhost", port, timeout=60) for port in REPLICA_PORTS]
+        latencies, sold, rejected = [], 0, 0
+        while time.time() < deadline:
+            conn = conns[index % len(conns)]
+            index += 1
+            order = {"user_id": random.randint(1, users), "items": [{"product_id": HOT_PRODUCT, "quantity": 1}]}
+            started = time.perf_counter()
+            status, _ = request(conn, "POST", "/orders", order)
+            latencies.append(time.perf_counter() - started)
+            if status in (200, 201):
+                sold += 1
+            else:
+                rejected += 1
+        for conn in conns:
+            conn.close()
+        with lock:
+            results.append((latencies, sold, rejected))
+
+    workers = [threading.Thread(target=worker, args=(i,)) for i in range(threads)]
+    for w in workers:
+        w.start()
+    for w in workers:
+        w.join()
+    latencies = sorted(l for r in results for l in r[0])
+    return latencies, sum(r[1] for r in results), sum(r[2] for r in results)
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--threads", type=int, default=32)
+    parser.add_argument("--seconds", type=int, default=10)
+    parser.add_argument("--users", type=int, default=200)
+    parser.add_argument("--modes", default="row,lease")
+    args = parser.parse_args()
+
+    print("%-6s %10s %9s %9s %9s  %s" % ("mode", "orders/s", "p50 ms", "p99 ms", "rejected", "stock"))
+    for mode in args.modes.split(","):
+        work = tempfile.mkdtemp(prefix="stock-lease-")
+        processes = start_stack(mode, work)
+        try:
+            users = http.client.HTTPConnection("localhost", USER_PORT, timeout=30)
+            wallets = http.client.HTTPConnection("localhost", WALLETS_PORT, timeout=30)
+            for user_id in range(1, args.users + 1):
+                request(users, "POST", "/users", {"id": user_id, "name": "u%d" % user_id,
+                                                  "email": "u%d@example.com" % user_id})
+                request(wallets, "PUT", "/wallets/%d" % user_id, {"action": "credit", "amount": 100_000_000})
+
+            latencies, sold, rejected = run_load(args.users, args.threads, args.seconds)
+            expected = INITIAL_STOCK - sold
+            stocks = [reported_stock(port) for port in REPLICA_PORTS]
+            checks = ["after load " + ("consistent" if stocks == [expected] * 2 else "MISMATCH %s" % stocks)]
+
+            if mode == "lease":
+                # Crash the second replica while it still holds its lease; the first one settles it after expiry
+                processes[3].send_signal(signal.SIGKILL)
+                processes[3].wait()
+                time.sleep(LEASE_TTL_MS / 1000 * 2.5)
+                stock = reported_stock(REPLICA_PORTS[0])
+                checks.append("after crash " + ("consistent" if stock == expected else "MISMATCH %d" % stock))
+
+            print("%-6s %10.0f %9.2f %9.2f %9d  %s" % (
+                mode, sold / args.seconds,
+                latencies[len(latencies) // 2] * 1000, latencies[int(len(latencies) * 0.99)] * 1000,
+                rejected, ", ".join(checks)))
+        finally:
+            for process in processes:
+                process.terminate()
+            for process in processes:
+                process.wait()
+            shutil.rmtree(work, ignore_errors=True)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,147 @@
+#!/usr/bin/env python3
+"""
+Write-throughput benchmark for the wallet storage engines.
+
+Starts the wallets service once per engine and drives concurrent credit/debit PUTs against it
+over keep-alive connections. Engines (wallet.storage.engine):
+  - balance: in-place JPA/SQL UPDATEs of UsrWallet (the creditAmount/debitIfSufficient path)
+  - balance-group-commit: the same UPDATEs, coalesced into one transaction per batch
+  - ledger:  append-only ledger with snapshots
+  - memory:  single-writer in-memory table with a group-committed write-ahead log
+Load shapes:
+  - spread: every request picks one of many wallets at random
+  - hot:    every request targets the same wallet (worst case for both engines)
+
+Afterwards the final balances are checked against the sum of the accepted operations.
+
+Usage: python3 benchmarks/wallet_engine_benchmark.py [--threads 16] [--seconds 10] [--wallets 1000]
+                                                    [--engines balance,balance-group-commit,ledger,memory]
+The wallets jar must be built first (cd wallets && ./mvnw package -DskipTests).
+"""
+
+import argparse
+import http.client
+import json
+import os
+import random
+import subprocess
+import tempfile
+import threading
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+JAR = os.path.join(ROOT, "wallets", "target", "wallets-0.0.1-SNAPSHOT.jar")
+PORT = 18092
+INITIAL_BALANCE = 1_000_000
+
+
+def request(conn, method, path, body=None):
+    headers = {"Content-Type": "application/json"} if body is not None else {}
+    conn.request(method, path, body=json.dumps(body) if body is not None else None, headers=headers)
+    response = conn.getresponse()
+    return response.status, response.read()
+
+
+def start_service(engine):
+    group_commit = engine.endswith("-group-commit")
+    options = ["-Dserver.port=%d" % PORT, "-Dwallet.storage.engine=%s" % engine.replace("-group-commit", ""),
+               "-Dwallet.group-commit.enabled=%s" % str(group_commit).lower()]
+    if engine == "memory":
+        options.append("-Dwallet.memory.wal-dir=%s" % tempfile.mkdtemp(prefix="wallet-wal-"))
+    process = subprocess.Popen(
+        ["java"] + options + ["-jar", JAR],
+        stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+    for _ in range(120):
+        time.sleep(1)
+        try:
+            conn = http.client.HTTPConnection("localhost", PORT, timeout=5)
+            request(conn, "GET", "/wallets/1")
+            conn.close()
+            return process
+        except OSError:
+            pass
+    process.kill()
+    raise RuntimeError("wallets service did not start")
+
+
+def run_load(wallet_ids, threads, seconds):
+    deadline = time.time() + seconds
+    results = []
+    lock = threading.Lock()
+
+    def worker():
+        conn = http.client.HTTPConnection("localhost", PORT, timeout=30)
+        latencies, net, ok, rejected = [], {}, 0, 0
+        while time.time() < deadline:
+            user_id = random.choice(wallet_ids)
+            action = random.choice(["credit", "debit"])
+            amount = random.randint(1, 10)
+            started = time.perf_counter()
+            status, _ = request(conn, "PUT", "/wallets/%d" % user_id, {"action": action, "amount": amount})
+            latencies.append(time.perf_counter() - started)
+            if status == 200:
+                ok += 1
+                net[user_id] = net.get(user_id, 0) + (amount if action == "credit" else -amount)
+            else:
+                rejected += 1
+        conn.close()
+        with lock:
+            results.append((latencies, net, ok, rejected))
+
+    workers = [threading.Thread(target=worker) for _ in range(threads)]
+    for w in workers:
+        w.start()
+    for w in workers:
+        w.join()
+
+    latencies = sorted(l for r in results for l in r[0])
+    net = {}
+    for r in results:
+        for user_id, delta in r[1].items():
+            net[user_id] = net.get(user_id, 0) + delta
+    ok = sum(r[2] for r in results)
+    rejected = sum(r[3] for r in results)
+    return latencies, net, ok, rejected
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--threads", type=int, default=16)
+    parser.add_argument("--seconds", type=int, default=10)
+    parser.add_argument("--wallets", type=int, default=1000)
+    parser.add_argument("--engines", default="balance,balance-group-commit,ledger,memory")
+    args = parser.parse_args()
+
+    print("%-20s %-7s %10s %9s %9s %9s  %s" % ("engine", "load", "ops/s", "p50 ms", "p99 ms", "rejected", "balances"))
+    for engine in args.engines.split(","):
+        process = start_service(engine)
+        try:
+            conn = http.client.HTTPConnection("localhost", PORT, timeout=30)
+            for user_id in range(1, args.wallets + 1):
+                request(conn, "PUT", "/wallets/%d" % user_id, {"action": "credit", "amount": INITIAL_BALANCE})
+
+            for load, wallet_ids in [("spread", list(range(1, args.wallets + 1))), ("hot", [1])]:
+                before = {}
+                for user_id in set(wallet_ids):
+                    _, body = request(conn, "GET", "/wallets/%d" % user_id)
+                    before[user_id] = json.loads(body)["balance"]
+
+                latencies, net, ok, rejected = run_load(wallet_ids, args.threads, args.seconds)
+
+                consistent = True
+                for user_id, delta in net.items():
+                    _, body = request(conn, "GET", "/wallets/%d" % user_id)
+                    consistent &= json.loads(body)["balance"] == before[user_id] + delta
+
+                print("%-20s %-7s %10.0f %9.2f %9.2f %9d  %s" % (
+                    engine, load, ok / args.seconds,
+                    latencies[len(latencies) // 2] * 1000, latencies[int(len(latencies) * 0.99)] * 1000,
+                    rejected, "consistent" if consistent else "MISMATCH"))
+            conn.close()
+        finally:
+            process.terminate()
+            process.wait()
+
+
+if __name__ == "__main__":
+    main()
@@ -1,107 +1,295 @@
 package com.sirjanhansda.pods.products;
 
-import com.opencsv.CSVReader;
-import com.sirjanhansda.pods.products.model.Product;
-import com.sirjanhansda.pods.products.proddb.ProdDb;
+import com.opencsv.CSVParser;
+import com.sirjanhansda.pods.products.conditional.ResourceVersions;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 /**
  * This class is responsible for reading product data from a CSV file and saving it into the database.
- * It implements CommandLineRunner, which means that it will run automatically when the Spring Boot application starts,
- * and the file path for the CSV file is provided as a command-line argument.
- * 
+ * It is driven by StartUpTasks, which decides whether this replica has to import the catalog at all.
+ *
+ * The loader streams the file instead of materialising every product first:
+ * - The file is memory-mapped and split into chunks on line boundaries.
+ * - Chunks are parsed in parallel, each with its own CSV parser.
+ * - Rows are written in JDBC batches of H2 MERGE statements, one transaction per batch.
+ * - A CRC32 checksum of every row is stored in PRODUCT_CSV_CHECKSUM, so a reload only upserts rows
+ *   whose content changed since the last load (or whose product row has gone missing).
+ *
+ * Memory use is bounded by the chunk size times the number of parallel workers, not by the catalog size.
+ * Quoted fields may contain commas but not line breaks, since chunks are split on newlines.
+ *
  * Dependencies:
- * - prodDb: A repository for interacting with the database where product data will be stored.
- * 
+ * - jdbcTemplate: Used for the batched checksum lookups and MERGE statements.
+ * - transactionManager: Wraps each batch of writes in one transaction.
+ * - resourceVersions: Told about every committed batch that changed rows, as the MERGEs bypass JPA.
+ *
  * Key methods:
- * - run(String... args): This method is executed when the Spring Boot application starts. It checks for a valid
- *   file path argument and calls `loadProductsFromCsv` to process the CSV file.
- * - loadProductsFromCsv(String filename): This method loads product data from a specified CSV file. It reads each line
- *   of the CSV, parses the product data, and adds the products to a list. After processing all lines, the products are
- *   saved into the database using `prodDb.saveAll(products)`.
+ * - catalogVersion(String filename): Computes a version string identifying the content of the CSV file.
+ * - loadProductsFromCsv(String filename): Incrementally loads product data from the specified CSV file.
  */
 @Component
-public class CSVProdReader implements CommandLineRunner {
+@DependsOn("entityManagerFactory") // The Product table is created by Hibernate's schema update
+public class CSVProdReader {
+
+    // Target size of a parsed chunk; the actual chunk is extended to the next line break
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+    // Rows per checksum lookup and JDBC batch
+    private static final int BATCH_ROWS = 10_000;
+
+    // Ids further apart than this start a new checksum range scan, bounding over-fetch for sparse ids
+    private static final int MAX_ID_GAP = 1_000;
+
+    private static final String CREATE_CHECKSUM_TABLE =
+            "CREATE TABLE IF NOT EXISTS PRODUCT_CSV_CHECKSUM (ID INT PRIMARY KEY, CHECKSUM BIGINT NOT NULL)";
+
+    // Checksums are only trusted while the product row they describe still exists
+    private static final String SELECT_CHECKSUMS =
+            "SELECT c.ID, c.CHECKSUM FROM PRODUCT_CSV_CHECKSUM c JOIN Product p ON p.id = c.ID WHERE c.ID BETWEEN ? AND ?";
+
+    // Changed rows get a new version, so an entity loaded before the import cannot overwrite it
+    private static final String MERGE_PRODUCT =
+            "MERGE INTO Product p USING (VALUES (CAST(? AS INT), CAST(? AS VARCHAR), CAST(? AS VARCHAR), "
+                    + "CAST(? AS INT), CAST(? AS INT))) v(id, name, description, price, stock_quantity) ON p.id = v.id "
+                    + "WHEN MATCHED THEN UPDATE SET name = v.name, description = v.description, price = v.price, "
+                    + "stock_quantity = v.stock_quantity, version = p.version + 1 "
+                    + "WHEN NOT MATCHED THEN INSERT (id, name, description, price, stock_quantity, version) "
+                    + "VALUES (v.id, v.name, v.description, v.price, v.stock_quantity, 0)";
+
+    private static final String MERGE_CHECKSUM =
+            "MERGE INTO PRODUCT_CSV_CHECKSUM (ID, CHECKSUM) KEY(ID) VALUES (?, ?)";
 
     @Autowired
-    private ProdDb prodDb; // Dependency injection for ProdDb repository
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ResourceVersions resourceVersions;
 
     /**
-     * This method is executed when the Spring Boot application starts.
-     * It checks if the command-line arguments contain a file path and calls the `loadProductsFromCsv` method.
-     * 
-     * @param args Command-line arguments, where the first argument should be the path to the CSV file.
+     * Computes a version for the catalog file from its size and a CRC32 of its content.
+     * Replicas that see the same file compute the same version.
+     *
+     * @param filename The path to the CSV file.
+     * @return Version string of the form "size-crc".
+     * @throws RuntimeException if the file cannot be read.
      */
-    @Override
-    public void run(String... args) {
-        if (args.length == 0) {
-            System.err.println("Usage: Provide the path to the CSV file as an argument.");
-            return;
+    String catalogVersion(String filename) {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            CRC32 crc = new CRC32();
+            for (long position = 0; position < size; position += CHUNK_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_BYTES, size - position)));
+            }
+            return size + "-" + Long.toHexString(crc.getValue());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read product CSV: " + e.getMessage(), e);
         }
-        String filePath = args[0]; // Get the file path from command-line arguments
-        loadProductsFromCsv(filePath); // Load products from the specified CSV file
     }
 
     /**
-     * This method loads products from a CSV file, parses each product's data, and saves it to the database.
+     * This method loads products from a CSV file and upserts every row that is new or changed.
      * It expects the CSV file to contain product information with the following columns:
      * 1. Product ID
      * 2. Product name
      * 3. Product description
      * 4. Product price
      * 5. Product stock quantity
-     * 
+     *
      * @param filename The path to the CSV file.
-     * @return true if products were successfully loaded and saved to the database.
+     * @return true if the products in the file are present in the database after the call.
      * @throws RuntimeException if there are any issues reading the CSV file, parsing the data, or saving the products.
      */
     Boolean loadProductsFromCsv(String filename) {
-        List<Product> products = new ArrayList<>(); // List to hold all the products
+        long startedAt = System.currentTimeMillis();
+        AtomicLong rowsRead = new AtomicLong();
+        AtomicLong rowsWritten = new AtomicLong();
 
-        try (InputStream inputStream = new FileInputStream(filename); // Open the file for reading
-             InputStreamReader reader = new InputStreamReader(inputStream); // Convert byte stream to character stream
-             CSVReader csvReader = new CSVReader(reader)) { // Read CSV content
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
 
-            String[] header = csvReader.readNext(); // Skip the CSV header row
-            if (header == null) {
+            // Skip the CSV header row
+            long dataStart = nextLineStart(channel, 0, size);
+            if (dataStart == 0 || size == 0) {
                 throw new RuntimeException("Empty CSV file"); // Throw exception if the file is empty
             }
 
-            String[] nextLine;
-            while ((nextLine = csvReader.readNext()) != null) { // Read each line of the CSV
-                try {
-                    // Parse the CSV line into a Product object and add it to the products list
-                    Product product = Product.builder()
-                            .id(Integer.parseInt(nextLine[0])) // Product ID
-                            .name(nextLine[1]) // Product name
-                            .description(nextLine[2]) // Product description
-                            .price(Integer.parseInt(nextLine[3])) // Product price
-                            .stock_quantity(Integer.parseInt(nextLine[4])) // Product stock quantity
-                            .build();
-                    products.add(product); // Add the product to the list
-                } catch (Exception e) {
-                    throw new RuntimeException("Invalid product data: " + String.join(", ", nextLine), e);
-                    // Handle exceptions in case of invalid data in the CSV line
+            jdbcTemplate.execute(CREATE_CHECKSUM_TABLE);
+
+            // Parse and write every chunk in parallel; each chunk commits independently
+            splitIntoChunks(channel, dataStart, size).parallelStream().forEach(chunk -> {
+                List<CsvRow> rows = parseChunk(channel, chunk[0], chunk[1]);
+                rowsRead.addAndGet(rows.size());
+                for (int from = 0; from < rows.size(); from += BATCH_ROWS) {
+                    int written = upsertChangedRows(rows.subList(from, Math.min(from + BATCH_ROWS, rows.size())));
+                    if (written > 0) {
+                        rowsWritten.addAndGet(written);
+                        resourceVersions.changed(ResourceVersions.Resource.CATALOG);
+                    }
                 }
-            }
+            });
         } catch (Exception e) {
             throw new RuntimeException("Failed to load products from CSV: " + e.getMessage(), e);
             // Handle any exceptions that occur while reading the file or parsing the data
         }
 
-        if (products.isEmpty()) {
+        if (rowsRead.get() == 0) {
             throw new RuntimeException("No products found in CSV file"); // If no products were loaded
         }
 
-        prodDb.saveAll(products); // Save all the products to the database
+        System.out.println("Product CSV load: " + rowsRead.get() + " rows read, "
+                + rowsWritten.get() + " new or changed rows written in "
+                + (System.currentTimeMillis() - startedAt) + " ms");
         return true; // Return true indicating success
     }
+
+    /**
+     * Splits the data section of the file into [start, end) byte ranges that each end on a line break.
+     */
+    private List<long[]> splitIntoChunks(FileChannel channel, long start, long size) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = nextLineStart(channel, Math.min(start + CHUNK_BYTES, size), size);
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the offset just past the first line break at or after the given position,
+     * or the file size if there is none.
+     */
+    private long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(512);
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Maps one chunk of the file and parses its lines into rows with checksums.
+     */
+    private List<CsvRow> parseChunk(FileChannel channel, long start, long end) {
+        CSVParser parser = new CSVParser(); // Parsers keep state, so each chunk gets its own
+        List<CsvRow> rows = new ArrayList<>();
+
+        String content;
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            content = StandardCharsets.UTF_8.decode(mapped).toString();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map CSV chunk at offset " + start, e);
+        }
+
+        for (String line : content.split("\r?\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = null;
+            try {
+                fields = parser.parseLine(line);
+                CRC32 crc = new CRC32();
+                crc.update(line.getBytes(StandardCharsets.UTF_8));
+                rows.add(new CsvRow(
+                        Integer.parseInt(fields[0].trim()), // Product ID
+                        fields[1], // Product name
+                        fields[2], // Product description
+                        Integer.parseInt(fields[3].trim()), // Product price
+                        Integer.parseInt(fields[4].trim()), // Product stock quantity
+                        crc.getValue()));
+            } catch (Exception e) {
+                throw new RuntimeException("Invalid product data: "
+                        + (fields != null ? String.join(", ", fields) : line), e);
+                // Handle exceptions in case of invalid data in the CSV line
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the rows of one batch whose checksum differs from the stored one.
+     *
+     * @return Number of rows that were inserted or updated
+     */
+    private int upsertChangedRows(List<CsvRow> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        // Primary key range scans are far cheaper in H2 than an IN-list of the same ids,
+        // so the sorted ids are looked up as a few dense ranges
+        List<Integer> ids = rows.stream().map(CsvRow::id).sorted().toList();
+        Map<Integer, Long> storedChecksums = new HashMap<>();
+        int rangeStart = 0;
+        for (int i = 1; i <= ids.size(); i++) {
+            if (i == ids.size() || ids.get(i) - ids.get(i - 1) > MAX_ID_GAP) {
+                jdbcTemplate.query(SELECT_CHECKSUMS,
+                        rs -> {
+                            storedChecksums.put(rs.getInt(1), rs.getLong(2));
+                        },
+                        ids.get(rangeStart), ids.get(i - 1));
+                rangeStart = i;
+            }
+        }
+
+        List<CsvRow> changed = rows.stream()
+                .filter(row -> !Long.valueOf(row.checksum()).equals(storedChecksums.get(row.id())))
+                .toList();
+        if (changed.isEmpty()) {
+            return 0;
+        }
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(MERGE_PRODUCT, changed, changed.size(), (ps, row) -> {
+                ps.setInt(1, row.id());
+                ps.setString(2, row.name());
+                ps.setString(3, row.description());
+                ps.setInt(4, row.price());
+                ps.setInt(5, row.stockQuantity());
+            });
+            jdbcTemplate.batchUpdate(MERGE_CHECKSUM, changed, changed.size(), (ps, row) -> {
+                ps.setInt(1, row.id());
+                ps.setLong(2, row.checksum());
+            });
+        });
+        return changed.size();
+    }
+
+    // One parsed CSV line together with the checksum of its raw text
+    private record CsvRow(Integer id, String name, String description, Integer price,
+                          Integer stockQuantity, long checksum) {
+    }
 }
@@ -0,0 +1,38 @@
+package com.sirjanhansda.pods.products;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports whether the product catalog is available. It is part of the readiness health group,
+ * so Kubernetes only routes traffic to a replica once the catalog has been loaded
+ * (by this replica or by another one).
+ */
+@Component("catalog")
+public class CatalogHealthIndicator implements HealthIndicator {
+
+    // Possible states of the catalog on this replica
+    enum State {
+        LOADING,
+        READY,
+        FAILED
+    }
+
+    private volatile State state = State.LOADING;
+    private volatile String detail = "Catalog load not started";
+
+    void update(State state, String detail) {
+        this.state = state;
+        this.detail = detail;
+    }
+
+    @Override
+    public Health health() {
+        return switch (state) {
+            case READY -> Health.up().withDetail("catalog", detail).build();
+            case LOADING -> Health.outOfService().withDetail("catalog", detail).build();
+            case FAILED -> Health.down().withDetail("catalog", detail).build();
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package com.sirjanhansda.pods.products;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Cluster-wide record of which catalog version has been imported into the shared database.
+ *
+ * The marker is a single row in CATALOG_LOAD_MARKER. A replica that wants to import a version
+ * first claims the row with a conditional UPDATE; only one replica can win that claim, the
+ * others wait until the winner records the new version. A claim that is older than the lease
+ * timeout is treated as abandoned (e.g. the importing pod crashed) and can be taken over.
+ */
+@Component
+public class CatalogLoadMarker {
+
+    private static final String CREATE_MARKER_TABLE =
+            "CREATE TABLE IF NOT EXISTS CATALOG_LOAD_MARKER (" +
+            "ID INT PRIMARY KEY, VERSION VARCHAR(64), LOADED_AT TIMESTAMP, " +
+            "LOADING_BY VARCHAR(255), LOADING_SINCE TIMESTAMP)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // How long an import claim stays valid before another replica may take it over
+    @Value("${catalog.load.lease-timeout-ms:600000}")
+    private long leaseTimeoutMs;
+
+    /**
+     * Creates the marker table and its single row if they do not exist yet.
+     */
+    void ensureExists() {
+        jdbcTemplate.execute(CREATE_MARKER_TABLE);
+        try {
+            jdbcTemplate.update("INSERT INTO CATALOG_LOAD_MARKER (ID) VALUES (1)");
+        } catch (DuplicateKeyException e) {
+            // Another replica created the row first
+        }
+    }
+
+    /**
+     * @param version Catalog version to check
+     * @return true if that version has already been imported
+     */
+    boolean isLoaded(String version) {
+        List<String> versions = jdbcTemplate.queryForList(
+                "SELECT VERSION FROM CATALOG_LOAD_MARKER WHERE ID = 1", String.class);
+        return !versions.isEmpty() && version.equals(versions.get(0));
+    }
+
+    /**
+     * Tries to become the replica that imports the given version.
+     *
+     * @param version Catalog version to import
+     * @param owner Identifier of this replica
+     * @return true if the claim was granted
+     */
+    boolean tryClaim(String version, String owner) {
+        long now = System.currentTimeMillis();
+        int updated = jdbcTemplate.update(
+                "UPDATE CATALOG_LOAD_MARKER SET LOADING_BY = ?, LOADING_SINCE = ? " +
+                "WHERE ID = 1 AND (VERSION IS NULL OR VERSION <> ?) " +
+                "AND (LOADING_BY IS NULL OR LOADING_BY = ? OR LOADING_SINCE < ?)",
+                owner, new Timestamp(now), version, owner, new Timestamp(now - leaseTimeoutMs));
+        return updated == 1;
+    }
+
+    /**
+     * Records that the claimed import finished and releases the claim.
+     */
+    void markLoaded(String version, String owner) {
+        jdbcTemplate.update(
+                "UPDATE CATALOG_LOAD_MARKER SET VERSION = ?, LOADED_AT = ?, LOADING_BY = NULL, LOADING_SINCE = NULL " +
+                "WHERE ID = 1 AND LOADING_BY = ?",
+                version, new Timestamp(System.currentTimeMillis()), owner);
+    }
+
+    /**
+     * Releases a claim without recording a version, so another replica can retry the import.
+     */
+    void release(String owner) {
+        jdbcTemplate.update(
+                "UPDATE CATALOG_LOAD_MARKER SET LOADING_BY = NULL, LOADING_SINCE = NULL WHERE ID = 1 AND LOADING_BY = ?",
+                owner);
+    }
+}
@@ -2,8 +2,10 @@ package com.sirjanhansda.pods.products;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling // Drives the stock lease maintenance (also needed without a read replica)
 public class ProductsApplication {
 
 	public static void main(String[] args) {
@@ -1,22 +1,30 @@
 package com.sirjanhansda.pods.products;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
-import jakarta.annotation.PostConstruct;
+
+import java.util.UUID;
 
 /**
- * This component is responsible for executing tasks after the Spring Boot application has started. 
- * It ensures that products are loaded from a specified CSV file during the application's startup.
- * The class is annotated with @Component, which marks it as a Spring-managed bean, 
+ * This component is responsible for executing tasks after the Spring Boot application has started.
+ * It ensures that products are loaded from a specified CSV file without blocking startup.
+ * The class is annotated with @Component, which marks it as a Spring-managed bean,
  * and it will be automatically detected by Spring's component scanning.
- * 
+ *
  * Dependencies:
  * - csvProdReader: A service component that is responsible for reading products from a CSV file and saving them to the database.
- * 
+ * - catalogLoadMarker: The cluster-wide "already loaded at this version" marker shared by all replicas.
+ * - catalogHealth: The readiness indicator that stays out of service until the catalog is available.
+ *
  * Key methods:
- * - init(): This method is annotated with @PostConstruct, which means it will be executed once the Spring context 
- *   is fully initialized and all dependencies have been injected. It triggers the loading of products from the CSV file 
- *   and prints the result of the operation to the console.
+ * - init(): Runs once the application is ready and hands the catalog load to a background thread, so the
+ *   web server starts immediately. Readiness only flips to UP when the load completes.
+ * - loadCatalog(): Imports the CSV unless another replica already imported (or is importing) the same version.
+ *   A failed attempt (unreadable file, database down) releases the claim and is retried with a doubling backoff,
+ *   so a replica whose load failed becomes ready once the cause goes away instead of staying unready for good.
  */
 @Component
 public class StartUpTasks {
@@ -25,20 +33,108 @@ public class StartUpTasks {
     @Autowired
     private CSVProdReader csvProdReader;
 
+    @Autowired
+    private CatalogLoadMarker catalogLoadMarker;
+
+    @Autowired
+    private CatalogHealthIndicator catalogHealth;
+
+    // Location of the product catalog inside the container
+    @Value("${catalog.csv.path:/products.csv}")
+    private String csvPath;
+
+    // Explicit catalog version; when empty the version is derived from the file content
+    @Value("${catalog.version:}")
+    private String configuredVersion;
+
+    // How often a waiting replica checks whether the importing replica has finished
+    @Value("${catalog.load.poll-interval-ms:2000}")
+    private long pollIntervalMs;
+
+    // Wait before retrying a failed load; doubles with every further failure
+    @Value("${catalog.load.retry-initial-backoff-ms:1000}")
+    private long retryInitialBackoffMs;
+
+    // Upper bound of the wait between retries
+    @Value("${catalog.load.retry-max-backoff-ms:60000}")
+    private long retryMaxBackoffMs;
+
+    // Identifies this replica in the load marker
+    private final String replicaId = System.getenv().getOrDefault("HOSTNAME", "marketplace") + "-" + UUID.randomUUID();
+
     /**
-     * This method is executed after the bean is initialized, thanks to the @PostConstruct annotation.
-     * It loads products from the specified CSV file and prints a success or failure message to the console.
+     * This method is executed once the application is ready to serve requests.
+     * It starts the catalog load on a background thread and returns immediately.
      */
-    @PostConstruct
+    @EventListener(ApplicationReadyEvent.class)
     public void init() {
-        // Load products from the CSV file and get the transaction status (true if successful, false otherwise)
-        Boolean transactionStatus = csvProdReader.loadProductsFromCsv("/products.csv");
-
-        // Print appropriate message based on the transaction status
-        if (!transactionStatus) {
-            System.out.println("No products were found in CSV/ Read Error");
-        } else {
-            System.out.println("Successfully read products from CSV");
+        Thread loader = new Thread(this::loadCatalog, "catalog-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Loads the catalog at most once per version across all replicas, retrying until it succeeds.
+     */
+    void loadCatalog() {
+        long backoffMs = retryInitialBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                loadCatalogOnce();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                catalogHealth.update(CatalogHealthIndicator.State.FAILED, "Attempt " + attempt + " failed, retrying in "
+                        + backoffMs + " ms: " + e.getMessage());
+                System.out.println("[WARN] Catalog load attempt " + attempt + " failed, retrying in " + backoffMs
+                        + " ms: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoffMs = Math.min(retryMaxBackoffMs, backoffMs * 2);
+        }
+    }
+
+    /**
+     * One attempt at loading the catalog.
+     * The replica that wins the claim imports the file; the others poll the marker until it records the version.
+     * A failed import releases the claim, so this or another replica can take it again.
+     */
+    void loadCatalogOnce() throws InterruptedException {
+        String version = configuredVersion.isBlank() ? csvProdReader.catalogVersion(csvPath) : configuredVersion;
+        catalogLoadMarker.ensureExists();
+
+        while (true) {
+            if (catalogLoadMarker.isLoaded(version)) {
+                catalogHealth.update(CatalogHealthIndicator.State.READY, "Catalog version " + version + " loaded");
+                System.out.println("Catalog version " + version + " already loaded");
+                return;
+            }
+
+            if (catalogLoadMarker.tryClaim(version, replicaId)) {
+                catalogHealth.update(CatalogHealthIndicator.State.LOADING, "Importing catalog version " + version);
+                try {
+                    csvProdReader.loadProductsFromCsv(csvPath);
+                    catalogLoadMarker.markLoaded(version, replicaId);
+                } catch (RuntimeException e) {
+                    // Give another replica (or the next attempt) the chance to retry the import
+                    catalogLoadMarker.release(replicaId);
+                    throw e;
+                }
+                catalogHealth.update(CatalogHealthIndicator.State.READY, "Catalog version " + version + " loaded");
+                System.out.println("Successfully read products from CSV");
+                return;
+            }
+
+            catalogHealth.update(CatalogHealthIndicator.State.LOADING,
+                    "Waiting for another replica to import catalog version " + version);
+            Thread.sleep(pollIntervalMs);
         }
     }
 }
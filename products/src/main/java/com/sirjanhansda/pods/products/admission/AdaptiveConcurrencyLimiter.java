@@ -0,0 +1,117 @@
+package com.sirjanhansda.pods.products.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that adapts to the latency it observes (a gradient limiter).
+ *
+ * The limiter keeps a slow moving average of the request latency as the baseline. Each sample is compared
+ * with it: while latency stays within tolerance times the baseline the gradient is 1 and the limit grows by
+ * about sqrt(limit) per sample, so it probes for more capacity. Once requests start queueing somewhere
+ * (database pool, downstream services) latency rises, the gradient drops below 1 and the limit shrinks in
+ * proportion. Failed requests cut the limit multiplicatively. Changes are smoothed so single outliers do not
+ * make the limit jump.
+ *
+ * The limit only grows while it is actually used (at least half of it in flight), so a quiet period does not
+ * leave a huge limit behind for the next burst.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+    private final double dropBackoff;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Only changed in onSample / onDropped, which are synchronized
+    private volatile double limit;
+    private double baselineRttNanos;
+
+    // Samples folded into the baseline; the baseline moves slower once it has a history
+    private static final int BASELINE_WINDOW = 500;
+    private int samples;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double rttTolerance, double smoothing, double dropBackoff) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.smoothing = smoothing;
+        this.dropBackoff = dropBackoff;
+    }
+
+    /**
+     * Admits a request if fewer than limit requests are in flight.
+     * Every admitted request must be completed with onSample or onDropped.
+     *
+     * @return false if the request should be shed
+     */
+    public boolean tryAcquire() {
+        int current;
+        while ((current = inFlight.get()) < (int) limit) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Completes an admitted request that finished normally and adapts the limit to its latency.
+     *
+     * @param rttNanos Time the request took
+     */
+    public synchronized void onSample(long rttNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        samples++;
+        if (baselineRttNanos == 0) {
+            baselineRttNanos = rttNanos;
+            return;
+        }
+        baselineRttNanos += (rttNanos - baselineRttNanos) / Math.min(samples, BASELINE_WINDOW);
+
+        // Recovering from a period of high latency: let the baseline come down faster
+        if (baselineRttNanos > 2 * rttNanos) {
+            baselineRttNanos *= 0.95;
+        }
+
+        if (inFlightBefore < limit / 2) {
+            return; // The limit is not what is holding requests back
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * baselineRttNanos / rttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        setLimit(limit * (1 - smoothing) + target * smoothing);
+    }
+
+    /**
+     * Completes an admitted request that failed (error or timeout) and backs the limit off.
+     */
+    public synchronized void onDropped() {
+        inFlight.decrementAndGet();
+        setLimit(limit * dropBackoff);
+    }
+
+    /**
+     * Completes an admitted request whose outcome says nothing about the load of the service (e.g. one refused
+     * for a single user), leaving the limit as it is.
+     */
+    public void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    private void setLimit(double newLimit) {
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
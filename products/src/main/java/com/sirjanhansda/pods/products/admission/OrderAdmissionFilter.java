@@ -0,0 +1,113 @@
+package com.sirjanhansda.pods.products.admission;
+
+import com.sirjanhansda.pods.products.mailbox.MailboxFullException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Admission control for order placement (POST /orders and POST /orders/batch).
+ *
+ * Requests beyond the adaptive concurrency limit (see AdaptiveConcurrencyLimiter) are shed right away with
+ * 503 and a Retry-After header, before their body is even read, instead of queueing behind the requests that
+ * are already waiting on the database and the downstream services. Admitted requests feed their latency back
+ * into the limit; 5xx answers and exceptions count as failures. Requests refused by a full user mailbox
+ * (marked with MailboxFullException.REQUEST_ATTRIBUTE) say nothing about the load of the service, and are
+ * neither failures nor latency samples.
+ *
+ * Metrics:
+ * - orders.admission.limit: current concurrency limit
+ * - orders.admission.in_flight: admitted requests still running
+ * - orders.admission.shed: requests refused because the limit was reached
+ */
+@Component
+public class OrderAdmissionFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${orders.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${orders.admission.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${orders.admission.min-limit:4}")
+    private int minLimit;
+
+    @Value("${orders.admission.max-limit:200}")
+    private int maxLimit;
+
+    // Latency may grow to this multiple of the baseline before the limit shrinks
+    @Value("${orders.admission.rtt-tolerance:1.5}")
+    private double rttTolerance;
+
+    // Weight of a new sample's target limit in the smoothed limit
+    @Value("${orders.admission.smoothing:0.2}")
+    private double smoothing;
+
+    // Factor applied to the limit when an admitted request fails
+    @Value("${orders.admission.drop-backoff:0.9}")
+    private double dropBackoff;
+
+    // Seconds a shed client is asked to wait before retrying
+    @Value("${orders.admission.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    private AdaptiveConcurrencyLimiter limiter;
+    private Counter shed;
+
+    @PostConstruct
+    void createLimiter() {
+        limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, rttTolerance, smoothing, dropBackoff);
+        meterRegistry.gauge("orders.admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit);
+        meterRegistry.gauge("orders.admission.in_flight", limiter, AdaptiveConcurrencyLimiter::getInFlight);
+        shed = meterRegistry.counter("orders.admission.shed");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !enabled || !"POST".equals(request.getMethod())
+                || !(path.equals("/orders") || path.equals("/orders/batch"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!limiter.tryAcquire()) {
+            shed.increment();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.getWriter().write("Service overloaded, retry later");
+            return;
+        }
+
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = response.getStatus() >= 500;
+        } finally {
+            if (request.getAttribute(MailboxFullException.REQUEST_ATTRIBUTE) != null) {
+                limiter.onIgnored();
+            } else if (failed) {
+                limiter.onDropped();
+            } else {
+                limiter.onSample(System.nanoTime() - started);
+            }
+        }
+    }
+}
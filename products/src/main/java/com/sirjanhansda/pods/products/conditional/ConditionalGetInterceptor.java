@@ -0,0 +1,73 @@
+package com.sirjanhansda.pods.products.conditional;
+
+import com.sirjanhansda.pods.products.datasource.PrimaryReads;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Answers conditional GETs of @VersionedResource handlers. Runs before the handler, and so before its
+ * transaction has taken a database connection.
+ *
+ * A handler that runs after the version was taken reads the primary database (see PrimaryReads): the replica
+ * may not have the writes the version already counts, and its older data would then be cached by the client
+ * under the newer ETag.
+ *
+ * Off by default: the versions only see this instance's writes (see ResourceVersions).
+ *
+ * Metrics:
+ * - http.conditional.not_modified: requests answered with 304, by resource
+ */
+@Component
+public class ConditionalGetInterceptor implements HandlerInterceptor, WebMvcConfigurer {
+
+    @Autowired
+    private ResourceVersions resourceVersions;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${conditional-get.enabled:false}")
+    private boolean enabled;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (enabled) {
+            registry.addInterceptor(this);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        VersionedResource versioned = handlerMethod.getMethodAnnotation(VersionedResource.class);
+        if (versioned == null) {
+            return true;
+        }
+
+        // Sets the ETag on the response either way, and the 304 status if the client's copy is current
+        if (new ServletWebRequest(request, response).checkNotModified(resourceVersions.etag(versioned.value()))) {
+            meterRegistry.counter("http.conditional.not_modified", "resource", versioned.value().name().toLowerCase())
+                    .increment();
+            return false;
+        }
+        PrimaryReads.pin();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        PrimaryReads.release();
+    }
+}
@@ -0,0 +1,36 @@
+package com.sirjanhansda.pods.products.conditional;
+
+import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.model.Product;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * JPA entity listener that reports every insert, update and delete of products and orders to
+ * ResourceVersions, including changes Hibernate flushes from dirty entities. Bulk updates and plain JDBC
+ * writes bypass it and report themselves.
+ *
+ * Hibernate creates the listener through Spring; where no ResourceVersions exists (e.g. JPA test slices)
+ * there is nobody to report to.
+ */
+public class ResourceVersionListener {
+
+    @Autowired(required = false)
+    private ResourceVersions resourceVersions;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    void changed(Object entity) {
+        if (resourceVersions == null) {
+            return;
+        }
+        if (entity instanceof Product) {
+            resourceVersions.changed(ResourceVersions.Resource.CATALOG);
+        } else if (entity instanceof Orders) {
+            resourceVersions.changed(ResourceVersions.Resource.ORDERS);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.sirjanhansda.pods.products.conditional;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory version counters of the resources served with ETags (see VersionedResource). Every write to a
+ * resource moves its version on, so the ETag derived from it tells a client whether the copy it holds is
+ * still current without reading the database.
+ *
+ * A write moves the version on once its transaction has completed (right away outside a transaction). A
+ * reader takes the version before it reads, so a response can be tagged with an older version than its data,
+ * which only costs a 200 where a 304 would have done, but never with a newer one.
+ *
+ * The counters start over with every start of the service, so ETags also carry a random id of the instance.
+ * They only see the writes made through this instance: with several marketplace replicas writing one
+ * database (as products-deployment.yaml runs it), conditional GETs must stay off (conditional-get.enabled=false).
+ */
+@Component
+public class ResourceVersions {
+
+    public enum Resource {
+        // Products and their stock
+        CATALOG,
+        // Orders and their items
+        ORDERS
+    }
+
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+    private final Map<Resource, AtomicLong> versions = new EnumMap<>(Resource.class);
+
+    public ResourceVersions() {
+        for (Resource resource : Resource.values()) {
+            versions.put(resource, new AtomicLong());
+        }
+    }
+
+    /**
+     * Records a write to the resource; inside a transaction the version moves on when it completes (once per
+     * transaction), whether it committed or not.
+     */
+    public void changed(Resource resource) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            versions.get(resource).incrementAndGet();
+            return;
+        }
+        // Bound to the transaction until it completes, so later writes in it do not register again
+        String key = ResourceVersions.class.getName() + "." + resource;
+        if (TransactionSynchronizationManager.hasResource(key)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(key, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(key);
+                versions.get(resource).incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @return Weak ETag of the current version of the resource
+     */
+    public String etag(Resource resource) {
+        return "W/\"" + resource.name().toLowerCase() + "-" + instanceId + "-" + versions.get(resource).get() + "\"";
+    }
+}
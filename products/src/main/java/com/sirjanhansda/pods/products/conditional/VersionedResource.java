@@ -0,0 +1,18 @@
+package com.sirjanhansda.pods.products.conditional;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a GET handler whose response only changes with the version of a resource (see ResourceVersions).
+ * The response carries the version's ETag, and a request whose If-None-Match still matches it gets 304
+ * before the handler runs, so neither the database nor the serializer is touched.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface VersionedResource {
+
+    ResourceVersions.Resource value();
+}
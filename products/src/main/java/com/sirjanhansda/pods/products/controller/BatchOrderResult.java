@@ -0,0 +1,41 @@
+package com.sirjanhansda.pods.products.controller;
+
+import com.sirjanhansda.pods.products.model.Orders;
+import lombok.Getter;
+
+/**
+ * This class represents the outcome of one order in a POST /orders/batch request.
+ * It contains the following fields:
+ * - index (int): Position of the order in the submitted batch.
+ * - user_id (Integer): The user who placed the order.
+ * - status (int): HTTP status the order would have received from POST /orders (201 or 400).
+ * - order (Orders): The created order, if the order succeeded.
+ * - error (String): The reason for the failure, if the order failed.
+ *
+ * The @Getter annotation from Lombok automatically generates getter methods for the fields.
+ */
+@Getter
+public class BatchOrderResult {
+
+    private final int index;
+    private final Integer user_id;
+    private final int status;
+    private final Orders order;
+    private final String error;
+
+    private BatchOrderResult(int index, Integer user_id, int status, Orders order, String error) {
+        this.index = index;
+        this.user_id = user_id;
+        this.status = status;
+        this.order = order;
+        this.error = error;
+    }
+
+    static BatchOrderResult created(int index, Orders order) {
+        return new BatchOrderResult(index, order.getUser_id(), 201, order, null);
+    }
+
+    static BatchOrderResult failed(int index, Integer userId, String error) {
+        return new BatchOrderResult(index, userId, 400, null, error);
+    }
+}
@@ -1,19 +1,24 @@
 package com.sirjanhansda.pods.products.controller;
 
 // Required imports for handling HTTP requests, responses, and data models
+import com.sirjanhansda.pods.products.mailbox.UserMailboxes;
 import com.sirjanhansda.pods.products.model.*;
+import com.sirjanhansda.pods.products.orderdb.OrderStatusService;
 import com.sirjanhansda.pods.products.orderdb.OrdersDb;
-import com.sirjanhansda.pods.products.proddb.ProdDb;
+import com.sirjanhansda.pods.products.proddb.ProductStockService;
+import com.sirjanhansda.pods.products.resilience.DependencyUnavailableException;
+import com.sirjanhansda.pods.products.resilience.ServiceClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * MarketPlaceRouter handles all marketplace-related operations including:
@@ -24,7 +29,7 @@ import java.util.Map;
  * 
  * This controller acts as a central hub for coordinating operations between:
  * - Order database
- * - Product database
+ * - Product stock
  * - Wallet service
  * - Account service
  */
@@ -39,16 +44,23 @@ public class MarketPlaceRouter {
     @Value("${wallets.service.url}")
     private String walletServiceUrl;
 
-    // RestTemplate instance for making HTTP calls to external services
-    // Not using @Autowired to maintain better control over the instance
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Guarded HTTP access (timeouts, bulkhead, circuit breaker) to the wallet service
+    @Autowired
+    @Qualifier("walletsServiceClient")
+    private ServiceClient walletsService;
 
     // Database repositories for handling order and product data
     @Autowired
     private OrdersDb ordersDb;  // Handles all order-related database operations
 
     @Autowired
-    private ProdDb prodDb;      // Handles all product-related database operations
+    private OrderStatusService orderStatusService;      // Version-checked order status changes
+
+    @Autowired
+    private ProductStockService productStockService;    // Version-checked stock restoration
+
+    @Autowired
+    private UserMailboxes userMailboxes;                // Runs each user's order mutations one at a time
 
     /**
      * Handles the deletion of all orders for a specific user.
@@ -58,14 +70,25 @@ public class MarketPlaceRouter {
      * 3. Calculating refund amount
      * 4. Restoring wallet balance
      * 5. Restoring product stock
+     * Runs in the user's mailbox, so it cannot overlap with the user's new orders.
+     * If the wallet service refuses the refund without it being sent (open circuit, full bulkhead), the
+     * cancelled orders go back to PLACED, so the cancellation can be retried.
      * 
      * @param userid The ID of the user whose orders need to be deleted
      * @return ResponseEntity with appropriate HTTP status:
      *         - 200 OK if orders were found and processed
      *         - 404 Not Found if no orders exist for the user
+     *         - 503 Service Unavailable if the refund was refused
      */
     @DeleteMapping("/users/{userid}")
     public ResponseEntity<?> deleteOrderByUserId(@PathVariable("userid") Integer userid) {
+        return userMailboxes.call(userid, () -> cancelUserOrders(userid));
+    }
+
+    /**
+     * Steps 1-5 of deleteOrderByUserId; runs in the user's mailbox.
+     */
+    private ResponseEntity<?> cancelUserOrders(Integer userid) {
         // Step 1: Retrieve all orders for the specified user
         List<Orders> ordersWithUserId = ordersDb.findOrdersByUser_id(userid);
 
@@ -76,28 +99,40 @@ public class MarketPlaceRouter {
 
         // Collections to track items and amounts that need processing
         List<OrderItem> orderItems = new ArrayList<>();
+        List<Integer> cancelledIds = new ArrayList<>();  // Orders to reopen if the refund is refused
         boolean foundPlaced = false;  // Flag to track if any PLACED orders were found
         Integer totalRefundablePrice = 0;  // Running total of amount to be refunded
 
         // Step 2: Process each order
         for (Orders order : ordersWithUserId) {
-            // Only process orders in PLACED status
+            // Only process orders in PLACED status; the version check skips orders cancelled concurrently
             if (order.getStatus().equals(OrderStatus.PLACED)) {
-                // Update order status to CANCELLED
-                order.setStatus(OrderStatus.CANCELLED);
-                ordersDb.save(order);
+                Optional<Orders> cancelled = orderStatusService.updatePlacedOrder(order.getOrder_id(), OrderStatus.CANCELLED);
+                if (cancelled.isEmpty()) {
+                    continue;
+                }
 
                 // Add order amount to refund total
-                totalRefundablePrice += order.getTotal_price();
+                totalRefundablePrice += cancelled.get().getTotal_price();
                 
                 // Add items to list for stock restoration
-                orderItems.addAll(order.getItems());
+                orderItems.addAll(cancelled.get().getItems());
+                cancelledIds.add(order.getOrder_id());
                 foundPlaced = true;
             }
         }
 
         // Step 3: Attempt to restore balance to user's wallet
-        boolean restoreDone = restoreBalance(userid, totalRefundablePrice);
+        boolean restoreDone;
+        try {
+            restoreDone = restoreBalance(userid, totalRefundablePrice);
+        } catch (DependencyUnavailableException e) {
+            // The credit was never sent, so nothing has been refunded yet and the cancellations can be undone
+            cancelledIds.forEach(orderStatusService::reopenCancelledOrder);
+            return foundPlaced
+                    ? ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage())
+                    : ResponseEntity.notFound().build();
+        }
         // Log the result of the wallet restoration attempt
         if (restoreDone) {
             System.out.println("Restore done");  // Consider replacing with proper logging
@@ -107,7 +142,7 @@ public class MarketPlaceRouter {
 
         // Step 4: Restore stock and return appropriate response
         if (foundPlaced) {
-            restoreStock(orderItems);  // Restore stock for all cancelled items
+            productStockService.restoreStock(orderItems);  // Restore stock for all cancelled items
             return ResponseEntity.ok().build();
         } else {
             // Return 404 if no PLACED orders were found
@@ -118,57 +153,30 @@ public class MarketPlaceRouter {
     /**
      * Deletes all orders in the system that are in PLACED status.
      * This method:
-     * 1. Retrieves all orders
-     * 2. Processes refunds for each user
-     * 3. Restores product stock
+     * 1. Finds the users with PLACED orders
+     * 2. Cancels each user's orders in that user's mailbox, which
+     *    processes the user's refund and restores product stock
      * 
      * @return ResponseEntity with HTTP status 200 OK
      */
     @DeleteMapping
     public ResponseEntity<?> deleteAllOrders() {
-        // Step 1: Retrieve all orders from the database
-        List<Orders> allOrders = ordersDb.findAll();
-        
-        // If no orders exist, return success immediately
-        if (allOrders.isEmpty()) {
-            return ResponseEntity.ok().build();
+        // Step 1: Users that have at least one PLACED order
+        Set<Integer> userIds = new LinkedHashSet<>();
+        for (Orders order : ordersDb.findOrdersByStatus(OrderStatus.PLACED)) {
+            userIds.add(order.getUser_id());
         }
 
-        // Map to track refundable amounts per user
-        Map<Integer, Integer> refundableAmounts = new HashMap<>();
-        // List to track items that need stock restoration
-        List<OrderItem> orderItems = new ArrayList<>();
-
-        // Step 2: Process each order
-        for (Orders order : allOrders) {
-            if (order.getStatus().equals(OrderStatus.PLACED)) {
-                // Update order status to CANCELLED
-                order.setStatus(OrderStatus.CANCELLED);
-                ordersDb.save(order);
-
-                // Add refund amount to user's total
-                // getOrDefault handles cases where this is the first order for the user
-                refundableAmounts.put(
-                    order.getUser_id(),
-                    refundableAmounts.getOrDefault(order.getUser_id(), 0) + order.getTotal_price()
-                );
-
-                // Add items to list for stock restoration
-                orderItems.addAll(order.getItems());
+        // Step 2: Cancel per user, one user at a time
+        for (Integer userId : userIds) {
+            ResponseEntity<?> result = userMailboxes.call(userId, () -> cancelUserOrders(userId));
+            if (result.getStatusCode().value() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                System.out.println("[WARN] Cancellation for user " + userId + " undone: " + result.getBody());
+                continue;
             }
+            System.out.println("Cancellation for user " + userId +
+                             (result.getStatusCode().is2xxSuccessful() ? " done" : " found nothing to cancel"));
         }
-
-        // Step 3: Process refunds for each user
-        for (Map.Entry<Integer, Integer> entry : refundableAmounts.entrySet()) {
-            // Attempt to restore balance for each user
-            boolean restoreDone = restoreBalance(entry.getKey(), entry.getValue());
-            // Log the result of each restoration attempt
-            System.out.println("Restore for user " + entry.getKey() + 
-                             (restoreDone ? " done" : " failed"));
-        }
-
-        // Step 4: Restore stock levels for all cancelled items
-        restoreStock(orderItems);
         return ResponseEntity.ok().build();
     }
 
@@ -178,7 +186,7 @@ public class MarketPlaceRouter {
      * @param userid ID of the user receiving the refund
      * @param price Amount to be credited to the user's wallet
      * @return boolean indicating if the wallet update was successful
-     * @throws RuntimeException if the wallet service call fails
+     * @throws DependencyUnavailableException if the wallet service refused the call before it was sent
      */
     private boolean restoreBalance(Integer userid, Integer price) {
         // Create wallet update request
@@ -187,45 +195,21 @@ public class MarketPlaceRouter {
         walletPutRequest.setAction(WalletPUTRequest.Action.credit);
 
         try {
-            // Make HTTP PUT request to wallet service
-            ResponseEntity<?> response = restTemplate.exchange(
+            // Make HTTP PUT request to wallet service; a credit is not idempotent, so it is never retried
+            ResponseEntity<?> response = walletsService.call(rest -> rest.exchange(
                 walletServiceUrl + "/wallets/" + userid,  // Target URL
                 HttpMethod.PUT,                           // HTTP method
                 new HttpEntity<>(walletPutRequest),      // Request body
                 String.class                             // Response type
-            );
+            ));
             // Return true only if response status is OK
             return response.getStatusCode() == HttpStatus.OK;
+        } catch (DependencyUnavailableException e) {
+            throw e; // Not sent, so the caller can undo the cancellation
         } catch (Exception e) {
-            // Consider more specific exception handling
-            throw new RuntimeException(e);
-        }
-    }
-
-    /**
-     * Restores product stock levels for cancelled orders.
-     * For each item:
-     * 1. Retrieves the product
-     * 2. Updates its stock quantity
-     * 3. Saves the updated product
-     * 
-     * @param restoreItems List of OrderItems containing products and quantities
-     */
-    private void restoreStock(List<OrderItem> restoreItems) {
-        for (OrderItem restoreItem : restoreItems) {
-            // Extract quantity and product ID from the order item
-            Integer quantity = restoreItem.getQuantity();
-            Integer prodId = restoreItem.getProduct_id();
-
-            // Retrieve product from database
-            List<Product> products = prodDb.findProductById(prodId);
-            // Get the first (and should be only) product
-            Product product = products.get(0);
-            
-            // Update stock quantity by adding back the cancelled amount
-            product.setStock_quantity(product.getStock_quantity() + quantity);
-            // Save updated product back to database
-            prodDb.save(product);
+            // Report the failure instead of aborting the cancellation halfway (stock is still restored)
+            System.out.println("[WARN] Refund of " + price + " to user " + userid + " failed: " + e.getMessage());
+            return false;
         }
     }
 }
\ No newline at end of file
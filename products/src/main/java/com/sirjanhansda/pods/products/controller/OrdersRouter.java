@@ -1,24 +1,45 @@
 package com.sirjanhansda.pods.products.controller;
 
 // Import required dependencies for handling HTTP requests, database operations, and model classes
+import com.sirjanhansda.pods.products.conditional.ResourceVersions;
+import com.sirjanhansda.pods.products.conditional.VersionedResource;
+import com.sirjanhansda.pods.products.deadline.Deadline;
+import com.sirjanhansda.pods.products.deadline.DeadlineExceededException;
+import com.sirjanhansda.pods.products.mailbox.UserMailboxes;
 import com.sirjanhansda.pods.products.model.*;
+import com.sirjanhansda.pods.products.orderdb.OrderStatusService;
 import com.sirjanhansda.pods.products.orderdb.OrdersDb;
 import com.sirjanhansda.pods.products.proddb.ProdDb;
-import jakarta.transaction.Transactional;
+import com.sirjanhansda.pods.products.proddb.ProductStockService;
+import com.sirjanhansda.pods.products.readmodel.OrderReadModel;
+import com.sirjanhansda.pods.products.readmodel.OrderView;
+import com.sirjanhansda.pods.products.readmodel.ProductView;
+import com.sirjanhansda.pods.products.resilience.DependencyUnavailableException;
+import com.sirjanhansda.pods.products.resilience.ServiceClient;
+import com.sirjanhansda.pods.products.singleflight.SingleFlight;
+import com.sirjanhansda.pods.products.stock.StockLeaseManager;
+import com.sirjanhansda.pods.products.stock.StockReservation;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * OrdersRouter handles all order-related operations in the system.
  * This includes:
  * - Creating new orders
- * - Retrieving order information
+ * - Retrieving order information, read as OrderView rows through OrderReadModel (the order lists carry an ETag
+ *   of the orders' version, see VersionedResource)
  * - Updating order status
  * - Cancelling orders
  * - Managing stock levels
@@ -36,6 +57,24 @@ public class OrdersRouter {
     @Autowired
     private ProdDb prodDb;        // Repository for product-related operations
 
+    @Autowired
+    private OrderStatusService orderStatusService;    // Version-checked order status changes
+
+    @Autowired
+    private ProductStockService productStockService;  // Version-checked stock restoration
+
+    @Autowired
+    private StockLeaseManager stockLeases;             // Stock reservations, from local leases for hot products
+
+    @Autowired
+    private UserMailboxes userMailboxes;               // Runs each user's order mutations one at a time
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;   // Transactions for work run in a mailbox
+
+    @Autowired
+    private OrderReadModel orderReadModel;             // Orders for the GET endpoints, without entity hydration
+
     // Configuration values for external service URLs
     @Value("${account.service.url}")
     private String accountServiceUrl;  // URL for account service
@@ -43,8 +82,42 @@ public class OrdersRouter {
     @Value("${wallets.service.url}")
     private String walletServiceUrl;   // URL for wallet service
 
-    // RestTemplate instance for making HTTP calls to external services
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Upper bound on the number of orders accepted in one POST /orders/batch request
+    @Value("${orders.batch.max-size:500}")
+    private int maxBatchSize;
+
+    // Users per multi-get call (GET /users?ids=, GET /wallets?ids=) made by a batch; at most the services' max-ids
+    @Value("${orders.batch.lookup-chunk-size:100}")
+    private int lookupChunkSize;
+
+    // When enabled, takeOrder skips the wallet pre-read and relies on the wallet service's conditional debit
+    @Value("${orders.optimistic-debit.enabled:false}")
+    private boolean optimisticDebit;
+
+    // Orders a single user may have pending at once; further concurrent orders are refused with 503
+    @Value("${orders.admission.per-user-max-in-flight:2}")
+    private int maxOrdersInFlightPerUser;
+
+    // Guarded HTTP access (timeouts, bulkhead, circuit breaker) to the external services
+    @Autowired
+    @Qualifier("accountServiceClient")
+    private ServiceClient accountService;
+
+    @Autowired
+    @Qualifier("walletsServiceClient")
+    private ServiceClient walletsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Concurrent orders for the same product share one product lookup. The shared result is an immutable view,
+    // since the callers run on different mailbox threads and must not share a managed entity.
+    private SingleFlight<Integer, Optional<ProductView>> productLookups;
+
+    @PostConstruct
+    void createProductLookups() {
+        productLookups = new SingleFlight<>("order-product-lookup", meterRegistry);
+    }
 
     /**
      * Creates a new order in the system.
@@ -52,43 +125,59 @@ public class OrdersRouter {
      * 1. Validate user exists and get details
      * 2. Validate order quantities
      * 3. Calculate total cost with discounts
-     * 4. Check wallet balance
-     * 5. Process payment
-     * 6. Update stock levels
-     * 7. Update discount status
-     * 8. Create and save order
+     * 4. Check wallet balance (skipped in optimistic debit mode)
+     * 5. Place a hold on the payment
+     * 6. Reserve stock (from this replica's stock lease for hot products)
+     * 7. Capture the payment hold
+     * 8. Update discount status, once the payment is captured
+     * 9. Create and save order
+     * A failure after step 5 releases the hold instead of debiting and refunding the wallet. A capture whose
+     * outcome is unknown (lost answer, timeout, 5xx) is settled by asking the wallet service for the hold, and
+     * the order is only rejected if the hold turns out not to be captured.
+     * Runs in the user's mailbox, in its own transaction, so a user's orders and cancellations never overlap.
+     * A user who already has per-user-max-in-flight orders pending gets 503 right away.
+     * If the request's deadline passes before the payment hold is placed, the order is abandoned with 504;
+     * once the hold is placed, the order is finished (or undone) regardless of the deadline.
      *
      * @param prodPOSTRequest Order request containing user ID and items
      * @return ResponseEntity with created order or error message
-     * TODO: Allow concurrency for multiple users
      */
-    @Transactional
     @PostMapping
     public ResponseEntity<?> takeOrder(@RequestBody ProdPOSTRequest prodPOSTRequest) {
+        return userMailboxes.call(prodPOSTRequest.getUser_id(), maxOrdersInFlightPerUser,
+                () -> transactionTemplate.execute(status -> placeOrder(prodPOSTRequest)));
+    }
+
+    /**
+     * Steps 1-9 of takeOrder; runs in the user's mailbox within a transaction.
+     */
+    private ResponseEntity<?> placeOrder(ProdPOSTRequest prodPOSTRequest) {
         Integer userId = prodPOSTRequest.getUser_id();
 
         // Step 1: Verify user exists and get their details
-        synchronized (userId.toString().intern()) {
-            ResponseEntity<Customer> customerResponse = getCustomerDetails(userId);
-            if (!customerResponse.getStatusCode().is2xxSuccessful()) {
-                System.out.println("Cannot get user");
-                return ResponseEntity.badRequest().body(customerResponse);
-            }
+        ResponseEntity<Customer> customerResponse = getCustomerDetails(userId);
+        if (!customerResponse.getStatusCode().is2xxSuccessful()) {
+            System.out.println("Cannot get user");
+            return ResponseEntity.badRequest().body(customerResponse);
+        }
 
-            // Step 2: Validate quantities in order
-            for (ItemFormat item : prodPOSTRequest.getItems()) {
-                if (item.getQuantity() <= 0) {
-                    return ResponseEntity.badRequest().body("Quantity should be greater than 0");
-                }
+        // Step 2: Validate quantities in order
+        for (ItemFormat item : prodPOSTRequest.getItems()) {
+            if (item.getQuantity() <= 0) {
+                return ResponseEntity.badRequest().body("Quantity should be greater than 0");
             }
+        }
 
-            // Step 3: Calculate total cost including any applicable discounts
-            double totalCost = calculateTotalCost(prodPOSTRequest, customerResponse.getBody());
-            if (totalCost < 0) {
-                return ResponseEntity.badRequest().body("Product not found or stock insufficient");
-            }
+        // Step 3: Calculate total cost including any applicable discounts
+        double totalCost = calculateTotalCost(prodPOSTRequest, customerResponse.getBody());
+        if (totalCost < 0) {
+            return ResponseEntity.badRequest().body("Product not found or stock insufficient");
+        }
 
-            // Step 4: Check user's wallet balance
+        // Step 4: Check user's wallet balance
+        // The hold below is conditional on the balance anyway, so in optimistic mode
+        // this round trip is skipped and an insufficient balance is detected by the hold
+        if (!optimisticDebit) {
             ResponseEntity<UsrWallet> walletResponse = getWalletDetails(userId);
             if (!walletResponse.getStatusCode().is2xxSuccessful()) {
                 return ResponseEntity.badRequest().body(walletResponse);
@@ -98,49 +187,332 @@ public class OrdersRouter {
             if (usrWallet.getBalance() < totalCost) {
                 return ResponseEntity.badRequest().body("Not enough money");
             }
+        }
+
+        // Step 5: Reserve the payment with a wallet hold
+        Deadline.check("placing the payment hold");
+        PaymentHold paymentHold = placeWalletHold(userId, totalCost);
+        if (paymentHold.outcome() == PaymentOutcome.INSUFFICIENT_FUNDS) {
+            return ResponseEntity.badRequest().body("Not enough money");
+        }
+        if (paymentHold.outcome() != PaymentOutcome.HELD) {
+            return ResponseEntity.badRequest().body("Failed to process payment");
+        }
+
+        // Abandoning the order from here on would take another call to release the hold, so it is finished
+        // (or undone) even if the client has given up
+        Deadline.clear();
+
+        // Step 6: Reserve stock, once per product (from this replica's stock lease when it holds one)
+        Map<Integer, Integer> wanted = new LinkedHashMap<>();
+        prodPOSTRequest.getItems().forEach(item -> wanted.merge(item.getProduct_id(), item.getQuantity(), Integer::sum));
+        Map<Integer, StockReservation> deductedStocks = new HashMap<>();
+
+        for (Map.Entry<Integer, Integer> entry : wanted.entrySet()) {
+            StockReservation reservation = stockLeases.reserve(entry.getKey(), entry.getValue());
+            if (reservation == null) {
+                // Rollback stock & release the payment hold
+                rollbackStock(deductedStocks);
+                releaseWalletHold(userId, paymentHold.holdId());
+                return ResponseEntity.badRequest().body("Stock insufficient for product " + entry.getKey());
+            }
+            deductedStocks.put(entry.getKey(), reservation); // Store deducted stock for rollback
+        }
+
+
+        // Step 7: Make the payment final now that the stock is reserved
+        if (!captureWalletHold(userId, paymentHold.holdId())) {
+            // The hold was released or expired; the wallet service returns expired holds to the wallet on its own
+            rollbackStock(deductedStocks);
+            return ResponseEntity.badRequest().body("Failed to process payment");
+        }
+
+        // Step 8: Update customer's discount status. The order is paid for by now, so a failure here does not
+        // undo it; the customer keeps the discount for a later order.
+        if (!updateDiscountStatus(prodPOSTRequest, Objects.requireNonNull(customerResponse.getBody()))) {
+            System.out.println("[WARN] Order of user " + userId + " used the discount, but the discount flag was not set");
+        }
+
+        // Step 9: Create and save the order
+        Orders ord = createOrder(prodPOSTRequest, userId, totalCost, deductedStocks);
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(ord);
+    }
+
+    /**
+     * Hands all reserved stock back; called within the order's transaction.
+     *
+     * @param deductedStocks Reservations by product id
+     */
+    private void rollbackStock(Map<Integer, StockReservation> deductedStocks) {
+        deductedStocks.values().forEach(stockLeases::release);
+    }
+
+    /**
+     * Hands part of the reserved stock back, e.g. for the rejected orders of a batch.
+     *
+     * @param reservations Reservations by product id
+     * @param quantities Quantity to hand back per product id
+     */
+    private void rollbackStock(Map<Integer, StockReservation> reservations, Map<Integer, Integer> quantities) {
+        quantities.forEach((productId, quantity) -> stockLeases.release(reservations.get(productId), quantity));
+    }
+
+    /**
+     * Places many orders in one request, with one result per order.
+     * Process flow:
+     * 1. Validate each order and group the valid ones by user
+     * 2. Fetch the customer and wallet details of all users, with one multi-get call to each service
+     * 3. Price every order against a single read of the involved products,
+     *    checking stock and wallet balance in memory
+     * 4. Reserve stock with one aggregated reservation per product
+     * 5. Place one wallet hold per user for all of their accepted orders
+     * 6. Capture the holds, update discount status once per user whose discounted order was paid for, and save
+     *    all orders in this transaction
+     *
+     * Orders are priced in request order per user, so only a user's first accepted order gets the discount.
+     * If that order is rejected later on (stock taken meanwhile, payment failed), the discount stays unused.
+     * Steps 2-6 run in one transaction that is only opened once the users' mailboxes are held, so a batch
+     * waiting for them does not keep a pool connection from the orders queued ahead of it.
+     *
+     * @param requests Orders to place, each in the same format as POST /orders
+     * @return ResponseEntity with the per-order results, in request order
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> takeOrders(@RequestBody List<ProdPOSTRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return ResponseEntity.badRequest().body("Batch is empty");
+        }
+        if (requests.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().body("Batch exceeds the maximum size of " + maxBatchSize);
+        }
+
+        BatchOrderResult[] results = new BatchOrderResult[requests.size()];
+
+        // Step 1: Validate orders and group them by user
+        Map<Integer, List<Integer>> indexesByUser = new TreeMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            ProdPOSTRequest request = requests.get(i);
+            String error = validateOrder(request);
+            if (error != null) {
+                results[i] = BatchOrderResult.failed(i, request == null ? null : request.getUser_id(), error);
+            } else {
+                indexesByUser.computeIfAbsent(request.getUser_id(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // Hold the mailboxes of all users in the batch, so none of their other requests run in between
+        userMailboxes.callExclusive(indexesByUser.keySet(), () -> {
+            transactionTemplate.executeWithoutResult(status -> placeBatch(requests, indexesByUser, results));
+            return null;
+        });
 
-            // Step 5: Process payment by debiting wallet
-            boolean debitSuccess = debitAmountFromWallet(userId, totalCost);
-            if (!debitSuccess) {
-                return ResponseEntity.badRequest().body("Failed to process payment");
+        return ResponseEntity.ok(Arrays.asList(results));
+    }
+
+    /**
+     * Checks the parts of an order that do not need any lookups.
+     *
+     * @return Error message, or null if the order is well-formed
+     */
+    private String validateOrder(ProdPOSTRequest request) {
+        if (request == null || request.getUser_id() == null) {
+            return "User id is required";
+        }
+        if (request.getItems() == null || request.getItems().isEmpty()) {
+            return "Order has no items";
+        }
+        for (ItemFormat item : request.getItems()) {
+            if (item.getProduct_id() == null) {
+                return "Product not found or stock insufficient";
+            }
+            if (item.getQuantity() == null || item.getQuantity() <= 0) {
+                return "Quantity should be greater than 0";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Steps 2-6 of takeOrders; runs in the users' mailboxes within a transaction and fills in a result for
+     * every grouped order.
+     */
+    private void placeBatch(List<ProdPOSTRequest> requests,
+                            Map<Integer, List<Integer>> indexesByUser,
+                            BatchOrderResult[] results) {
+        // One read of every product referenced by the batch
+        Set<Integer> productIds = new HashSet<>();
+        for (List<Integer> indexes : indexesByUser.values()) {
+            for (Integer index : indexes) {
+                requests.get(index).getItems().forEach(item -> productIds.add(item.getProduct_id()));
+            }
+        }
+        Map<Integer, Product> products = new HashMap<>();
+        Map<Integer, Integer> availableStock = new HashMap<>();
+        for (Product product : prodDb.findAllById(productIds)) {
+            products.put(product.getId(), product);
+            availableStock.put(product.getId(), stockLeases.sellableStock(product.getId(), product.getStock_quantity()));
+        }
+
+        Map<Integer, Double> acceptedCosts = new LinkedHashMap<>();   // order index -> total cost
+        Map<Integer, Integer> discountedOrders = new HashMap<>();     // user id -> index of the order priced with the discount
+
+        // Step 2: Customer and wallet details of all users in the batch
+        Map<Integer, Customer> customers = getMany(accountService, accountServiceUrl + "/users",
+                indexesByUser.keySet(), Customer[].class, Customer::getId);
+        Map<Integer, UsrWallet> wallets = getMany(walletsService, walletServiceUrl + "/wallets",
+                indexesByUser.keySet(), UsrWallet[].class, UsrWallet::getUserid);
+
+        for (Map.Entry<Integer, List<Integer>> entry : indexesByUser.entrySet()) {
+            Integer userId = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+
+            Customer customer = customers.get(userId);
+            if (customer == null) {
+                indexes.forEach(i -> results[i] = BatchOrderResult.failed(i, userId, "Cannot get user"));
+                continue;
+            }
+            UsrWallet wallet = wallets.get(userId);
+            if (wallet == null) {
+                indexes.forEach(i -> results[i] = BatchOrderResult.failed(i, userId, "Cannot get wallet"));
+                continue;
             }
 
-            // Step 6: Update product stock levels
-            Map<Integer, Integer> deductedStocks = new HashMap<>();
+            double remainingBalance = wallet.getBalance();
+            boolean discountAvailable = !customer.getDiscount_availed();
+
+            // Step 3: Price orders and check stock and balance in memory
+            for (Integer index : indexes) {
+                ProdPOSTRequest request = requests.get(index);
+                double totalCost = 0;
+                boolean stockOk = true;
+                Map<Integer, Integer> wanted = new HashMap<>();
+                for (ItemFormat item : request.getItems()) {
+                    Product product = products.get(item.getProduct_id());
+                    int alreadyWanted = wanted.getOrDefault(item.getProduct_id(), 0);
+                    if (product == null
+                            || availableStock.get(item.getProduct_id()) < alreadyWanted + item.getQuantity()) {
+                        stockOk = false;
+                        break;
+                    }
+                    wanted.put(item.getProduct_id(), alreadyWanted + item.getQuantity());
+                    double discountFactor = discountAvailable ? 0.9 : 1.0;
+                    totalCost += discountFactor * product.getPrice() * item.getQuantity();
+                }
 
-            for (ItemFormat item : prodPOSTRequest.getItems()) {
-                int updatedRows = prodDb.decrementStock(item.getProduct_id(), item.getQuantity());
-                if (updatedRows == 0) {
-                    // Rollback stock & refund wallet
-                    rollbackStock(deductedStocks);
-                    refundAmountToWallet(userId, totalCost);
-                    return ResponseEntity.badRequest().body("Stock insufficient for product " + item.getProduct_id());
+                if (!stockOk) {
+                    results[index] = BatchOrderResult.failed(index, userId, "Product not found or stock insufficient");
+                } else if (remainingBalance < totalCost) {
+                    results[index] = BatchOrderResult.failed(index, userId, "Not enough money");
+                } else {
+                    remainingBalance -= (int) totalCost;
+                    wanted.forEach((productId, quantity) -> availableStock.merge(productId, -quantity, Integer::sum));
+                    acceptedCosts.put(index, totalCost);
+                    if (discountAvailable) {
+                        discountedOrders.put(userId, index);
+                        discountAvailable = false;
+                    }
                 }
-                deductedStocks.put(item.getProduct_id(), item.getQuantity()); // Store deducted stock for rollback
             }
+        }
 
+        // Step 4: Reserve stock with one aggregated reservation per product
+        Map<Integer, Integer> demand = new HashMap<>();
+        for (Integer index : acceptedCosts.keySet()) {
+            requests.get(index).getItems().forEach(item -> demand.merge(item.getProduct_id(), item.getQuantity(), Integer::sum));
+        }
+        Set<Integer> shortProducts = new HashSet<>();
+        Map<Integer, StockReservation> reservations = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : demand.entrySet()) {
+            StockReservation reservation = stockLeases.reserve(entry.getKey(), entry.getValue());
+            if (reservation == null) {
+                shortProducts.add(entry.getKey()); // Stock changed since it was read
+            } else {
+                reservations.put(entry.getKey(), reservation);
+            }
+        }
+        if (!shortProducts.isEmpty()) {
+            Map<Integer, Integer> release = new HashMap<>();
+            for (Integer index : new ArrayList<>(acceptedCosts.keySet())) {
+                ProdPOSTRequest request = requests.get(index);
+                Optional<Integer> shortProduct = request.getItems().stream()
+                        .map(ItemFormat::getProduct_id).filter(shortProducts::contains).findFirst();
+                if (shortProduct.isPresent()) {
+                    acceptedCosts.remove(index);
+                    results[index] = BatchOrderResult.failed(index, request.getUser_id(),
+                            "Stock insufficient for product " + shortProduct.get());
+                    request.getItems().stream()
+                            .filter(item -> !shortProducts.contains(item.getProduct_id()))
+                            .forEach(item -> release.merge(item.getProduct_id(), item.getQuantity(), Integer::sum));
+                }
+            }
+            rollbackStock(reservations, release);
+        }
 
-            // Step 7: Update customer's discount status
-            boolean discountUpdated = updateDiscountStatus(prodPOSTRequest,
-                    Objects.requireNonNull(customerResponse.getBody()));
-            if (!discountUpdated) {
-                return ResponseEntity.badRequest().body("Failed to update discount status");
+        // Step 5: One wallet hold per user for all of their accepted orders. Like takeOrder, the batch is
+        // abandoned if its deadline has passed by now, and finished regardless of it once holds are placed.
+        Deadline.check("placing the payment holds");
+        Deadline.clear();
+        Map<Integer, Integer> debitByUser = new LinkedHashMap<>();
+        acceptedCosts.forEach((index, cost) ->
+                debitByUser.merge(requests.get(index).getUser_id(), (int) (double) cost, Integer::sum));
+        Map<Integer, Long> holdByUser = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> entry : debitByUser.entrySet()) {
+            PaymentHold paymentHold = placeWalletHold(entry.getKey(), entry.getValue());
+            if (paymentHold.outcome() == PaymentOutcome.HELD) {
+                holdByUser.put(entry.getKey(), paymentHold.holdId());
+            } else {
+                rejectUserOrders(entry.getKey(), "Failed to process payment", requests, acceptedCosts, reservations, results);
             }
+        }
 
-            // Step 8: Create and save the order
-            Orders ord = createOrder(prodPOSTRequest, userId, totalCost);
+        // Step 6: Capture the holds of users whose orders are still accepted
+        for (Map.Entry<Integer, Long> entry : holdByUser.entrySet()) {
+            if (!captureWalletHold(entry.getKey(), entry.getValue())) {
+                rejectUserOrders(entry.getKey(), "Failed to process payment", requests, acceptedCosts, reservations, results);
+            }
+        }
+
+        // Discount status once per user whose discounted order is still accepted (and so paid for), then save every
+        // accepted order together. A user whose discounted order was rejected keeps the discount, since the orders
+        // left were priced without it. The orders are paid for by now, so a failed update does not undo them.
+        for (Map.Entry<Integer, Integer> entry : discountedOrders.entrySet()) {
+            Integer userId = entry.getKey();
+            Integer index = entry.getValue();
+            if (acceptedCosts.containsKey(index) && !updateDiscountStatus(requests.get(index), customers.get(userId))) {
+                System.out.println("[WARN] Orders of user " + userId + " used the discount, but the discount flag was not set");
+            }
+        }
 
-            return ResponseEntity.status(HttpStatus.CREATED).body(ord);
+        List<Orders> orders = new ArrayList<>();
+        List<Integer> orderIndexes = new ArrayList<>();
+        acceptedCosts.forEach((index, cost) -> {
+            ProdPOSTRequest request = requests.get(index);
+            orders.add(buildOrder(request, request.getUser_id(), cost, reservations));
+            orderIndexes.add(index);
+        });
+        ordersDb.saveAll(orders);
+        for (int i = 0; i < orders.size(); i++) {
+            results[orderIndexes.get(i)] = BatchOrderResult.created(orderIndexes.get(i), orders.get(i));
         }
     }
 
-    @Transactional
-    public void rollbackStock(Map<Integer, Integer> deductedStocks) {
-        for (Map.Entry<Integer, Integer> entry : deductedStocks.entrySet()) {
-            Integer productId = entry.getKey();
-            Integer quantity = entry.getValue();
-            prodDb.incrementStock(productId, quantity);
+    /**
+     * Fails every still-accepted order of a user and hands their reserved stock back.
+     */
+    private void rejectUserOrders(Integer userId, String error, List<ProdPOSTRequest> requests,
+                                 Map<Integer, Double> acceptedCosts, Map<Integer, StockReservation> reservations,
+                                 BatchOrderResult[] results) {
+        Map<Integer, Integer> release = new HashMap<>();
+        for (Integer index : new ArrayList<>(acceptedCosts.keySet())) {
+            ProdPOSTRequest request = requests.get(index);
+            if (request.getUser_id().equals(userId)) {
+                acceptedCosts.remove(index);
+                results[index] = BatchOrderResult.failed(index, userId, error);
+                request.getItems().forEach(item -> release.merge(item.getProduct_id(), item.getQuantity(), Integer::sum));
+            }
         }
+        rollbackStock(reservations, release);
     }
 
     /**
@@ -149,14 +521,15 @@ public class OrdersRouter {
      * @param orderid The ID of the order to retrieve
      * @return ResponseEntity containing the order or 404 if not found
      */
+    @Transactional(readOnly = true)
     @GetMapping("/{orderid}")
     public ResponseEntity<?> getOrders(@PathVariable Integer orderid) {
-        List<Orders> ordersWithOrderId = ordersDb.findOrdersByOrder_id(orderid);
+        Optional<OrderView> order = orderReadModel.order(orderid);
 
-        if (ordersWithOrderId.isEmpty()) {
+        if (order.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok().body(ordersWithOrderId.get(0));
+        return ResponseEntity.ok().body(order.get());
     }
 
     /**
@@ -165,9 +538,11 @@ public class OrdersRouter {
      * @param userId The ID of the user whose orders to retrieve
      * @return ResponseEntity containing list of user's orders
      */
+    @Transactional(readOnly = true)
     @GetMapping("/users/{userId}")
+    @VersionedResource(ResourceVersions.Resource.ORDERS)
     public ResponseEntity<?> getOrdersByUserId(@PathVariable Integer userId) {
-        List<Orders> ordersWithUserId = ordersDb.findOrdersByUser_id(userId);
+        List<OrderView> ordersWithUserId = orderReadModel.ordersOfUser(userId);
         return ResponseEntity.ok().body(ordersWithUserId);
     }
 
@@ -194,66 +569,74 @@ public class OrdersRouter {
             return ResponseEntity.badRequest().body("Order not delivered");
         }
 
-        // Fetch and validate the order
-        List<Orders> ordersWithId = ordersDb.findOrdersByOrder_id(orderId);
-        if (ordersWithId.isEmpty()) {
-            return ResponseEntity.badRequest().body("Order not found");
-        }
-
-        Orders order = ordersWithId.get(0);
-
-        // Can only update PLACED orders
-        if(order.getStatus() != OrderStatus.PLACED) {
-            return ResponseEntity.badRequest().body("Order is not placed");
+        Optional<Integer> userId = ordersDb.findUserIdByOrder_id(orderId);
+        if (userId.isEmpty()) {
+            return orderNotPlaced(orderId);
         }
 
-        // Update and save the order
-        order.setStatus(OrderStatus.DELIVERED);
-        ordersDb.save(order);
-
-        return ResponseEntity.ok().build();
+        return userMailboxes.call(userId.get(), () -> {
+            // Can only update PLACED orders; the version check keeps a concurrent cancel from being overwritten
+            if (orderStatusService.updatePlacedOrder(orderId, OrderStatus.DELIVERED).isEmpty()) {
+                return orderNotPlaced(orderId);
+            }
+            return ResponseEntity.ok().build();
+        });
     }
 
     /**
      * Cancels an order and handles related operations:
      * 1. Refund to wallet
      * 2. Restore product stock
+     * Runs in the mailbox of the order's user, so it cannot overlap with that user's new orders.
+     * If the wallet service refuses the refund without it being sent (open circuit, full bulkhead), the order
+     * goes back to PLACED and the request gets 503, so the cancellation can be retried.
      *
      * @param orderid ID of order to cancel
      * @return ResponseEntity with success/failure message
      */
     @DeleteMapping("/{orderid}")
     public ResponseEntity<?> deleteOrder(@PathVariable Integer orderid) {
-        // Fetch and validate the order
-        List<Orders> ordersWithId = ordersDb.findOrdersByOrder_id(orderid);
-        if (ordersWithId.isEmpty()) {
-            return ResponseEntity.badRequest().body("Order not found");
+        Optional<Integer> userId = ordersDb.findUserIdByOrder_id(orderid);
+        if (userId.isEmpty()) {
+            return orderNotPlaced(orderid);
         }
+        return userMailboxes.call(userId.get(), () -> cancelOrder(orderid));
+    }
 
-        Orders order = ordersWithId.get(0);
-
-        // Can only cancel PLACED orders
-        if(order.getStatus() != OrderStatus.PLACED) {
-            return ResponseEntity.badRequest().body("Order is not placed");
+    /**
+     * Cancellation part of deleteOrder; runs in the user's mailbox.
+     */
+    private ResponseEntity<?> cancelOrder(Integer orderid) {
+        // Can only cancel PLACED orders; of two concurrent cancels only one gets past this point
+        Optional<Orders> cancelled = orderStatusService.updatePlacedOrder(orderid, OrderStatus.CANCELLED);
+        if (cancelled.isEmpty()) {
+            return orderNotPlaced(orderid);
         }
 
-        // Update order status to CANCELLED
-        order.setStatus(OrderStatus.CANCELLED);
+        // The order is cancelled now, so the refund and the stock have to follow even if the client has given up
+        Deadline.clear();
 
         // Store information needed for refund and stock restoration
+        Orders order = cancelled.get();
         Integer returnMoney = order.getTotal_price();
         List<OrderItem> returnItems = order.getItems();
         Integer returnUserId = order.getUser_id();
-        ordersDb.save(order);
 
         // Process refund to wallet
-        boolean balrestoreSuccess = restoreBalance(returnUserId, returnMoney);
+        boolean balrestoreSuccess;
+        try {
+            balrestoreSuccess = restoreBalance(returnUserId, returnMoney);
+        } catch (DependencyUnavailableException e) {
+            // The credit was never sent, so nothing has been refunded yet and the cancellation can be undone
+            orderStatusService.reopenCancelledOrder(orderid);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
         if (!balrestoreSuccess) {
             return ResponseEntity.badRequest().body("Failed to restore balance");
         }
 
         // Restore product stock levels
-        restoreStock(returnItems);
+        productStockService.restoreStock(returnItems);
 
         return ResponseEntity.ok().build();
     }
@@ -263,9 +646,11 @@ public class OrdersRouter {
      *
      * @return ResponseEntity containing list of all orders
      */
+    @Transactional(readOnly = true)
     @GetMapping()
+    @VersionedResource(ResourceVersions.Resource.ORDERS)
     public ResponseEntity<?> getAllOrders() {
-        return ResponseEntity.ok().body(ordersDb.findAll());
+        return ResponseEntity.ok().body(orderReadModel.allOrders());
     }
 
 /**
@@ -274,6 +659,7 @@ public class OrdersRouter {
      * @param userid User ID to credit
      * @param price Amount to restore
      * @return boolean indicating success/failure
+     * @throws DependencyUnavailableException if the wallet service refused the call before it was sent
      */
     private boolean restoreBalance(Integer userid, Integer price) {
         // Prepare wallet update request
@@ -284,36 +670,31 @@ public class OrdersRouter {
         ResponseEntity<?> response;
 
         try {
-            // Make API call to wallet service
-            response = restTemplate.exchange(
+            // Make API call to wallet service; a credit is not idempotent, so it is never retried
+            response = walletsService.call(rest -> rest.exchange(
                 walletServiceUrl + "/wallets/" + userid, 
                 HttpMethod.PUT, 
                 new HttpEntity<>(walletPutRequest), 
                 String.class
-            );
+            ));
+        } catch (DependencyUnavailableException e) {
+            throw e; // Not sent, so the caller can undo the cancellation
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            System.out.println("[WARN] Refund of " + price + " to user " + userid + " failed: " + e.getMessage());
+            return false;
         }
 
         return response.getStatusCode() == HttpStatus.OK;
     }
 
     /**
-     * Restores product stock levels after order cancellation.
+     * Builds the 400 response for an order that could not be moved out of PLACED.
      *
-     * @param restoreItems List of items whose stock to restore
+     * @param orderId ID of the order
+     * @return ResponseEntity telling whether the order is missing or no longer placed
      */
-    private void restoreStock(List<OrderItem> restoreItems) {
-        for (OrderItem restoreItem : restoreItems) {
-            Integer quantity = restoreItem.getQuantity();
-            Integer prodId = restoreItem.getProduct_id();
-
-            // Fetch product and update stock
-            List<Product> products = prodDb.findProductById(prodId);
-            Product product = products.get(0);
-            product.setStock_quantity(product.getStock_quantity() + quantity);
-            prodDb.save(product);
-        }
+    private ResponseEntity<?> orderNotPlaced(Integer orderId) {
+        return ResponseEntity.badRequest().body(ordersDb.existsById(orderId) ? "Order is not placed" : "Order not found");
     }
 
     /**
@@ -321,25 +702,57 @@ public class OrdersRouter {
      *
      * @param userId ID of customer to retrieve
      * @return ResponseEntity containing customer details or error
+     * @throws DeadlineExceededException if the request's deadline passes first
      */
     private ResponseEntity<Customer> getCustomerDetails(Integer userId) {
         try {
             HttpHeaders headers = new HttpHeaders();
             HttpEntity<?> requestEntity = new HttpEntity<>(headers);
 
-            return restTemplate.exchange(
+            return accountService.callIdempotent(rest -> rest.exchange(
                 accountServiceUrl + "/users/" + userId,
                 HttpMethod.GET,
                 requestEntity,
                 Customer.class
-            );
+            ));
         } catch (HttpClientErrorException.NotFound e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    /**
+     * Looks up many entities by id through a multi-get endpoint of a service (GET url?ids=...), with one call
+     * per lookup-chunk-size ids.
+     *
+     * @param idOf Id of a returned entity
+     * @return The entities found, by id; ids that are unknown, or whose call failed, are missing
+     * @throws DeadlineExceededException if the request's deadline passes first
+     */
+    private <T> Map<Integer, T> getMany(ServiceClient service, String url, Collection<Integer> ids,
+                                        Class<T[]> type, Function<T, Integer> idOf) {
+        Map<Integer, T> found = new HashMap<>();
+        List<Integer> idList = new ArrayList<>(ids);
+        for (int from = 0; from < idList.size(); from += lookupChunkSize) {
+            List<Integer> chunk = idList.subList(from, Math.min(from + lookupChunkSize, idList.size()));
+            String chunkUrl = url + "?ids=" + chunk.stream().map(String::valueOf).collect(Collectors.joining(","));
+            try {
+                T[] entities = service.callIdempotent(rest -> rest.getForObject(chunkUrl, type));
+                for (T entity : Objects.requireNonNull(entities)) {
+                    found.put(idOf.apply(entity), entity);
+                }
+            } catch (DeadlineExceededException e) {
+                throw e;
+            } catch (Exception e) {
+                System.out.println("[WARN] Lookup of " + chunk.size() + " ids from " + url + " failed: " + e.getMessage());
+            }
+        }
+        return found;
+    }
+
     /**
      * Calculates total cost of order including discounts.
      *
@@ -350,20 +763,22 @@ public class OrdersRouter {
     private double calculateTotalCost(ProdPOSTRequest prodPOSTRequest, Customer customer) {
         double totalCost = 0;
         for (ItemFormat item : prodPOSTRequest.getItems()) {
-            // Validate product exists and has sufficient stock
-            List<Product> products = prodDb.findProductById(item.getProduct_id());
-            if (products.isEmpty()) {
+            // Validate product exists and has sufficient stock; the stock check is only a first filter
+            // (reserving re-checks it atomically), so a lookup shared with concurrent orders is good enough
+            Optional<ProductView> found = productLookups.load(item.getProduct_id(),
+                    () -> prodDb.findProductViewById(item.getProduct_id()));
+            if (found.isEmpty()) {
                 return -1; // Product not found
             }
 
-            Product product = products.get(0);
-            if (product.getStock_quantity() < item.getQuantity()) {
+            ProductView product = found.get();
+            if (stockLeases.sellableStock(product.id(), product.stock_quantity()) < item.getQuantity()) {
                 return -1; // Insufficient stock
             }
 
             // Apply 10% discount if customer hasn't used their discount yet
             double discountFactor = customer.getDiscount_availed() ? 1.0 : 0.9;
-            totalCost += discountFactor * product.getPrice() * item.getQuantity();
+            totalCost += discountFactor * product.price() * item.getQuantity();
         }
         return totalCost;
     }
@@ -373,68 +788,147 @@ public class OrdersRouter {
      *
      * @param userId ID of user whose wallet to check
      * @return ResponseEntity containing wallet details or error
+     * @throws DeadlineExceededException if the request's deadline passes first
      */
     private ResponseEntity<UsrWallet> getWalletDetails(Integer userId) {
         try {
-            return restTemplate.getForEntity(
+            return walletsService.callIdempotent(rest -> rest.getForEntity(
                 walletServiceUrl + "/wallets/" + userId, 
                 UsrWallet.class
-            );
+            ));
         } catch (HttpClientErrorException.NotFound e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
     /**
-     * Debits amount from user's wallet for order payment.
+     * Reserves the order amount in the user's wallet.
+     * The wallet service only places the hold when the balance covers the amount, and answers
+     * 400 "Insufficient funds" otherwise.
      *
-     * @param userId User to debit
-     * @param amount Amount to debit
-     * @return boolean indicating success/failure
+     * @param userId User whose wallet to hold funds in
+     * @param amount Amount to hold
+     * @return Outcome of the hold, with the hold id when it was placed
+     * @throws DeadlineExceededException if the request's deadline passes first
      */
-    private boolean debitAmountFromWallet(Integer userId, double amount) {
+    private PaymentHold placeWalletHold(Integer userId, double amount) {
         try {
-            String url = walletServiceUrl + "/wallets/" + userId;
+            String url = walletServiceUrl + "/wallets/" + userId + "/holds";
 
-            WalletPUTRequest request = new WalletPUTRequest();
-            request.setAction(WalletPUTRequest.Action.debit);
+            WalletHoldRequest request = new WalletHoldRequest();
             request.setAmount((int) amount);
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            HttpEntity<WalletPUTRequest> entity = new HttpEntity<>(request, headers);
-            restTemplate.exchange(url, HttpMethod.PUT, entity, String.class);
-            return true;
+            HttpEntity<WalletHoldRequest> entity = new HttpEntity<>(request);
+            WalletHold hold = walletsService.call(rest -> rest.postForObject(url, entity, WalletHold.class));
+            return new PaymentHold(PaymentOutcome.HELD, Objects.requireNonNull(hold).getHold_id());
+        } catch (HttpClientErrorException.BadRequest e) {
+            if (e.getResponseBodyAsString().contains("Insufficient funds")) {
+                return new PaymentHold(PaymentOutcome.INSUFFICIENT_FUNDS, null);
+            }
+            System.out.println(e.getMessage());
+            return new PaymentHold(PaymentOutcome.FAILED, null);
+        } catch (DeadlineExceededException e) {
+            // The hold may still have been placed if the answer was cut short; it expires on its own
+            throw e;
         } catch (Exception e) {
             System.out.println(e.getMessage());
-            return false;
+            return new PaymentHold(PaymentOutcome.FAILED, null);
         }
     }
 
-    private boolean refundAmountToWallet(Integer userId, double amount) {
+    /**
+     * Makes a held payment final.
+     * Only an answer from the wallet service that the hold is not active means it was not captured. When the
+     * capture fails otherwise (I/O error, timeout, 5xx), it may still have been committed, so the hold is settled
+     * with settleWalletHold.
+     *
+     * @param userId User whose wallet holds the funds
+     * @param holdId Hold to capture
+     * @return false only if the hold is known not to be captured (released or expired)
+     */
+    private boolean captureWalletHold(Integer userId, Long holdId) {
+        String holdUrl = walletServiceUrl + "/wallets/" + userId + "/holds/" + holdId;
         try {
-            String url = walletServiceUrl + "/wallets/" + userId;
+            walletsService.call(rest -> rest.postForEntity(holdUrl + "/capture", null, WalletHold.class));
+            return true;
+        } catch (HttpClientErrorException e) {
+            // The hold is not active; it may have been captured by an earlier attempt whose answer was lost
+            System.out.println("Wallet hold capture refused: " + e.getResponseBodyAsString());
+            return isCapturedAnswer(e);
+        } catch (Exception e) {
+            System.out.println("[WARN] Wallet hold " + holdId + " capture did not complete, settling it: " + e.getMessage());
+            return settleWalletHold(holdUrl);
+        }
+    }
 
-            WalletPUTRequest request = new WalletPUTRequest();
-            request.setAction(WalletPUTRequest.Action.credit); // Use "credit" action
-            request.setAmount((int) amount);
+    /**
+     * Finds out what became of a hold whose capture did not complete: CAPTURED means the capture went through,
+     * RELEASED or EXPIRED that it did not, and a hold that is still HELD is captured again.
+     * If the hold's state cannot be found out either, the order goes ahead: rejecting it could leave a captured
+     * payment without an order, while an uncaptured hold is returned to the wallet when it expires.
+     *
+     * @param holdUrl URL of the hold
+     * @return false only if the hold is known not to be captured
+     */
+    private boolean settleWalletHold(String holdUrl) {
+        try {
+            WalletHold hold = walletsService.callIdempotent(rest -> rest.getForObject(holdUrl, WalletHold.class));
+            String status = Objects.requireNonNull(hold).getStatus();
+            if ("HELD".equals(status)) {
+                walletsService.call(rest -> rest.postForEntity(holdUrl + "/capture", null, WalletHold.class));
+                return true;
+            }
+            return "CAPTURED".equals(status);
+        } catch (HttpClientErrorException.NotFound e) {
+            return false;
+        } catch (HttpClientErrorException e) {
+            return isCapturedAnswer(e);
+        } catch (Exception e) {
+            System.out.println("[WARN] Could not settle wallet hold " + holdUrl + ", keeping the order: " + e.getMessage());
+            return true;
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
+    /**
+     * Whether a refused capture was refused because the hold is already captured.
+     */
+    private static boolean isCapturedAnswer(HttpClientErrorException e) {
+        return e.getStatusCode().value() == HttpStatus.BAD_REQUEST.value() && e.getResponseBodyAsString().contains("is CAPTURED");
+    }
 
-            HttpEntity<WalletPUTRequest> entity = new HttpEntity<>(request, headers);
-            restTemplate.exchange(url, HttpMethod.PUT, entity, String.class);
+    /**
+     * Returns held funds to the user's wallet.
+     * If this call fails, the hold is still returned to the wallet once it expires.
+     *
+     * @param userId User whose wallet holds the funds
+     * @param holdId Hold to release
+     * @return boolean indicating success/failure
+     */
+    private boolean releaseWalletHold(Integer userId, Long holdId) {
+        try {
+            walletsService.call(rest -> rest.postForEntity(
+                    walletServiceUrl + "/wallets/" + userId + "/holds/" + holdId + "/release", null, WalletHold.class));
             return true;
         } catch (Exception e) {
-            System.out.println("Wallet refund failed: " + e.getMessage());
+            System.out.println("Wallet hold release failed: " + e.getMessage());
             return false;
         }
     }
 
+    // Result of reserving a payment as seen by the order flow
+    private enum PaymentOutcome {
+        HELD,
+        INSUFFICIENT_FUNDS,
+        FAILED
+    }
 
+    // A placed (or refused) payment hold; holdId is null unless the outcome is HELD
+    private record PaymentHold(PaymentOutcome outcome, Long holdId) {
+    }
 
     /**
      * Updates the discount status for a customer after they use their discount.
@@ -450,23 +944,26 @@ public class OrdersRouter {
 
         // Only update if customer hasn't used their discount yet
         if (!customer.getDiscount_availed()) {
-            // Prepare headers for the HTTP request
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            
             // Create request entity with 'true' to indicate discount was used
-            HttpEntity<Boolean> requestEntity = new HttpEntity<>(true, headers);
+            HttpEntity<Boolean> requestEntity = new HttpEntity<>(true);
 
             // Variable declaration for response (unused but shows intent)
             ResponseEntity<?> updateDiscount;
 
             try {
-                // Make API call to account service to update discount status
-                restTemplate.put(accountServiceUrl + "/users/" + userId, requestEntity);
+                // Make API call to account service to update discount status (setting the flag again is harmless)
+                accountService.callIdempotent(rest -> {
+                    rest.put(accountServiceUrl + "/users/" + userId, requestEntity);
+                    return null;
+                });
             } catch (HttpClientErrorException.NotFound e) {
                 // Log error and return false if user not found
                 System.out.println(e.getMessage());
                 return false;
+            } catch (Exception e) {
+                // Account service failing or unavailable; the caller keeps the paid order and only warns
+                System.out.println("[WARN] Discount update for user " + userId + " failed: " + e.getMessage());
+                return false;
             }
         }
 
@@ -487,10 +984,31 @@ public class OrdersRouter {
      * @param prodPOSTRequest Original order request containing items
      * @param userId ID of user placing the order
      * @param totalCost Total cost of the order (including any discounts)
+     * @param reservations Stock reserved for the order, by product id
      * @return Orders The created and saved order object
      */
     @Transactional
-    public Orders createOrder(ProdPOSTRequest prodPOSTRequest, Integer userId, double totalCost) {
+    public Orders createOrder(ProdPOSTRequest prodPOSTRequest, Integer userId, double totalCost,
+                              Map<Integer, StockReservation> reservations) {
+        Orders order = buildOrder(prodPOSTRequest, userId, totalCost, reservations);
+
+        // Save the complete order with all items to the database
+        ordersDb.save(order);
+
+        return order;
+    }
+
+    /**
+     * Builds an unsaved PLACED order, with its items, from an order request.
+     *
+     * @param prodPOSTRequest Original order request containing items
+     * @param userId ID of user placing the order
+     * @param totalCost Total cost of the order (including any discounts)
+     * @param reservations Stock reserved for the order, by product id; items record the lease they were sold from
+     * @return Orders The new order object
+     */
+    private Orders buildOrder(ProdPOSTRequest prodPOSTRequest, Integer userId, double totalCost,
+                              Map<Integer, StockReservation> reservations) {
         // Create new order object and set basic properties
         Orders order = new Orders();
         order.setUser_id(userId);
@@ -506,6 +1024,7 @@ public class OrdersRouter {
             OrderItem orderItem1 = new OrderItem();
             orderItem1.setQuantity(orderItem.getQuantity());
             orderItem1.setProduct_id(orderItem.getProduct_id());
+            orderItem1.setStock_lease_id(reservations.get(orderItem.getProduct_id()).getLeaseId());
             
             // Establish bidirectional relationship between order and items
             orderItem1.setOrder(order);  // This is crucial for maintaining referential integrity
@@ -517,9 +1036,6 @@ public class OrdersRouter {
         // Set all items to the order
         order.setItems(orderItems);
 
-        // Save the complete order with all items to the database
-        ordersDb.save(order);
-
         return order;
     }
 }
\ No newline at end of file
@@ -1,20 +1,34 @@
 package com.sirjanhansda.pods.products.controller;
 
-import com.sirjanhansda.pods.products.model.Product;
+import com.sirjanhansda.pods.products.conditional.ResourceVersions;
+import com.sirjanhansda.pods.products.conditional.VersionedResource;
 import com.sirjanhansda.pods.products.proddb.ProdDb;
+import com.sirjanhansda.pods.products.readmodel.ProductView;
+import com.sirjanhansda.pods.products.stock.StockLeaseManager;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * This class defines the RESTful API endpoints for interacting with product data.
- * It exposes two main endpoints:
+ * It exposes three main endpoints:
  * - GET /products: Retrieves all products from the database.
+ * - GET /products?ids=: Retrieves the products with the given IDs.
  * - GET /products/{prodId}: Retrieves a single product by its product ID.
  * 
  * The @RestController annotation marks this class as a controller for handling HTTP requests
@@ -23,6 +37,14 @@ import java.util.List;
  *
  * The @Autowired annotation is used to inject the ProdDb service, which provides database operations 
  * related to products.
+ *
+ * Part of a hot product's stock may be leased out to marketplace replicas (see StockLeaseManager), so the
+ * stock_quantity reported here is the product row's stock plus the unsold remainder of its leases.
+ *
+ * Products are read as ProductView rows rather than managed entities, since nothing here changes them.
+ *
+ * GET /products carries an ETag of the catalog's version (see VersionedResource), so a client can
+ * revalidate its copy of the whole catalog without it being read again.
  */
 @RestController
 @RequestMapping("/products")
@@ -32,16 +54,71 @@ public class    ProdRouter {
     @Autowired
     private ProdDb prodDb;
 
+    @Autowired
+    private StockLeaseManager stockLeases;
+
+    // Upper bound on the number of ids in one GET /products?ids= request
+    @Value("${catalog.multi-get.max-ids:100}")
+    private int maxIdsPerLookup;
+
     /**
      * GET /products
      * Endpoint to retrieve all products from the database.
      * 
      * @return A ResponseEntity containing the list of all products in the database.
      */
+    @Transactional(readOnly = true)
     @GetMapping()
+    @VersionedResource(ResourceVersions.Resource.CATALOG)
     public ResponseEntity<?> getProducts() {
         // Fetching all products from the database using the prodDb service
-        return ResponseEntity.ok(prodDb.findAll());
+        List<ProductView> products = prodDb.findAllProductViews();
+        Map<Integer, Integer> leased = stockLeases.leasedRemaining();
+        if (leased.isEmpty()) {
+            return ResponseEntity.ok(products);
+        }
+        return ResponseEntity.ok(products.stream()
+                .map(product -> leased.containsKey(product.id())
+                        ? product.withStock(product.stock_quantity() + leased.get(product.id()))
+                        : product)
+                .toList());
+    }
+
+    /**
+     * GET /products?ids=3,1,2
+     * Endpoint to retrieve several products by their product IDs, with a single query.
+     *
+     * @param ids The product IDs to search for, at most catalog.multi-get.max-ids distinct ones.
+     * @return A ResponseEntity containing the products that exist, with their global stock, in the order
+     *         their IDs were first given; unknown IDs are left out.
+     */
+    @Transactional(readOnly = true)
+    @GetMapping(params = "ids")
+    public ResponseEntity<?> getProductsByIds(@RequestParam("ids") final List<Integer> ids) {
+        Set<Integer> uniqueIds = new LinkedHashSet<>(ids);
+        uniqueIds.remove(null);
+        if (uniqueIds.isEmpty()) {
+            return ResponseEntity.badRequest().body("No product ids given");
+        }
+        if (uniqueIds.size() > maxIdsPerLookup) {
+            return ResponseEntity.badRequest().body("At most " + maxIdsPerLookup + " products can be looked up at once");
+        }
+
+        // One IN-list query for all of them
+        Map<Integer, ProductView> products = prodDb.findProductViewsByIdIn(uniqueIds).stream()
+                .collect(Collectors.toMap(ProductView::id, Function.identity()));
+        Map<Integer, Integer> leased = stockLeases.leasedRemaining();
+
+        List<ProductView> found = new ArrayList<>();
+        for (Integer id : uniqueIds) {
+            ProductView product = products.get(id);
+            if (product != null) {
+                found.add(leased.containsKey(id)
+                        ? product.withStock(product.stock_quantity() + leased.get(id))
+                        : product);
+            }
+        }
+        return ResponseEntity.ok(found);
     }
 
     /**
@@ -52,17 +129,19 @@ public class    ProdRouter {
      * @return A ResponseEntity containing the product if found, 
      *         or a 404 Not Found status if the product does not exist.
      */
+    @Transactional(readOnly = true)
     @GetMapping("/{prodId}")
     public ResponseEntity<?> getProduct(@PathVariable("prodId") final Integer prodId) {
         // Searching for the product by its ID using the prodDb service
-        List<Product> ProdByProdId = prodDb.findProductById(prodId);
+        Optional<ProductView> ProdByProdId = prodDb.findProductViewById(prodId);
 
         // If the product is not found, return a 404 Not Found response
         if (ProdByProdId.isEmpty()) {
             return ResponseEntity.notFound().build();
         } else {
-            // If the product is found, return it with a 200 OK response
-            return ResponseEntity.ok(ProdByProdId.get(0));
+            // If the product is found, return it with its global stock and a 200 OK response
+            ProductView product = ProdByProdId.get();
+            return ResponseEntity.ok(product.withStock(product.stock_quantity() + stockLeases.leasedRemaining(prodId)));
         }
     }
 }
@@ -0,0 +1,28 @@
+package com.sirjanhansda.pods.products.controller;
+
+import lombok.Data;
+
+/**
+ * This class represents a hold on wallet funds as returned by the wallet service.
+ * It contains the following fields:
+ * - hold_id (Long): The identifier used to capture or release the hold.
+ * - user_id (Integer): The user whose wallet holds the funds.
+ * - amount (Integer): The reserved amount.
+ * - status (String): HELD, CAPTURED, RELEASED or EXPIRED.
+ * - expires_at (Long): Epoch milliseconds after which the hold can no longer be captured.
+ *
+ * The @Data annotation from Lombok generates getters, setters, equals, hashCode, and toString.
+ */
+@Data
+public class WalletHold {
+
+    private Long hold_id;
+
+    private Integer user_id;
+
+    private Integer amount;
+
+    private String status;
+
+    private Long expires_at;
+}
@@ -0,0 +1,22 @@
+package com.sirjanhansda.pods.products.controller;
+
+import lombok.Setter;
+
+/**
+ * This class represents the request body for placing a hold on wallet funds.
+ * It contains the following fields:
+ * - amount (Integer): The amount to reserve in the wallet.
+ * - ttl_ms (Long): How long the hold stays capturable, in milliseconds. When null the wallet
+ *   service applies its default lifetime.
+ *
+ * The @Setter annotation from Lombok automatically generates setter methods for the fields.
+ */
+@Setter
+public class WalletHoldRequest {
+
+    // The amount to be reserved in the wallet
+    public Integer amount;
+
+    // Lifetime of the hold in milliseconds (optional)
+    public Long ttl_ms;
+}
@@ -0,0 +1,7 @@
+package com.sirjanhansda.pods.products.datasource;
+
+// Lookup keys used by the routing datasource to pick a target database
+public enum DataSourceRole {
+    PRIMARY,
+    REPLICA
+}
@@ -0,0 +1,29 @@
+package com.sirjanhansda.pods.products.datasource;
+
+/**
+ * Keeps the read-only transactions of the current thread on the primary database.
+ *
+ * A response that promises its data is at least as new as something this instance has seen (e.g. an ETag of
+ * ResourceVersions) cannot be read from the replica, which may still be behind that state. Work that makes such
+ * a promise pins its thread for as long as it reads; ReadReplicaRoutingDataSource then hands out primary
+ * connections only.
+ */
+public final class PrimaryReads {
+
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private PrimaryReads() {
+    }
+
+    public static void pin() {
+        PINNED.set(Boolean.TRUE);
+    }
+
+    public static void release() {
+        PINNED.remove();
+    }
+
+    public static boolean pinned() {
+        return PINNED.get() != null;
+    }
+}
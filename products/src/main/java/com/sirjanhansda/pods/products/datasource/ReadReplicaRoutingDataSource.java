@@ -0,0 +1,86 @@
+package com.sirjanhansda.pods.products.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Routes connections for read-only transactions to the replica and everything else to the primary.
+ *
+ * The decision is made per connection, so this datasource must be wrapped in a
+ * LazyConnectionDataSourceProxy; otherwise the connection would be fetched before the
+ * transaction's read-only flag is visible. If the replica is lagging too far behind or refuses
+ * a connection, the read falls back to the primary. Threads pinned with PrimaryReads always read the primary.
+ * A read-only transaction that fails on a replica connection is run again on the primary by
+ * ReplicaReadRetryAspect.
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    // Set once a thread was handed a replica connection, until ReplicaReadRetryAspect takes it
+    private static final ThreadLocal<Boolean> SERVED_FROM_REPLICA = new ThreadLocal<>();
+
+    private final DataSource primaryDataSource;
+    private final DataSource replicaDataSource;
+    private final ReplicaLagMonitor lagMonitor;
+
+    public ReadReplicaRoutingDataSource(DataSource primaryDataSource,
+                                        DataSource replicaDataSource,
+                                        ReplicaLagMonitor lagMonitor) {
+        this.primaryDataSource = primaryDataSource;
+        this.replicaDataSource = replicaDataSource;
+        this.lagMonitor = lagMonitor;
+
+        setTargetDataSources(Map.of(
+                DataSourceRole.PRIMARY, primaryDataSource,
+                DataSourceRole.REPLICA, replicaDataSource
+        ));
+        setDefaultTargetDataSource(primaryDataSource);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        return readOnly && !PrimaryReads.pinned() && lagMonitor.isReplicaUsable() ? DataSourceRole.REPLICA : DataSourceRole.PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (determineCurrentLookupKey() == DataSourceRole.REPLICA) {
+            try {
+                Connection connection = replicaDataSource.getConnection();
+                SERVED_FROM_REPLICA.set(Boolean.TRUE);
+                return connection;
+            } catch (SQLException e) {
+                lagMonitor.markUnavailable(e.getMessage());
+            }
+        }
+        return primaryDataSource.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (determineCurrentLookupKey() == DataSourceRole.REPLICA) {
+            try {
+                Connection connection = replicaDataSource.getConnection(username, password);
+                SERVED_FROM_REPLICA.set(Boolean.TRUE);
+                return connection;
+            } catch (SQLException e) {
+                lagMonitor.markUnavailable(e.getMessage());
+            }
+        }
+        return primaryDataSource.getConnection(username, password);
+    }
+
+    /**
+     * @return true if this thread was handed a replica connection since the last call
+     */
+    static boolean takeServedFromReplica() {
+        boolean served = SERVED_FROM_REPLICA.get() != null;
+        SERVED_FROM_REPLICA.remove();
+        return served;
+    }
+}
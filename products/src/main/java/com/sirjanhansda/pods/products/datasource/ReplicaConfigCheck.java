@@ -0,0 +1,39 @@
+package com.sirjanhansda.pods.products.datasource;
+
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops the service at startup when the primary/replica datasources (ReplicaDataSourceConfig) are present
+ * without spring.datasource.replica.url, or missing although it is set.
+ *
+ * An image built with Spring AOT (mvn -Paot, run with -Dspring.aot.enabled=true) decides on
+ * @ConditionalOnProperty when it is built, so a replica URL set or removed at deployment time would otherwise
+ * be ignored, or the service would keep reading a replica it was told not to use.
+ */
+@Component
+public class ReplicaConfigCheck implements SmartInitializingSingleton {
+
+    @Autowired
+    private ListableBeanFactory beanFactory;
+
+    @Autowired
+    private Environment environment;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        // Same test as @ConditionalOnProperty without havingValue
+        String url = environment.getProperty("spring.datasource.replica.url");
+        boolean replicaConfigured = url != null && !"false".equalsIgnoreCase(url);
+        boolean replicaPresent = beanFactory.getBeanNamesForType(ReplicaLagMonitor.class).length > 0;
+        if (replicaConfigured != replicaPresent) {
+            throw new IllegalStateException("spring.datasource.replica.url is " + (replicaConfigured ? "set" : "not set")
+                    + ", but this build was made " + (replicaPresent ? "with" : "without") + " the read replica; an "
+                    + "ahead-of-time compiled build keeps the datasources it was built with, so rebuild it with this "
+                    + "setting or start it without -Dspring.aot.enabled");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.sirjanhansda.pods.products.datasource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+
+/**
+ * Replaces the auto-configured datasource with a primary/replica pair when
+ * spring.datasource.replica.url is set. Without that property the service keeps using the
+ * single datasource from spring.datasource.* exactly as before.
+ *
+ * The datasource handed to JPA routes @Transactional(readOnly = true) work to the replica
+ * (see ReadReplicaRoutingDataSource); all writes stay on the primary.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "spring.datasource.replica.url")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    public DataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().build();
+    }
+
+    @Bean
+    public DataSource replicaDataSource(DataSourceProperties properties,
+                                        @Value("${spring.datasource.replica.url}") String url,
+                                        @Value("${spring.datasource.replica.username:${spring.datasource.username:sa}}") String username,
+                                        @Value("${spring.datasource.replica.password:${spring.datasource.password:}}") String password) {
+        return DataSourceBuilder.create()
+                .driverClassName(properties.determineDriverClassName())
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                 @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                 ReplicaLagMonitor lagMonitor) {
+        ReadReplicaRoutingDataSource routingDataSource =
+                new ReadReplicaRoutingDataSource(primaryDataSource, replicaDataSource, lagMonitor);
+        routingDataSource.afterPropertiesSet();
+
+        // Defer fetching the physical connection until the first statement, when the
+        // transaction's read-only flag is already known
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
@@ -0,0 +1,99 @@
+package com.sirjanhansda.pods.products.datasource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Tracks how far the read replica lags behind the primary database.
+ *
+ * The primary gets a heartbeat row that is refreshed on every tick. The replication/copy job
+ * carries that row over to the replica together with the rest of the data, so the age of the
+ * heartbeat seen on the replica is the replica's staleness. Reads are only routed to the replica
+ * while that staleness stays within the configured bound; otherwise (or if the replica cannot be
+ * reached at all) they fall back to the primary.
+ *
+ * The copy job reloads the replica by dropping and re-creating its tables, so it takes the replica out of
+ * rotation first: it drops the REPLICA_READY table, waits for the services to notice, and only creates it
+ * again once the reload is complete. A replica without that table is never used.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.datasource.replica.url")
+public class ReplicaLagMonitor {
+
+    private final JdbcTemplate primaryJdbc;
+    private final JdbcTemplate replicaJdbc;
+
+    // Maximum age (in milliseconds) of replica data that read-only requests will accept
+    @Value("${replica.max-staleness-ms:15000}")
+    private long maxStalenessMs;
+
+    // Replica is considered unusable until the first successful heartbeat check
+    private volatile boolean replicaUsable = false;
+    private volatile long lastLagMs = -1;
+
+    public ReplicaLagMonitor(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                             @Qualifier("replicaDataSource") DataSource replicaDataSource) {
+        this.primaryJdbc = new JdbcTemplate(primaryDataSource);
+        this.replicaJdbc = new JdbcTemplate(replicaDataSource);
+    }
+
+    /**
+     * Writes a fresh heartbeat to the primary and measures the age of the copy on the replica.
+     */
+    @Scheduled(fixedDelayString = "${replica.heartbeat-interval-ms:1000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+
+        try {
+            primaryJdbc.execute("CREATE TABLE IF NOT EXISTS REPLICA_HEARTBEAT (ID INT PRIMARY KEY, BEAT_AT BIGINT NOT NULL)");
+            primaryJdbc.update("MERGE INTO REPLICA_HEARTBEAT KEY(ID) VALUES (1, ?)", now);
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to write replica heartbeat: " + e.getMessage());
+        }
+
+        try {
+            Integer ready = replicaJdbc.queryForObject(
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'REPLICA_READY'", Integer.class);
+            if (ready == null || ready == 0) {
+                markUnavailable("replica is being reloaded");
+                return;
+            }
+            List<Long> beats = replicaJdbc.queryForList("SELECT BEAT_AT FROM REPLICA_HEARTBEAT WHERE ID = 1", Long.class);
+            if (beats.isEmpty()) {
+                markUnavailable("no heartbeat replicated yet");
+                return;
+            }
+            lastLagMs = Math.max(0, now - beats.get(0));
+            replicaUsable = lastLagMs <= maxStalenessMs;
+        } catch (Exception e) {
+            markUnavailable(e.getMessage());
+        }
+    }
+
+    /**
+     * Stops routing reads to the replica until the next successful heartbeat check.
+     *
+     * @param reason Why the replica was taken out of rotation
+     */
+    public void markUnavailable(String reason) {
+        if (replicaUsable) {
+            System.out.println("[WARN] Read replica disabled: " + reason);
+        }
+        replicaUsable = false;
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    public long getLastLagMs() {
+        return lastLagMs;
+    }
+}
@@ -0,0 +1,71 @@
+package com.sirjanhansda.pods.products.datasource;
+
+import com.sirjanhansda.pods.products.deadline.Deadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.PersistenceException;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs a @Transactional(readOnly = true) method again on the primary when it failed with a database error
+ * after reading the replica, e.g. because the copy job was reloading a table it queried. The replica is taken
+ * out of rotation until the next successful heartbeat check (see ReplicaLagMonitor).
+ *
+ * The aspect is ordered just outside the transaction interceptor, so the second attempt gets a fresh
+ * transaction, and with it a fresh connection. Failures on the primary, and failures after the request's
+ * deadline has passed, are passed on unchanged.
+ *
+ * Metrics (tagged with the method):
+ * - replica.read.retries: read-only transactions re-run on the primary
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@ConditionalOnProperty(name = "spring.datasource.replica.url")
+public class ReplicaReadRetryAspect {
+
+    @Autowired
+    private ReplicaLagMonitor lagMonitor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Around("@annotation(transactional)")
+    public Object retryOnPrimary(ProceedingJoinPoint joinPoint, Transactional transactional) throws Throwable {
+        // Inside a caller's transaction the connection is the caller's; on a pinned thread there is no replica
+        if (!transactional.readOnly() || TransactionSynchronizationManager.isActualTransactionActive()
+                || PrimaryReads.pinned()) {
+            return joinPoint.proceed();
+        }
+
+        ReadReplicaRoutingDataSource.takeServedFromReplica();
+        try {
+            return joinPoint.proceed();
+        } catch (DataAccessException | PersistenceException | TransactionException e) {
+            if (!ReadReplicaRoutingDataSource.takeServedFromReplica() || Deadline.expired()) {
+                throw e;
+            }
+            lagMonitor.markUnavailable(e.getMessage());
+            meterRegistry.counter("replica.read.retries", "method", joinPoint.getSignature().toShortString())
+                    .increment();
+            PrimaryReads.pin();
+            try {
+                return joinPoint.proceed();
+            } finally {
+                PrimaryReads.release();
+            }
+        } finally {
+            ReadReplicaRoutingDataSource.takeServedFromReplica();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.sirjanhansda.pods.products.deadline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The point in time by which the client of the current request wants its answer.
+ *
+ * A deadline arrives with a request as the X-Request-Timeout-Ms header: the milliseconds the caller is still
+ * willing to wait. It is a relative budget, so the clocks of the services do not have to agree. DeadlineFilter
+ * makes it the current deadline of the request's thread. From there it is
+ * - forwarded to the services this one calls, as what is left of it (DeadlineRequestFactory)
+ * - turned into JDBC query timeouts, and checked before each statement (DeadlineDataSource)
+ * - checked by the controllers before work that is pointless once nobody waits for its answer
+ * Work handed to another thread takes the deadline along with callWith.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Request-Timeout-Ms";
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline afterMillis(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * @return Milliseconds left, 0 or less once the deadline has passed
+     */
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime());
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return The deadline of the work running on this thread, or null if it has none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return true if the work running on this thread has a deadline and it has passed
+     */
+    public static boolean expired() {
+        Deadline deadline = CURRENT.get();
+        return deadline != null && deadline.isExpired();
+    }
+
+    /**
+     * Gives up on the current work if its deadline has passed.
+     *
+     * @param work What would be done next, for the error message
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public static void check(String work) {
+        if (expired()) {
+            throw new DeadlineExceededException("Deadline exceeded before " + work);
+        }
+    }
+
+    /**
+     * Runs the task with the given deadline (or none, if null) as the current one, and restores the
+     * previous deadline afterwards.
+     */
+    public static <T> T callWith(Deadline deadline, Supplier<T> task) {
+        Deadline previous = CURRENT.get();
+        set(deadline);
+        try {
+            return task.get();
+        } finally {
+            set(previous);
+        }
+    }
+
+    /**
+     * Drops the current deadline for the rest of the work on this thread; used once work has gone too far
+     * to be abandoned halfway (e.g. a payment has been taken) and has to be finished even if the client
+     * has given up.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    static void set(Deadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+}
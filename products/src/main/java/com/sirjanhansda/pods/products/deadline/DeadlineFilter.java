@@ -0,0 +1,64 @@
+package com.sirjanhansda.pods.products.deadline;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Sets the deadline of each request from its X-Request-Timeout-Ms header (see Deadline), or from
+ * request.deadline.default-timeout-ms for requests without one.
+ *
+ * Runs before the other filters, so a request that arrives with no time left is answered 504 right away,
+ * without taking an admission slot.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class DeadlineFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Deadline of requests that do not bring one; 0 leaves them without a deadline
+    @Value("${request.deadline.default-timeout-ms:0}")
+    private long defaultTimeoutMs;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long timeoutMs = defaultTimeoutMs;
+        String header = request.getHeader(Deadline.HEADER);
+        if (header != null) {
+            try {
+                timeoutMs = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpStatus.BAD_REQUEST.value());
+                response.getWriter().write("Invalid " + Deadline.HEADER + " header");
+                return;
+            }
+            if (timeoutMs <= 0) {
+                meterRegistry.counter("requests.deadline.exceeded").increment();
+                response.setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+                response.getWriter().write("Deadline exceeded before the request arrived");
+                return;
+            }
+        }
+
+        Deadline.set(timeoutMs > 0 ? Deadline.afterMillis(timeoutMs) : null);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            Deadline.clear();
+        }
+    }
+}
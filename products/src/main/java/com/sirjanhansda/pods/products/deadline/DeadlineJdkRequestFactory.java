@@ -0,0 +1,60 @@
+package com.sirjanhansda.pods.products.deadline;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.concurrent.Executor;
+
+/**
+ * DeadlineRequestFactory for the JDK HttpClient (used for HTTP/2): each call carries what is left of the
+ * deadline in the X-Request-Timeout-Ms header and its timeout is cut down to it. The HttpClient, and so its
+ * connections, is shared by all calls; only the timeout differs per call. Calls made without a current
+ * deadline are not changed.
+ */
+public class DeadlineJdkRequestFactory implements ClientHttpRequestFactory {
+
+    private final HttpClient httpClient;
+    private final Executor executor;
+    private final int readTimeoutMs;
+
+    // Factory for calls without a deadline
+    private final JdkClientHttpRequestFactory withoutDeadline;
+
+    public DeadlineJdkRequestFactory(HttpClient httpClient, Executor executor, int readTimeoutMs) {
+        this.httpClient = httpClient;
+        this.executor = executor;
+        this.readTimeoutMs = readTimeoutMs;
+        this.withoutDeadline = factory(readTimeoutMs);
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return withoutDeadline.createRequest(uri, httpMethod);
+        }
+
+        long remainingMs = deadline.remainingMillis();
+        if (remainingMs <= 0) {
+            throw new DeadlineExceededException("Deadline exceeded before calling " + uri);
+        }
+        // The factory only holds references, so one per call is cheap
+        ClientHttpRequest request = factory(readTimeoutMs == 0 || readTimeoutMs > remainingMs
+                ? (int) remainingMs : readTimeoutMs).createRequest(uri, httpMethod);
+        request.getHeaders().set(Deadline.HEADER, String.valueOf(remainingMs));
+        return request;
+    }
+
+    private JdkClientHttpRequestFactory factory(int timeoutMs) {
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient, executor);
+        if (timeoutMs > 0) {
+            factory.setReadTimeout(timeoutMs);
+        }
+        return factory;
+    }
+}
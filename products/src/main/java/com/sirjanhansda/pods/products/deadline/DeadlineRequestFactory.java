@@ -0,0 +1,37 @@
+package com.sirjanhansda.pods.products.deadline;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Request factory for calls made on behalf of a request with a deadline: each call carries what is left of
+ * the deadline in the X-Request-Timeout-Ms header, so the called service stops working on it in time as well,
+ * and its connect and read timeouts are cut down to it, so this service stops waiting for an answer nobody
+ * can use. Calls made without a current deadline are not changed.
+ */
+public class DeadlineRequestFactory extends SimpleClientHttpRequestFactory {
+
+    @Override
+    protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+        super.prepareConnection(connection, httpMethod);
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return;
+        }
+
+        long remainingMs = deadline.remainingMillis();
+        if (remainingMs <= 0) {
+            throw new DeadlineExceededException("Deadline exceeded before calling " + connection.getURL());
+        }
+        connection.setRequestProperty(Deadline.HEADER, String.valueOf(remainingMs));
+        connection.setConnectTimeout(capped(connection.getConnectTimeout(), remainingMs));
+        connection.setReadTimeout(capped(connection.getReadTimeout(), remainingMs));
+    }
+
+    // A timeout of 0 is no timeout at all
+    private static int capped(int timeoutMs, long remainingMs) {
+        return timeoutMs == 0 || timeoutMs > remainingMs ? (int) remainingMs : timeoutMs;
+    }
+}
@@ -0,0 +1,29 @@
+package com.sirjanhansda.pods.products.mailbox;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers requests refused by a full user mailbox with 503 and a Retry-After header, and marks them with
+ * MailboxFullException.REQUEST_ATTRIBUTE so that admission control can tell them apart from overload.
+ */
+@RestControllerAdvice
+public class MailboxExceptionHandler {
+
+    // Seconds a refused client is asked to wait before retrying
+    @Value("${orders.mailbox.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    @ExceptionHandler(MailboxFullException.class)
+    public ResponseEntity<String> mailboxFull(MailboxFullException e, HttpServletRequest request) {
+        request.setAttribute(MailboxFullException.REQUEST_ATTRIBUTE, Boolean.TRUE);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(e.getMessage());
+    }
+}
@@ -0,0 +1,21 @@
+package com.sirjanhansda.pods.products.mailbox;
+
+/**
+ * Thrown when a user already has as many requests queued as their mailbox holds.
+ */
+public class MailboxFullException extends RuntimeException {
+
+    // Request attribute marking a request that was answered for this exception (see OrderAdmissionFilter)
+    public static final String REQUEST_ATTRIBUTE = MailboxFullException.class.getName();
+
+    private final Integer userId;
+
+    public MailboxFullException(Integer userId) {
+        super("Too many pending requests for user " + userId);
+        this.userId = userId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+}
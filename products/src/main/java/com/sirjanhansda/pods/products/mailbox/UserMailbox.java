@@ -0,0 +1,81 @@
+package com.sirjanhansda.pods.products.mailbox;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The mailbox of one user: a bounded queue of tasks that are run one after another.
+ *
+ * At most one thread drains a mailbox at a time. Whoever enqueues into an unscheduled mailbox schedules it;
+ * the draining thread unschedules it once the queue is empty and re-checks the queue afterwards, so a task
+ * enqueued in between is never left behind.
+ *
+ * The size of a mailbox counts its queued tasks and the one running, so a limit on it bounds both.
+ */
+class UserMailbox implements Runnable {
+
+    final Integer userId;
+
+    private final int capacity;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    UserMailbox(Integer userId, int capacity) {
+        this.userId = userId;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param limit Tasks the mailbox may hold including this one; never more than the capacity
+     * @return false if the mailbox is already at the limit
+     */
+    boolean offer(Runnable task, int limit) {
+        if (size.incrementAndGet() > Math.min(capacity, limit)) {
+            size.decrementAndGet();
+            return false;
+        }
+        queue.add(task);
+        lastUsed = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * @return true if the caller has to hand the mailbox to a thread
+     */
+    boolean schedule() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    @Override
+    public void run() {
+        do {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    System.out.println("[WARN] Mailbox task of user " + userId + " failed: " + e);
+                } finally {
+                    // Counted until it has finished, so a limit covers the running task too
+                    size.decrementAndGet();
+                }
+                lastUsed = System.currentTimeMillis();
+            }
+            scheduled.set(false);
+        } while (!queue.isEmpty() && schedule());
+    }
+
+    // Nothing queued or running, and unused since the cutoff
+    boolean isIdle(long cutoff) {
+        return !scheduled.get() && size.get() == 0 && lastUsed < cutoff;
+    }
+
+    int size() {
+        return size.get();
+    }
+}
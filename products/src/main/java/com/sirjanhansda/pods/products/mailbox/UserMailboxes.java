@@ -0,0 +1,210 @@
+package com.sirjanhansda.pods.products.mailbox;
+
+import com.sirjanhansda.pods.products.deadline.Deadline;
+import com.sirjanhansda.pods.products.deadline.DeadlineExceededException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Per-user mailboxes for the order mutations of the marketplace.
+ *
+ * Every mutation of a user's orders (placing, delivering and cancelling them) is queued in that user's mailbox
+ * and run by the mailbox, one at a time, while different users run in parallel. This replaces the per-user
+ * monitors of takeOrder, and also covers the cancellations that used to race with it.
+ *
+ * - Mailboxes are bounded: a user with capacity requests already queued gets a MailboxFullException (the
+ *   routers answer 503), so one user flooding the service cannot tie up every request thread.
+ * - Mailboxes are created on first use and dropped again once they have been idle for idle-eviction-ms.
+ * - Mailboxes run on a shared pool of daemon threads that only exist while mailboxes have work (Java 17 has
+ *   no virtual threads), so there is no thread per user.
+ *
+ * Work that spans several users (POST /orders/batch) holds all their mailboxes at once; see callExclusive.
+ *
+ * A task runs under the deadline of the request that queued it. A task whose deadline passed while it was
+ * queued is dropped instead of run, so a backlog of abandoned requests does not hold up the user's later ones.
+ *
+ * Metrics:
+ * - user.mailbox.rejected: requests refused because the user's mailbox was full
+ * - user.mailbox.active: mailboxes currently kept in memory
+ * - user.mailbox.expired: tasks dropped because their deadline passed while they were queued
+ */
+@Component
+public class UserMailboxes {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Requests a single user may have queued (including the one running)
+    @Value("${orders.mailbox.capacity:16}")
+    private int capacity;
+
+    // A mailbox without work for this long is dropped
+    @Value("${orders.mailbox.idle-eviction-ms:60000}")
+    private long idleEvictionMs;
+
+    private final Map<Integer, UserMailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ExecutorService mailboxThreads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "user-mailbox-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    void registerGauge() {
+        meterRegistry.gaugeMapSize("user.mailbox.active", List.of(), mailboxes);
+    }
+
+    /**
+     * Runs the task in the user's mailbox, after the user's earlier requests, and waits for its result.
+     * Exceptions thrown by the task are rethrown to the caller; a DeadlineExceededException if the
+     * caller's deadline passed before the task's turn came.
+     *
+     * @throws MailboxFullException if the user's mailbox is full
+     */
+    public <T> T call(Integer userId, Supplier<T> task) {
+        return call(userId, capacity, task);
+    }
+
+    /**
+     * Like call, but refuses the task once the user has maxPending requests queued (or running), even if
+     * the mailbox could hold more; e.g. to reject duplicate concurrent orders early.
+     *
+     * @throws MailboxFullException if the user already has maxPending requests pending
+     */
+    public <T> T call(Integer userId, int maxPending, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Deadline deadline = Deadline.current();
+        enqueue(userId, maxPending, () -> {
+            if (deadline != null && deadline.isExpired()) {
+                meterRegistry.counter("user.mailbox.expired").increment();
+                result.completeExceptionally(
+                        new DeadlineExceededException("Deadline exceeded in the mailbox of user " + userId));
+                return;
+            }
+            try {
+                result.complete(Deadline.callWith(deadline, task));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return await(result);
+    }
+
+    /**
+     * Runs the task on the calling thread while holding the mailboxes of all given users, so none of their
+     * other requests run at the same time. Mailboxes are taken in user id order, so two such calls cannot
+     * deadlock; each held mailbox keeps a thread parked until the task has finished.
+     *
+     * @throws MailboxFullException if the mailbox of one of the users is full
+     */
+    public <T> T callExclusive(Collection<Integer> userIds, Supplier<T> task) {
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            for (Integer userId : new TreeSet<>(userIds)) {
+                CountDownLatch held = new CountDownLatch(1);
+                enqueue(userId, capacity, () -> {
+                    held.countDown();
+                    awaitUninterruptibly(done);
+                });
+                awaitUninterruptibly(held);
+            }
+            return task.get();
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private void enqueue(Integer userId, int limit, Runnable task) {
+        boolean[] accepted = new boolean[1];
+        boolean[] schedule = new boolean[1];
+        // Enqueue under the map's lock for the user, so the mailbox cannot be evicted in between
+        UserMailbox mailbox = mailboxes.compute(userId, (id, current) -> {
+            UserMailbox box = current != null ? current : new UserMailbox(id, capacity);
+            accepted[0] = box.offer(task, limit);
+            schedule[0] = accepted[0] && box.schedule();
+            return box;
+        });
+        if (!accepted[0]) {
+            meterRegistry.counter("user.mailbox.rejected").increment();
+            throw new MailboxFullException(userId);
+        }
+        if (schedule[0]) {
+            mailboxThreads.execute(mailbox);
+        }
+    }
+
+    /**
+     * Drops mailboxes that have been idle for idle-eviction-ms.
+     */
+    @Scheduled(fixedDelayString = "${orders.mailbox.eviction-interval-ms:10000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleEvictionMs;
+        for (Integer userId : new ArrayList<>(mailboxes.keySet())) {
+            mailboxes.computeIfPresent(userId, (id, mailbox) -> mailbox.isIdle(cutoff) ? null : mailbox);
+        }
+    }
+
+    /**
+     * @return Number of requests queued (or running) for the user
+     */
+    public int pending(Integer userId) {
+        UserMailbox mailbox = mailboxes.get(userId);
+        return mailbox == null ? 0 : mailbox.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        mailboxThreads.shutdown();
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
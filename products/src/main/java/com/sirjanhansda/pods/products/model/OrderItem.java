@@ -1,6 +1,7 @@
 package com.sirjanhansda.pods.products.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
 
@@ -16,11 +17,15 @@ import lombok.Data;
  *   when serializing the object into JSON (it tells Jackson to ignore this field during serialization).
  * - product_id (Integer): The ID of the product for this order item.
  * - quantity (Integer): The quantity of the product in this order item.
+ * - stock_lease_id (Long): The stock lease the quantity was sold from, or null if it came straight from the
+ *   product's stock. Settling a lease sums the quantities that reference it, hence the index.
+ *   Not part of the JSON representation.
  * 
  * The @Data annotation from Lombok automatically generates getter, setter, equals, hashcode, 
  * and toString methods for the class.
  */
 @Entity
+@Table(indexes = @Index(name = "idx_order_item_stock_lease_id", columnList = "stock_lease_id"))
 @Data
 public class OrderItem {
 
@@ -40,4 +45,8 @@ public class OrderItem {
 
     // The quantity of the product in the order item
     private Integer quantity;
+
+    // The stock lease this item was sold from (null when sold from the product row)
+    @JsonIgnore
+    private Long stock_lease_id;
 }
@@ -1,10 +1,14 @@
 package com.sirjanhansda.pods.products.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
+import com.sirjanhansda.pods.products.conditional.ResourceVersionListener;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 
 import java.util.List;
 
@@ -21,22 +25,47 @@ import java.util.List;
  *   annotation specifies that one order can have many order items. The mappedBy attribute 
  *   specifies that the relationship is mapped by the `order` field in the `OrderItem` class.
  *   The cascade = CascadeType.ALL ensures that operations like persist, merge, and delete on an order 
- *   are propagated to the associated order items. The fetch = FetchType.EAGER ensures that the order 
- *   items are loaded eagerly when the order is retrieved.
+ *   are propagated to the associated order items. The items are loaded lazily: a query that needs them
+ *   asks for them with an entity graph, and when the items of several orders loaded together are touched,
+ *   @Fetch(FetchMode.SUBSELECT) loads all of them with one query instead of one query per order.
+ * - version (Long): Optimistic-lock version (@Version), so two concurrent status changes of the same order
+ *   cannot both succeed. Not part of the JSON representation.
+ *
+ * Writes are reported to ResourceVersions by ResourceVersionListener, which keeps the order lists' ETag current.
  *
  * The @JsonManagedReference annotation is used to manage the bidirectional relationship between
  * the `Orders` and `OrderItem` classes, ensuring that the order items are serialized properly when 
  * converting the order to JSON.
  *
+ * Fetch plans (entity graphs, applied by the OrdersDb queries):
+ * - Orders.list: the orders alone, for scans that only look at the order rows.
+ * - Orders.cancel: the orders with their items, whose stock is restored when an order is cancelled.
+ *
+ * The table is indexed on (user_id, status), which serves lookups by user (optionally narrowed by status),
+ * and on status alone for status-wide lookups.
+ *
  * The @Data, @Getter, and @Setter annotations from Lombok automatically generate boilerplate code 
  * such as getter, setter, equals, hashcode, and toString methods.
  */
 @Entity
+@EntityListeners(ResourceVersionListener.class)
+@NamedEntityGraphs({
+        @NamedEntityGraph(name = Orders.LIST_GRAPH),
+        @NamedEntityGraph(name = Orders.CANCEL_GRAPH, attributeNodes = @NamedAttributeNode("items"))
+})
+@Table(indexes = {
+        @Index(name = "idx_orders_user_id_status", columnList = "user_id, status"),
+        @Index(name = "idx_orders_status", columnList = "status")
+})
 @Data
 @Getter
 @Setter
 public class Orders {
 
+    // Entity graph names, see above
+    public static final String LIST_GRAPH = "Orders.list";
+    public static final String CANCEL_GRAPH = "Orders.cancel";
+
     // Unique identifier for the order (auto-generated by the database)
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -53,7 +82,14 @@ public class Orders {
     private OrderStatus status;
 
     // The list of order items associated with the order (One-to-Many relationship)
-    @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @Fetch(FetchMode.SUBSELECT)
     @JsonManagedReference // Ensures proper serialization of the bidirectional relationship
     private List<OrderItem> items;
+
+    // Optimistic-lock version; the column default covers rows written before the column existed
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
 }
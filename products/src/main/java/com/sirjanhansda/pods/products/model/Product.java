@@ -1,7 +1,12 @@
 package com.sirjanhansda.pods.products.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.sirjanhansda.pods.products.conditional.ResourceVersionListener;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.Id;
+import jakarta.persistence.Version;
 import lombok.Builder;
 import lombok.Data;
 
@@ -13,10 +18,16 @@ import lombok.Data;
  * - description (String): A brief description of the product.
  * - price (Integer): The price of the product.
  * - stock_quantity (Integer): The quantity of the product available in stock.
+ * - version (Long): Optimistic-lock version, annotated with @Version. Hibernate checks and increments it on every
+ *   entity update, so a read-modify-write that raced with another writer fails instead of overwriting it.
+ *   The bulk stock updates in ProdDb and the CSV import increment it as well. Not part of the JSON representation.
+ *
+ * Writes are reported to ResourceVersions by ResourceVersionListener, which keeps the catalog's ETag current.
  *
  * The @Data annotation from Lombok automatically generates getter, setter, equals, hashcode, 
  * and toString methods for the class, reducing boilerplate code.
- * The @Builder annotation from Lombok provides a builder pattern for creating instances of the class,
+ * The @Builder annotation from Lombok (on the parameterized constructor, so the version is left to Hibernate)
+ * provides a builder pattern for creating instances of the class,
  * making it easier to instantiate objects with multiple properties.
  * 
  * The class includes two constructors:
@@ -24,8 +35,8 @@ import lombok.Data;
  * - The default constructor allows creating an empty product object.
  */
 @Entity
+@EntityListeners(ResourceVersionListener.class)
 @Data
-@Builder
 public class Product {
 
     // Unique identifier for the product (primary key)
@@ -44,14 +55,21 @@ public class Product {
     // The quantity of the product available in stock
     private Integer stock_quantity;
 
+    // Optimistic-lock version; the column default covers rows written before the column existed
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
+
     /**
      * Parameterized constructor to create a product with specific values for id, name, description, price, and stock quantity.
      */
-    public Product(Integer id, String name, String description, Integer price, Integer quantity) {
+    @Builder
+    public Product(Integer id, String name, String description, Integer price, Integer stock_quantity) {
         this.id = id;
         this.name = name;
         this.description = description;
-        this.stock_quantity = quantity;
+        this.stock_quantity = stock_quantity;
         this.price = price;
     }
 
@@ -1,5 +1,6 @@
 package com.sirjanhansda.pods.products.model;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import lombok.Data;
@@ -26,8 +27,9 @@ import lombok.Setter;
 @Setter
 public class UsrWallet {
 
-    // Unique identifier for the user who owns the wallet (primary key)
+    // Unique identifier for the user who owns the wallet (primary key); the wallet service calls it user_id
     @Id
+    @JsonAlias("user_id")
     private Integer userid;
 
     // The current balance in the user's wallet
@@ -0,0 +1,71 @@
+package com.sirjanhansda.pods.products.orderdb;
+
+import com.sirjanhansda.pods.products.model.OrderStatus;
+import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.retry.RetryOnOptimisticLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+/**
+ * Status transitions of placed orders.
+ * Orders carries a @Version, so when two requests change the same order concurrently only one commit wins.
+ * The loser is re-run by the optimistic-lock retry aspect, re-reads the order and finds it no longer PLACED,
+ * which means an order can be cancelled (and refunded) only once.
+ *
+ * Only a cancellation loads the order's items (they are needed to restore the stock); other changes read the
+ * order row alone.
+ */
+@Service
+public class OrderStatusService {
+
+    @Autowired
+    private OrdersDb ordersDb;
+
+    /**
+     * Moves an order from PLACED to the given status.
+     *
+     * @param orderId ID of the order
+     * @param newStatus Status to move to (DELIVERED or CANCELLED)
+     * @return The updated order, or empty if the order does not exist or is not PLACED. The items of the order
+     *         are loaded only when newStatus is CANCELLED.
+     */
+    @RetryOnOptimisticLock
+    @Transactional
+    public Optional<Orders> updatePlacedOrder(Integer orderId, OrderStatus newStatus) {
+        Optional<Orders> found = newStatus == OrderStatus.CANCELLED
+                ? ordersDb.findOrdersByOrder_id(orderId).stream().findFirst()
+                : ordersDb.findById(orderId);
+        if (found.isEmpty() || found.get().getStatus() != OrderStatus.PLACED) {
+            return Optional.empty();
+        }
+
+        Orders order = found.get();
+        order.setStatus(newStatus);
+        ordersDb.save(order);
+        return Optional.of(order);
+    }
+
+    /**
+     * Moves a cancelled order back to PLACED, for a cancellation whose refund was refused before it was sent
+     * (open circuit, full bulkhead), so the order can be cancelled again later.
+     *
+     * @param orderId ID of the order
+     * @return false if the order does not exist or is not CANCELLED
+     */
+    @RetryOnOptimisticLock
+    @Transactional
+    public boolean reopenCancelledOrder(Integer orderId) {
+        Optional<Orders> found = ordersDb.findById(orderId);
+        if (found.isEmpty() || found.get().getStatus() != OrderStatus.CANCELLED) {
+            return false;
+        }
+
+        Orders order = found.get();
+        order.setStatus(OrderStatus.PLACED);
+        ordersDb.save(order);
+        return true;
+    }
+}
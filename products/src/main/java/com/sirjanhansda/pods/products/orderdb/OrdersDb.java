@@ -2,20 +2,46 @@ package com.sirjanhansda.pods.products.orderdb;
 
 import com.sirjanhansda.pods.products.model.OrderStatus;
 import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.readmodel.OrderRow;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface OrdersDb extends JpaRepository<Orders, Integer> {
 
-    @Query("SELECT o FROM Orders o LEFT JOIN FETCH o.items WHERE o.order_id = :id")
+    // The order with its items, for cancelling it
+    @EntityGraph(Orders.CANCEL_GRAPH)
+    @Query("SELECT o FROM Orders o WHERE o.order_id = :id")
     List<Orders> findOrdersByOrder_id(@Param("id") Integer id);
 
-    @Query("SELECT o FROM Orders o LEFT JOIN FETCH o.items WHERE o.user_id = :id")
+    // Order rows only; items touched later are loaded by one subselect for all of the orders
+    @EntityGraph(Orders.LIST_GRAPH)
+    @Query("SELECT o FROM Orders o WHERE o.user_id = :id")
     List<Orders> findOrdersByUser_id(@Param("id") Integer id);
+
+    @EntityGraph(Orders.LIST_GRAPH)
     List<Orders> findOrdersByStatus(OrderStatus status);
+
+    // Owner of an order, without loading the order; used to pick the user's mailbox
+    @Query("SELECT o.user_id FROM Orders o WHERE o.order_id = :id")
+    Optional<Integer> findUserIdByOrder_id(@Param("id") Integer id);
+
+    // Read model for the GET endpoints (see OrderReadModel): each order joined with its items, as plain rows
+    @Query("SELECT new com.sirjanhansda.pods.products.readmodel.OrderRow(o.order_id, o.user_id, o.total_price, o.status, " +
+            "i.id, i.product_id, i.quantity) FROM Orders o LEFT JOIN o.items i WHERE o.order_id = :id ORDER BY i.id")
+    List<OrderRow> findOrderRowsByOrder_id(@Param("id") Integer id);
+
+    @Query("SELECT new com.sirjanhansda.pods.products.readmodel.OrderRow(o.order_id, o.user_id, o.total_price, o.status, " +
+            "i.id, i.product_id, i.quantity) FROM Orders o LEFT JOIN o.items i WHERE o.user_id = :id ORDER BY o.order_id, i.id")
+    List<OrderRow> findOrderRowsByUser_id(@Param("id") Integer id);
+
+    @Query("SELECT new com.sirjanhansda.pods.products.readmodel.OrderRow(o.order_id, o.user_id, o.total_price, o.status, " +
+            "i.id, i.product_id, i.quantity) FROM Orders o LEFT JOIN o.items i ORDER BY o.order_id, i.id")
+    List<OrderRow> findAllOrderRows();
 }
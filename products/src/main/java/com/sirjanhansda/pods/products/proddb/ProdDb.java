@@ -2,6 +2,7 @@ package com.sirjanhansda.pods.products.proddb;
 
 
 import com.sirjanhansda.pods.products.model.Product;
+import com.sirjanhansda.pods.products.readmodel.ProductView;
 import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -9,7 +10,9 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ProdDb extends JpaRepository<Product, Integer> {
@@ -17,14 +20,29 @@ public interface ProdDb extends JpaRepository<Product, Integer> {
     List<Product> findProductById(Integer id);
     List<Product> findProductByName(String name);
 
+    // Read model for the GET endpoints: products as plain rows, without managed entities
+    @Query("SELECT new com.sirjanhansda.pods.products.readmodel.ProductView(p.id, p.name, p.description, p.price, p.stock_quantity) " +
+            "FROM Product p")
+    List<ProductView> findAllProductViews();
+
+    @Query("SELECT new com.sirjanhansda.pods.products.readmodel.ProductView(p.id, p.name, p.description, p.price, p.stock_quantity) " +
+            "FROM Product p WHERE p.id = :id")
+    Optional<ProductView> findProductViewById(@Param("id") Integer id);
+
+    @Query("SELECT new com.sirjanhansda.pods.products.readmodel.ProductView(p.id, p.name, p.description, p.price, p.stock_quantity) " +
+            "FROM Product p WHERE p.id IN :ids")
+    List<ProductView> findProductViewsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Bulk updates bypass Hibernate's version check, so they increment the version themselves
     @Modifying
     @Transactional
-    @Query("UPDATE Product p SET p.stock_quantity = p.stock_quantity - :quantity " +
+    @Query("UPDATE Product p SET p.stock_quantity = p.stock_quantity - :quantity, p.version = p.version + 1 " +
             "WHERE p.id = :productId AND p.stock_quantity >= :quantity")
     int decrementStock(@Param("productId") Integer productId, @Param("quantity") Integer quantity);
 
     @Modifying
-    @Query("UPDATE Product p SET p.stock_quantity = p.stock_quantity + :quantity WHERE p.id = :productId")
+    @Query("UPDATE Product p SET p.stock_quantity = p.stock_quantity + :quantity, p.version = p.version + 1 " +
+            "WHERE p.id = :productId")
     void incrementStock(@Param("productId") Integer productId, @Param("quantity") int quantity);
 
 }
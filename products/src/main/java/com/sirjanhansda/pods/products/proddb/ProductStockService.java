@@ -0,0 +1,37 @@
+package com.sirjanhansda.pods.products.proddb;
+
+import com.sirjanhansda.pods.products.model.OrderItem;
+import com.sirjanhansda.pods.products.model.Product;
+import com.sirjanhansda.pods.products.retry.RetryOnOptimisticLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Read-modify-write stock changes on Product entities.
+ * Product carries a @Version, so a change that raced with another writer fails at commit and the whole
+ * method is re-run (re-reading the products) by the optimistic-lock retry aspect instead of losing an update.
+ */
+@Service
+public class ProductStockService {
+
+    @Autowired
+    private ProdDb prodDb;
+
+    /**
+     * Adds the quantities of cancelled order items back to the stock of their products, in one transaction.
+     *
+     * @param restoreItems List of OrderItems containing products and quantities
+     */
+    @RetryOnOptimisticLock
+    @Transactional
+    public void restoreStock(List<OrderItem> restoreItems) {
+        for (OrderItem restoreItem : restoreItems) {
+            // Items of the same product share one managed entity, so their quantities add up
+            Product product = prodDb.findById(restoreItem.getProduct_id()).orElseThrow();
+            product.setStock_quantity(product.getStock_quantity() + restoreItem.getQuantity());
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.sirjanhansda.pods.products.readmodel;
+
+/**
+ * Read model of an order item, as part of an OrderView.
+ */
+public record OrderItemView(Integer id, Integer product_id, Integer quantity) {
+}
@@ -0,0 +1,51 @@
+package com.sirjanhansda.pods.products.readmodel;
+
+import com.sirjanhansda.pods.products.orderdb.OrdersDb;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Orders as the GET endpoints return them, read with a single projection query of orders joined with
+ * their items instead of hydrating Orders entities with their item collections.
+ */
+@Component
+public class OrderReadModel {
+
+    @Autowired
+    private OrdersDb ordersDb;
+
+    public Optional<OrderView> order(Integer orderId) {
+        List<OrderView> orders = fold(ordersDb.findOrderRowsByOrder_id(orderId));
+        return orders.isEmpty() ? Optional.empty() : Optional.of(orders.get(0));
+    }
+
+    public List<OrderView> ordersOfUser(Integer userId) {
+        return fold(ordersDb.findOrderRowsByUser_id(userId));
+    }
+
+    public List<OrderView> allOrders() {
+        return fold(ordersDb.findAllOrderRows());
+    }
+
+    // The rows come sorted by order, so each order's rows are adjacent
+    private static List<OrderView> fold(List<OrderRow> rows) {
+        List<OrderView> orders = new ArrayList<>();
+        List<OrderItemView> items = null;
+        Integer orderId = null;
+        for (OrderRow row : rows) {
+            if (!row.order_id().equals(orderId)) {
+                orderId = row.order_id();
+                items = new ArrayList<>();
+                orders.add(new OrderView(row.order_id(), row.user_id(), row.total_price(), row.status(), items));
+            }
+            if (row.item_id() != null) {
+                items.add(new OrderItemView(row.item_id(), row.product_id(), row.quantity()));
+            }
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,11 @@
+package com.sirjanhansda.pods.products.readmodel;
+
+import com.sirjanhansda.pods.products.model.OrderStatus;
+
+/**
+ * One row of the order read queries (see OrdersDb): an order joined with one of its items. The item
+ * columns are null for an order without items. OrderReadModel folds the rows into OrderViews.
+ */
+public record OrderRow(Integer order_id, Integer user_id, Integer total_price, OrderStatus status,
+                       Integer item_id, Integer product_id, Integer quantity) {
+}
@@ -0,0 +1,12 @@
+package com.sirjanhansda.pods.products.readmodel;
+
+import com.sirjanhansda.pods.products.model.OrderStatus;
+
+import java.util.List;
+
+/**
+ * Read model of an order for the GET endpoints. Serializes like Orders without its version.
+ */
+public record OrderView(Integer order_id, Integer user_id, Integer total_price, OrderStatus status,
+                        List<OrderItemView> items) {
+}
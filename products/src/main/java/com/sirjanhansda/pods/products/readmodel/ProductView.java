@@ -0,0 +1,12 @@
+package com.sirjanhansda.pods.products.readmodel;
+
+/**
+ * Read model of a product for the GET endpoints, filled straight from the query result (see ProdDb), so no
+ * managed entity is created. Serializes like Product without its version.
+ */
+public record ProductView(Integer id, String name, String description, Integer price, Integer stock_quantity) {
+
+    public ProductView withStock(int stock) {
+        return new ProductView(id, name, description, price, stock);
+    }
+}
@@ -0,0 +1,11 @@
+package com.sirjanhansda.pods.products.resilience;
+
+/**
+ * Thrown instead of calling a dependency whose circuit is open or whose bulkhead is full.
+ */
+public class DependencyUnavailableException extends RuntimeException {
+
+    public DependencyUnavailableException(String dependency, String reason) {
+        super(dependency + " service unavailable: " + reason);
+    }
+}
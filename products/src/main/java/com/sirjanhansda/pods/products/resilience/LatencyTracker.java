@@ -0,0 +1,46 @@
+package com.sirjanhansda.pods.products.resilience;
+
+import java.util.Arrays;
+
+/**
+ * Percentile of the latencies of the most recent calls to a dependency.
+ *
+ * Keeps the last window-size samples in a ring buffer; the percentile is recomputed every REFRESH_EVERY
+ * samples, so reading it is cheap.
+ */
+public class LatencyTracker {
+
+    private static final int REFRESH_EVERY = 32;
+
+    private final long[] samples;
+    private final double percentile;
+    private int recorded;
+    private int next;
+    private int sinceRefresh;
+
+    private volatile long percentileNanos = -1;
+
+    public LatencyTracker(int windowSize, double percentile) {
+        this.samples = new long[windowSize];
+        this.percentile = percentile;
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        recorded = Math.min(recorded + 1, samples.length);
+        if (++sinceRefresh >= REFRESH_EVERY || percentileNanos < 0) {
+            sinceRefresh = 0;
+            long[] sorted = Arrays.copyOf(samples, recorded);
+            Arrays.sort(sorted);
+            percentileNanos = sorted[(int) Math.min(recorded - 1, Math.floor(recorded * percentile))];
+        }
+    }
+
+    /**
+     * @return The tracked percentile, or -1 before the first sample
+     */
+    public long getPercentileNanos() {
+        return percentileNanos;
+    }
+}
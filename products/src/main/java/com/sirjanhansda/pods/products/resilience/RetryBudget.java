@@ -0,0 +1,37 @@
+package com.sirjanhansda.pods.products.resilience;
+
+/**
+ * Limits retries to a share of the calls made to a dependency.
+ *
+ * Every first attempt deposits ratio tokens (up to maxTokens) and every retry withdraws a whole token, so in
+ * steady state at most ratio retries are made per call. When a dependency fails across the board the budget
+ * runs dry after a few retries, instead of every caller multiplying the load on it.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+
+    private double tokens;
+
+    public RetryBudget(double ratio, double maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    public synchronized void onCall() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * @return true if a retry may be made now; the token is spent
+     */
+    public synchronized boolean tryRetry() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
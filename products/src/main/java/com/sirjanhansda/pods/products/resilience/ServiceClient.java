@@ -0,0 +1,369 @@
+package com.sirjanhansda.pods.products.resilience;
+
+import com.sirjanhansda.pods.products.deadline.Deadline;
+import com.sirjanhansda.pods.products.deadline.DeadlineExceededException;
+import com.sirjanhansda.pods.products.deadline.DeadlineJdkRequestFactory;
+import com.sirjanhansda.pods.products.deadline.DeadlineRequestFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Guarded access to one dependency (the account or the wallet service).
+ *
+ * Every call goes through, in this order:
+ * 1. A bulkhead: at most max-concurrent-calls calls to the dependency at once; a caller waits up to
+ *    bulkhead-wait-ms for a slot and is refused after that, so a slow dependency ties up a bounded number
+ *    of request threads
+ * 2. The circuit breaker (see CircuitBreaker), which refuses calls while the dependency is unhealthy
+ * 3. The call itself, on a RestTemplate with connect and read timeouts, over HTTP/1.1 or, once useHttp2 has
+ *    been called, over HTTP/2
+ * Refused calls throw DependencyUnavailableException. Failures are timeouts, I/O errors and 5xx answers;
+ * a 4xx answer means the dependency is healthy and only tells the caller no.
+ *
+ * Calls made for a request with a deadline forward it and time out with it (see DeadlineRequestFactory).
+ * Once it has passed no call is made, and a call cut short by it (or answered 504 because the dependency
+ * gave up on it) throws DeadlineExceededException. Such calls are neither retried nor held against the
+ * dependency by the circuit breaker.
+ *
+ * Request and response bodies are JSON, or Smile (binary JSON, same Jackson bindings) once useSmileEncoding
+ * has been called.
+ *
+ * Idempotent calls (callIdempotent) are retried after a failure as long as the retry budget allows it.
+ * With hedging enabled, each of their attempts is also hedged: if no answer has arrived after the
+ * dependency's recent p95 latency, a second request is sent and whichever answers first is used. Hedges
+ * draw on their own budget, so at most a small share of the calls is ever sent twice.
+ *
+ * Metrics (tagged with the dependency):
+ * - dependency.calls: calls by outcome (success, failure, short_circuited, bulkhead_full, deadline_exceeded)
+ * - dependency.retries: retries made
+ * - dependency.circuit.state: 0 closed, 1 open, 2 half open
+ * - dependency.bulkhead.available: free bulkhead slots
+ * - dependency.hedges: hedge requests sent; dependency.hedge.wins: hedges that answered first
+ * - dependency.latency.p95: recent p95 latency in milliseconds (the hedging delay)
+ */
+public class ServiceClient {
+
+    private final String name;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final RestTemplate restTemplate;
+    private final Semaphore bulkhead;
+    private final long bulkheadWaitMs;
+    private final CircuitBreaker breaker;
+    private final RetryBudget retryBudget;
+    private final int maxRetries;
+    private final MeterRegistry meterRegistry;
+
+    // Latency of calls that got an answer
+    private final LatencyTracker latency = new LatencyTracker(256, 0.95);
+
+    // Hedging of idempotent calls; hedgeBudget is null while hedging is disabled
+    private RetryBudget hedgeBudget;
+    private long hedgeMinDelayMs;
+    private ExecutorService hedgeExecutor;
+
+    // Threads of the HTTP/2 client; null while calls go over HTTP/1.1
+    private ExecutorService http2Executor;
+
+    public ServiceClient(String name, int connectTimeoutMs, int readTimeoutMs,
+                         int maxConcurrentCalls, long bulkheadWaitMs,
+                         CircuitBreaker breaker, RetryBudget retryBudget, int maxRetries,
+                         MeterRegistry meterRegistry) {
+        this.name = name;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        DeadlineRequestFactory requestFactory = new DeadlineRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        this.restTemplate = new RestTemplate(requestFactory);
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.bulkheadWaitMs = bulkheadWaitMs;
+        this.breaker = breaker;
+        this.retryBudget = retryBudget;
+        this.maxRetries = maxRetries;
+        this.meterRegistry = meterRegistry;
+
+        List<Tag> tags = List.of(Tag.of("dependency", name));
+        meterRegistry.gauge("dependency.circuit.state", tags, breaker, b -> b.getState().ordinal());
+        meterRegistry.gauge("dependency.bulkhead.available", tags, bulkhead, Semaphore::availablePermits);
+        meterRegistry.gauge("dependency.latency.p95", tags, latency, l -> l.getPercentileNanos() / 1e6);
+    }
+
+    /**
+     * Turns on hedging of idempotent calls.
+     *
+     * @param minDelayMs Lower bound of the hedging delay, also used until latencies have been recorded
+     * @param budget Budget the hedges are taken from
+     */
+    public void enableHedging(long minDelayMs, RetryBudget budget) {
+        this.hedgeMinDelayMs = minDelayMs;
+        this.hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "hedge-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hedgeBudget = budget;
+    }
+
+    /**
+     * Switches the calls to HTTP/2 without TLS (h2c): the first call on a connection asks the dependency to
+     * upgrade it, after that concurrent calls are multiplexed over it as separate streams instead of each
+     * holding a connection of its own. A dependency that does not upgrade keeps being called over HTTP/1.1.
+     */
+    public void useHttp2() {
+        http2Executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http2-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(http2Executor)
+                .build();
+        restTemplate.setRequestFactory(new DeadlineJdkRequestFactory(httpClient, http2Executor, readTimeoutMs));
+    }
+
+    /**
+     * Switches the bodies of the calls to Smile: request bodies are sent as Smile and Smile answers are asked
+     * for ahead of JSON. A dependency that does not speak Smile still answers in JSON.
+     */
+    public void useSmileEncoding() {
+        List<HttpMessageConverter<?>> converters = restTemplate.getMessageConverters();
+        converters.removeIf(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter);
+        int json = 0;
+        while (json < converters.size() && !(converters.get(json) instanceof MappingJackson2HttpMessageConverter)) {
+            json++;
+        }
+        converters.add(json, new MappingJackson2SmileHttpMessageConverter());
+    }
+
+    /**
+     * Makes a call that must not be repeated (e.g. a debit).
+     *
+     * @throws DependencyUnavailableException if the bulkhead is full or the circuit is open
+     */
+    public <T> T call(Function<RestTemplate, T> request) {
+        return attempt(request);
+    }
+
+    /**
+     * Makes a call that is safe to repeat, retrying failures within the retry budget.
+     *
+     * @throws DependencyUnavailableException if the bulkhead is full or the circuit is open
+     */
+    public <T> T callIdempotent(Function<RestTemplate, T> request) {
+        retryBudget.onCall();
+        for (int retry = 0; ; retry++) {
+            try {
+                return hedgeBudget == null ? attempt(request) : hedgedAttempt(request);
+            } catch (HttpStatusCodeException e) {
+                if (e.getStatusCode().is4xxClientError() || retry >= maxRetries || !retryBudget.tryRetry()) {
+                    throw e;
+                }
+            } catch (DependencyUnavailableException | DeadlineExceededException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                if (retry >= maxRetries || !retryBudget.tryRetry()) {
+                    throw e;
+                }
+            }
+            meterRegistry.counter("dependency.retries", "dependency", name).increment();
+        }
+    }
+
+    private <T> T attempt(Function<RestTemplate, T> request) {
+        if (Deadline.expired()) {
+            count("deadline_exceeded");
+            throw new DeadlineExceededException("Deadline exceeded before calling the " + name + " service");
+        }
+        if (!acquireBulkhead()) {
+            count("bulkhead_full");
+            throw new DependencyUnavailableException(name, "too many concurrent calls");
+        }
+        try {
+            if (!breaker.tryAcquirePermission()) {
+                count("short_circuited");
+                throw new DependencyUnavailableException(name, "circuit open");
+            }
+            long started = System.nanoTime();
+            try {
+                T result = request.apply(restTemplate);
+                latency.record(System.nanoTime() - started);
+                breaker.onSuccess();
+                count("success");
+                return result;
+            } catch (HttpStatusCodeException e) {
+                if (Deadline.current() != null && e.getStatusCode().value() == HttpStatus.GATEWAY_TIMEOUT.value()) {
+                    throw deadlineExceeded(e);
+                }
+                if (e.getStatusCode().is5xxServerError()) {
+                    breaker.onFailure();
+                    count("failure");
+                } else {
+                    latency.record(System.nanoTime() - started);
+                    breaker.onSuccess();
+                    count("success");
+                }
+                throw e;
+            } catch (DeadlineExceededException e) {
+                throw deadlineExceeded(e);
+            } catch (RuntimeException e) {
+                if (Deadline.expired()) {
+                    throw deadlineExceeded(e);
+                }
+                breaker.onFailure();
+                count("failure");
+                throw e;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Books a call that the caller's deadline cut short, which says nothing about the dependency.
+     */
+    private DeadlineExceededException deadlineExceeded(RuntimeException cause) {
+        breaker.onIgnored();
+        count("deadline_exceeded");
+        if (cause instanceof DeadlineExceededException deadlineExceeded) {
+            return deadlineExceeded;
+        }
+        return new DeadlineExceededException("Deadline exceeded while calling the " + name + " service: "
+                + cause.getMessage());
+    }
+
+    /**
+     * One attempt of an idempotent call, hedged with a second request if the first one is slow.
+     * A result or a 4xx answer from either request settles the call; a failure of one request waits for
+     * the other. The slower request is not cancelled, its answer is dropped.
+     */
+    private <T> T hedgedAttempt(Function<RestTemplate, T> request) {
+        hedgeBudget.onCall();
+        // The requests run on the hedge threads, under the caller's deadline
+        Deadline deadline = Deadline.current();
+        CompletableFuture<T> primary = CompletableFuture.supplyAsync(
+                () -> Deadline.callWith(deadline, () -> attempt(request)), hedgeExecutor);
+        try {
+            return primary.get(hedgeDelayMs(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DependencyUnavailableException(name, "interrupted");
+        } catch (TimeoutException e) {
+            // Slower than usual: hedge if the budget allows it
+        }
+        if (!hedgeBudget.tryRetry()) {
+            return await(primary);
+        }
+
+        meterRegistry.counter("dependency.hedges", "dependency", name).increment();
+        CompletableFuture<T> hedge = CompletableFuture.supplyAsync(
+                () -> Deadline.callWith(deadline, () -> attempt(request)), hedgeExecutor);
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        primary.whenComplete((result, error) -> settle(first, result, error, failed));
+        hedge.whenComplete((result, error) -> {
+            if (settle(first, result, error, failed)) {
+                meterRegistry.counter("dependency.hedge.wins", "dependency", name).increment();
+            }
+        });
+        return await(first);
+    }
+
+    /**
+     * Completes the call with the outcome of one of its two requests, unless it is a failure and the other
+     * request may still answer.
+     *
+     * @return true if this outcome completed the call
+     */
+    private static <T> boolean settle(CompletableFuture<T> call, T result, Throwable error, AtomicInteger failed) {
+        if (error == null) {
+            return call.complete(result);
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HttpStatusCodeException e && e.getStatusCode().is4xxClientError()
+                || failed.incrementAndGet() == 2) {
+            return call.completeExceptionally(cause);
+        }
+        return false;
+    }
+
+    private long hedgeDelayMs() {
+        long p95Nanos = latency.getPercentileNanos();
+        return Math.max(hedgeMinDelayMs, TimeUnit.NANOSECONDS.toMillis(p95Nanos));
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DependencyUnavailableException(name, "interrupted");
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private boolean acquireBulkhead() {
+        try {
+            return bulkhead.tryAcquire(bulkheadWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("dependency.calls", "dependency", name, "outcome", outcome).increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
+        if (http2Executor != null) {
+            http2Executor.shutdown();
+        }
+    }
+}
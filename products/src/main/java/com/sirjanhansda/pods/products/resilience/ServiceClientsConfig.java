@@ -0,0 +1,75 @@
+package com.sirjanhansda.pods.products.resilience;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * One ServiceClient per dependency of the marketplace, configured under resilience.&lt;dependency&gt;.*:
+ * - connect-timeout-ms, read-timeout-ms: timeouts of a single HTTP call
+ * - max-concurrent-calls, bulkhead-wait-ms: size of the bulkhead and how long a caller waits for a slot
+ * - window-size, minimum-calls, failure-rate-threshold (percent), open-duration-ms, half-open-calls:
+ *   circuit breaker settings (see CircuitBreaker)
+ * - max-retries, retry-budget-ratio, retry-budget-max: retries of idempotent calls (see RetryBudget)
+ * - hedging-enabled, hedge-min-delay-ms, hedge-budget-ratio, hedge-budget-max: hedged idempotent calls
+ * - encoding: json or smile, the encoding of request and response bodies
+ * - http2-enabled: call the dependency over HTTP/2 (h2c) instead of HTTP/1.1
+ */
+@Configuration
+public class ServiceClientsConfig {
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Bean(destroyMethod = "shutdown")
+    public ServiceClient accountServiceClient() {
+        return createClient("account");
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ServiceClient walletsServiceClient() {
+        return createClient("wallets");
+    }
+
+    private ServiceClient createClient(String name) {
+        CircuitBreaker breaker = new CircuitBreaker(
+                property(name, "window-size", Integer.class, 20),
+                property(name, "minimum-calls", Integer.class, 10),
+                property(name, "failure-rate-threshold", Integer.class, 50),
+                property(name, "open-duration-ms", Long.class, 5000L),
+                property(name, "half-open-calls", Integer.class, 3));
+        RetryBudget retryBudget = new RetryBudget(
+                property(name, "retry-budget-ratio", Double.class, 0.1),
+                property(name, "retry-budget-max", Double.class, 10.0));
+        ServiceClient client = new ServiceClient(name,
+                property(name, "connect-timeout-ms", Integer.class, 500),
+                property(name, "read-timeout-ms", Integer.class, 2000),
+                property(name, "max-concurrent-calls", Integer.class, 25),
+                property(name, "bulkhead-wait-ms", Long.class, 100L),
+                breaker, retryBudget,
+                property(name, "max-retries", Integer.class, 1),
+                meterRegistry);
+        if (property(name, "hedging-enabled", Boolean.class, false)) {
+            client.enableHedging(
+                    property(name, "hedge-min-delay-ms", Long.class, 5L),
+                    new RetryBudget(property(name, "hedge-budget-ratio", Double.class, 0.05),
+                            property(name, "hedge-budget-max", Double.class, 10.0)));
+        }
+        if (property(name, "http2-enabled", Boolean.class, false)) {
+            client.useHttp2();
+        }
+        if ("smile".equalsIgnoreCase(property(name, "encoding", String.class, "json"))) {
+            client.useSmileEncoding();
+        }
+        return client;
+    }
+
+    private <T> T property(String dependency, String key, Class<T> type, T defaultValue) {
+        return environment.getProperty("resilience." + dependency + "." + key, type, defaultValue);
+    }
+}
@@ -0,0 +1,78 @@
+package com.sirjanhansda.pods.products.retry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries @RetryOnOptimisticLock methods that fail with an optimistic-lock conflict.
+ *
+ * Between attempts the thread sleeps for a random time between 0 and min(max-backoff, base-backoff * 2^attempt)
+ * ("full jitter"), so writers that collided on the same row do not collide again in lock step.
+ * The aspect is ordered just outside the transaction interceptor, so every attempt gets a fresh transaction.
+ *
+ * Metrics (tagged with the method):
+ * - optimistic.lock.retries: conflicts that were retried
+ * - optimistic.lock.exhausted: calls that still failed after the last attempt
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class OptimisticLockRetryAspect {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Total attempts for methods that do not set their own limit
+    @Value("${retry.optimistic.max-attempts:5}")
+    private int defaultMaxAttempts;
+
+    // Backoff ceiling before the first retry; doubles with every further retry
+    @Value("${retry.optimistic.base-backoff-ms:5}")
+    private long baseBackoffMs;
+
+    // Upper bound of the backoff ceiling
+    @Value("${retry.optimistic.max-backoff-ms:200}")
+    private long maxBackoffMs;
+
+    @Around("@annotation(retryOnOptimisticLock)")
+    public Object retry(ProceedingJoinPoint joinPoint, RetryOnOptimisticLock retryOnOptimisticLock) throws Throwable {
+        // Inside a caller's transaction the conflict has already doomed that transaction; let the caller retry
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return joinPoint.proceed();
+        }
+
+        String method = joinPoint.getSignature().toShortString();
+        int maxAttempts = retryOnOptimisticLock.maxAttempts() > 0
+                ? retryOnOptimisticLock.maxAttempts() : defaultMaxAttempts;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return joinPoint.proceed();
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    meterRegistry.counter("optimistic.lock.exhausted", "method", method).increment();
+                    System.out.println("[WARN] " + method + " gave up after " + attempt
+                            + " optimistic-lock conflicts");
+                    throw e;
+                }
+                meterRegistry.counter("optimistic.lock.retries", "method", method).increment();
+                Thread.sleep(backoffMs(attempt));
+            }
+        }
+    }
+
+    private long backoffMs(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
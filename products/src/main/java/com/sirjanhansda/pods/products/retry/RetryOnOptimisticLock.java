@@ -0,0 +1,22 @@
+package com.sirjanhansda.pods.products.retry;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a Spring bean method whose work is re-run when it fails with an optimistic-lock conflict
+ * (a @Version check that found the row changed by someone else).
+ *
+ * The method must start its own transaction (typically it is also @Transactional): a retry re-reads
+ * the rows, so it has to run in a fresh transaction. When the caller already has a transaction open
+ * the conflict is passed on unchanged, and the outermost annotated method retries instead.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RetryOnOptimisticLock {
+
+    // Total attempts including the first one; 0 uses retry.optimistic.max-attempts
+    int maxAttempts() default 0;
+}
@@ -0,0 +1,111 @@
+package com.sirjanhansda.pods.products.stock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This replica's share of a product's stock, backed by a row in STOCK_LEASE.
+ *
+ * Orders take stock from the atomic counter without touching the database. Every order item sold from the lease
+ * records the lease id, so the stock actually sold from it can always be recomputed from committed orders.
+ *
+ * In-flight counts reservations whose transaction has not finished yet. A lease is only settled (its remainder
+ * handed back to the product row) once it is closed and nothing is in flight, so no order can commit against
+ * stock that has already been returned. The in-flight counter is incremented before the closed flag is read and
+ * closing sets the flag before reading the counter, so a reservation either sees the lease closed or is seen
+ * by the settlement.
+ */
+class StockLease {
+
+    final long leaseId;
+    final int productId;
+
+    private final AtomicInteger available;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean refillRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    // Local deadline for selling; kept a safety margin before the expiry stored in the database
+    private volatile long validUntil;
+
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    StockLease(long leaseId, int productId, int granted, long validUntil) {
+        this.leaseId = leaseId;
+        this.productId = productId;
+        this.available = new AtomicInteger(granted);
+        this.validUntil = validUntil;
+    }
+
+    /**
+     * Takes stock for a new reservation. On success the reservation is in flight until finish() is called.
+     *
+     * @return false if the lease is closed, past its deadline or holds less than the quantity
+     */
+    boolean tryTake(int quantity) {
+        inFlight.incrementAndGet();
+        if (!closed && System.currentTimeMillis() < validUntil) {
+            int current;
+            while ((current = available.get()) >= quantity) {
+                if (available.compareAndSet(current, current - quantity)) {
+                    lastUsed = System.currentTimeMillis();
+                    return true;
+                }
+            }
+        }
+        inFlight.decrementAndGet();
+        return false;
+    }
+
+    // Puts stock of a released or rolled-back reservation back
+    void giveBack(int quantity) {
+        available.addAndGet(quantity);
+    }
+
+    // The transaction of a reservation has finished (committed or rolled back)
+    void finish() {
+        inFlight.decrementAndGet();
+    }
+
+    // Adds stock that was moved from the product row to this lease
+    void add(int quantity) {
+        available.addAndGet(quantity);
+    }
+
+    /**
+     * Stops new reservations.
+     *
+     * @return true if nothing is in flight, so the lease can be settled now
+     */
+    boolean close() {
+        closed = true;
+        return inFlight.get() == 0;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int available() {
+        return closed ? 0 : available.get();
+    }
+
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    void extendValidity(long validUntil) {
+        this.validUntil = Math.max(this.validUntil, validUntil);
+    }
+
+    /**
+     * @return true if the caller won the right to schedule the next refill
+     */
+    boolean requestRefill() {
+        return refillRequested.compareAndSet(false, true);
+    }
+
+    void refillDone() {
+        refillRequested.set(false);
+    }
+}
@@ -0,0 +1,427 @@
+package com.sirjanhansda.pods.products.stock;
+
+import com.sirjanhansda.pods.products.conditional.ResourceVersions;
+import com.sirjanhansda.pods.products.proddb.ProdDb;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stock leasing for hot products, so the replicas do not all serialize on the same Product row.
+ *
+ * A product becomes hot when at least hot-concurrent-orders of its orders are in flight on its row at the same
+ * time on this replica (they queue behind the row lock, which is held until each order commits). The replica
+ * then moves a chunk of the product's stock into a lease (a STOCK_LEASE row) and sells from an in-memory counter.
+ * It tops the lease up in the background when it runs low, and hands the remainder back to the product row
+ * when the product has been idle for a while or the replica shuts down. Products that are not hot, and hot
+ * products whose lease has run dry, are sold from the product row as before.
+ *
+ * Order items sold from a lease record its id, so a lease's remainder is always granted minus the quantity of
+ * the order items that reference it. That makes settlement exact, even for the lease of a crashed replica:
+ * leases are kept alive by a heartbeat, and any replica settles leases whose expiry has passed. A replica stops
+ * selling from a lease a safety margin before the expiry it last wrote, which assumes clock skew and pauses stay
+ * below that margin.
+ *
+ * The global stock of a product is its row's stock plus the remainders of its leases (see leasedRemaining).
+ *
+ * All lease bookkeeping runs on one background thread. Request threads only touch the in-memory counters and
+ * never wait for a lease, so they cannot block on a second database connection while holding one.
+ */
+@Component
+public class StockLeaseManager {
+
+    private static final String CREATE_LEASE_TABLE =
+            "CREATE TABLE IF NOT EXISTS STOCK_LEASE (LEASE_ID BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+            "PRODUCT_ID INT NOT NULL, REPLICA_ID VARCHAR(255) NOT NULL, GRANTED INT NOT NULL, EXPIRES_AT BIGINT NOT NULL)";
+
+    // Takes up to ? units from the product row and reports the stock it had before
+    private static final String TAKE_STOCK =
+            "SELECT stock_quantity FROM OLD TABLE (UPDATE Product SET stock_quantity = stock_quantity - " +
+            "LEAST(stock_quantity, ?), version = version + 1 WHERE id = ? AND stock_quantity > 0)";
+
+    private static final String RETURN_STOCK =
+            "UPDATE Product SET stock_quantity = stock_quantity + ?, version = version + 1 WHERE id = ?";
+
+    private static final String INSERT_LEASE =
+            "INSERT INTO STOCK_LEASE (PRODUCT_ID, REPLICA_ID, GRANTED, EXPIRES_AT) VALUES (?, ?, ?, ?)";
+
+    private static final String GROW_LEASE = "UPDATE STOCK_LEASE SET GRANTED = GRANTED + ? WHERE LEASE_ID = ?";
+
+    private static final String HEARTBEAT = "UPDATE STOCK_LEASE SET EXPIRES_AT = ? WHERE REPLICA_ID = ?";
+
+    // Removes a lease and reports what it was granted; only one replica can win this for a given lease
+    private static final String CLAIM_LEASE = "SELECT GRANTED FROM OLD TABLE (DELETE FROM STOCK_LEASE WHERE LEASE_ID = ?)";
+
+    private static final String CLAIM_EXPIRED_LEASE =
+            "SELECT GRANTED FROM OLD TABLE (DELETE FROM STOCK_LEASE WHERE LEASE_ID = ? AND EXPIRES_AT < ?)";
+
+    private static final String SOLD_FROM_LEASE =
+            "SELECT COALESCE(SUM(quantity), 0) FROM OrderItem WHERE stock_lease_id = ?";
+
+    private static final String EXPIRED_LEASES = "SELECT LEASE_ID, PRODUCT_ID FROM STOCK_LEASE WHERE EXPIRES_AT < ?";
+
+    private static final String LEASED_REMAINING =
+            "SELECT l.PRODUCT_ID, SUM(l.GRANTED - COALESCE((SELECT SUM(i.quantity) FROM OrderItem i " +
+            "WHERE i.stock_lease_id = l.LEASE_ID), 0)) FROM STOCK_LEASE l";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProdDb prodDb;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ResourceVersions resourceVersions;
+
+    @Value("${stock.lease.enabled:false}")
+    private boolean enabled;
+
+    // Units moved from the product row into a lease at a time
+    @Value("${stock.lease.chunk-size:50}")
+    private int chunkSize;
+
+    // Concurrent orders of one product on its row that make it worth leasing
+    @Value("${stock.lease.hot-concurrent-orders:4}")
+    private int hotConcurrentOrders;
+
+    // Lifetime of a lease without a heartbeat
+    @Value("${stock.lease.ttl-ms:10000}")
+    private long ttlMs;
+
+    // How long before its expiry a replica stops selling from its own lease
+    @Value("${stock.lease.safety-margin-ms:2000}")
+    private long safetyMarginMs;
+
+    // A lease without sales for this long is handed back
+    @Value("${stock.lease.idle-return-ms:5000}")
+    private long idleReturnMs;
+
+    // Identifies this replica's leases
+    private final String replicaId = System.getenv().getOrDefault("HOSTNAME", "marketplace") + "-" + UUID.randomUUID();
+
+    // Active leases of this replica by product id
+    private final Map<Integer, StockLease> leases = new ConcurrentHashMap<>();
+
+    // Orders per product currently holding or waiting for the product row
+    private final Map<Integer, AtomicInteger> rowInFlight = new ConcurrentHashMap<>();
+
+    // Highest rowInFlight per product since the last maintenance run
+    private final Map<Integer, Integer> rowContention = new ConcurrentHashMap<>();
+
+    private final ExecutorService leaseWorker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stock-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only used on the stock-lease thread
+    private long lastHeartbeat;
+    private long lastReconcile;
+
+    @PostConstruct
+    void createTable() {
+        jdbcTemplate.execute(CREATE_LEASE_TABLE);
+    }
+
+    /**
+     * Takes stock for an order inside the caller's transaction: from this replica's lease of the product when
+     * it has enough, otherwise from the product row. Lease stock goes back automatically if the transaction
+     * rolls back; row stock goes back with the rollback itself. Either way the catalog's reported stock
+     * changes, which neither the bulk update nor the in-memory lease report to ResourceVersions on their own.
+     *
+     * @return The reservation, or null if there is not enough stock
+     */
+    public StockReservation reserve(Integer productId, int quantity) {
+        if (enabled && TransactionSynchronizationManager.isSynchronizationActive()) {
+            StockLease lease = leases.get(productId);
+            if (lease != null && lease.tryTake(quantity)) {
+                StockReservation reservation = new StockReservation(productId, lease, quantity);
+                resourceVersions.changed(ResourceVersions.Resource.CATALOG);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status != STATUS_COMMITTED) {
+                            lease.giveBack(reservation.takeBack(reservation.remaining()));
+                        }
+                        lease.finish();
+                    }
+                });
+                if (lease.available() < chunkSize / 2) {
+                    requestRefill(lease);
+                }
+                return reservation;
+            }
+            if (lease != null) {
+                // Sell from the row until the background top-up has arrived
+                requestRefill(lease);
+            }
+            trackRowContention(productId);
+        }
+
+        if (prodDb.decrementStock(productId, quantity) == 0) {
+            return null;
+        }
+        resourceVersions.changed(ResourceVersions.Resource.CATALOG);
+        return new StockReservation(productId, null, quantity);
+    }
+
+    /**
+     * Hands part of a reservation back, e.g. when the order it was taken for is rejected.
+     * Must be called inside the transaction the stock was reserved in.
+     */
+    public void release(StockReservation reservation, int quantity) {
+        int released = reservation.takeBack(quantity);
+        if (released == 0) {
+            return;
+        }
+        if (reservation.lease() != null) {
+            reservation.lease().giveBack(released);
+        } else {
+            prodDb.incrementStock(reservation.getProductId(), released);
+        }
+        resourceVersions.changed(ResourceVersions.Resource.CATALOG);
+    }
+
+    /**
+     * Hands everything that is left of a reservation back.
+     */
+    public void release(StockReservation reservation) {
+        release(reservation, reservation.remaining());
+    }
+
+    /**
+     * Stock this replica can sell right now: the row's stock plus what is left in its own lease.
+     * Used for cheap pre-checks; the reservation has the final say.
+     */
+    public int sellableStock(Integer productId, int rowStock) {
+        StockLease lease = leases.get(productId);
+        return rowStock + (lease == null ? 0 : lease.available());
+    }
+
+    /**
+     * Stock held by the leases of all replicas and not sold yet, for one product.
+     * Runs in the caller's transaction, so it sees the same database as the caller's read of the product row.
+     */
+    public int leasedRemaining(Integer productId) {
+        List<Integer> remaining = jdbcTemplate.query(LEASED_REMAINING + " WHERE l.PRODUCT_ID = ? GROUP BY l.PRODUCT_ID",
+                (rs, rowNum) -> rs.getInt(2), productId);
+        return remaining.isEmpty() ? 0 : remaining.get(0);
+    }
+
+    /**
+     * Stock held by the leases of all replicas and not sold yet, for every leased product.
+     */
+    public Map<Integer, Integer> leasedRemaining() {
+        Map<Integer, Integer> remaining = new HashMap<>();
+        jdbcTemplate.query(LEASED_REMAINING + " GROUP BY l.PRODUCT_ID",
+                rs -> {
+                    remaining.put(rs.getInt(1), rs.getInt(2));
+                });
+        return remaining;
+    }
+
+    /**
+     * Periodic lease bookkeeping, handed to the stock-lease thread.
+     */
+    @Scheduled(fixedDelayString = "${stock.lease.maintenance-interval-ms:200}")
+    public void scheduleMaintenance() {
+        if (enabled) {
+            submit(this::maintain);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        leaseWorker.shutdown();
+        leaseWorker.awaitTermination(5, TimeUnit.SECONDS);
+        // Requests have been drained by the graceful shutdown, so every lease can be settled now
+        for (StockLease lease : leases.values()) {
+            if (lease.close()) {
+                settle(lease.leaseId, lease.productId, false);
+            }
+        }
+        leases.clear();
+    }
+
+    // Counts the calling transaction as in flight on the product row until it completes
+    private void trackRowContention(Integer productId) {
+        AtomicInteger inFlight = rowInFlight.computeIfAbsent(productId, id -> new AtomicInteger());
+        rowContention.merge(productId, inFlight.incrementAndGet(), Math::max);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    private void requestRefill(StockLease lease) {
+        if (lease.requestRefill() && !submit(() -> {
+            try {
+                topUp(lease);
+            } finally {
+                lease.refillDone();
+            }
+        })) {
+            lease.refillDone();
+        }
+    }
+
+    // Runs the task on the stock-lease thread; false once that thread has been shut down
+    private boolean submit(Runnable task) {
+        try {
+            leaseWorker.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void maintain() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // Keep this replica's leases alive
+            if (!leases.isEmpty() && now - lastHeartbeat >= ttlMs / 4) {
+                jdbcTemplate.update(HEARTBEAT, now + ttlMs, replicaId);
+                leases.values().forEach(lease -> lease.extendValidity(now + ttlMs - safetyMarginMs));
+                lastHeartbeat = now;
+            }
+
+            // Lease products whose row became contended since the last run
+            for (Integer productId : List.copyOf(rowContention.keySet())) {
+                Integer contention = rowContention.remove(productId);
+                if (contention >= hotConcurrentOrders && !leases.containsKey(productId)) {
+                    openLease(productId);
+                }
+            }
+
+            // Hand back leases that went idle, once their last reservations have finished
+            for (StockLease lease : leases.values()) {
+                if ((lease.isClosed() || now - lease.lastUsed() >= idleReturnMs) && lease.close()) {
+                    settle(lease.leaseId, lease.productId, false);
+                    leases.remove(lease.productId, lease);
+                }
+            }
+
+            // Settle leases whose owner stopped renewing them (e.g. a crashed replica)
+            if (now - lastReconcile >= ttlMs / 2) {
+                List<long[]> expired = jdbcTemplate.query(EXPIRED_LEASES,
+                        (rs, rowNum) -> new long[]{rs.getLong(1), rs.getInt(2)}, now);
+                expired.forEach(lease -> settle(lease[0], (int) lease[1], true));
+                lastReconcile = now;
+            }
+        } catch (Exception e) {
+            System.out.println("[WARN] Stock lease maintenance failed: " + e.getMessage());
+        }
+    }
+
+    private void openLease(Integer productId) {
+        try {
+            long expiresAt = System.currentTimeMillis() + ttlMs;
+            StockLease lease = new TransactionTemplate(transactionManager).execute(status -> {
+                int taken = takeStock(productId);
+                if (taken == 0) {
+                    return null;
+                }
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                jdbcTemplate.update(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(INSERT_LEASE, Statement.RETURN_GENERATED_KEYS);
+                    ps.setInt(1, productId);
+                    ps.setString(2, replicaId);
+                    ps.setInt(3, taken);
+                    ps.setLong(4, expiresAt);
+                    return ps;
+                }, keyHolder);
+                return new StockLease(keyHolder.getKey().longValue(), productId, taken, expiresAt - safetyMarginMs);
+            });
+            if (lease != null) {
+                leases.put(productId, lease);
+                System.out.println("Stock lease " + lease.leaseId + " opened for hot product " + productId
+                        + " with " + lease.available() + " units");
+            }
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to lease stock of product " + productId + ": " + e.getMessage());
+        }
+    }
+
+    private void topUp(StockLease lease) {
+        if (lease.isClosed() || lease.available() >= chunkSize / 2) {
+            return;
+        }
+        try {
+            Integer taken = new TransactionTemplate(transactionManager).execute(status -> {
+                int units = takeStock(lease.productId);
+                if (units > 0 && jdbcTemplate.update(GROW_LEASE, units, lease.leaseId) == 0) {
+                    // The lease was settled by another replica (it expired); keep the stock in the row
+                    status.setRollbackOnly();
+                    lease.close();
+                    return 0;
+                }
+                return units;
+            });
+            lease.add(taken == null ? 0 : taken);
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to top up stock lease " + lease.leaseId + ": " + e.getMessage());
+        }
+    }
+
+    // Moves up to one chunk from the product row into a lease; part of the caller's transaction
+    private int takeStock(Integer productId) {
+        List<Integer> before = jdbcTemplate.queryForList(TAKE_STOCK, Integer.class, chunkSize, productId);
+        return before.isEmpty() ? 0 : Math.min(before.get(0), chunkSize);
+    }
+
+    /**
+     * Deletes a lease and returns its unsold remainder to the product row, in one transaction.
+     *
+     * @param onlyIfExpired Only settle the lease if its expiry has passed (for leases of other replicas)
+     */
+    private void settle(long leaseId, int productId, boolean onlyIfExpired) {
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                List<Integer> granted = onlyIfExpired
+                        ? jdbcTemplate.queryForList(CLAIM_EXPIRED_LEASE, Integer.class, leaseId, System.currentTimeMillis())
+                        : jdbcTemplate.queryForList(CLAIM_LEASE, Integer.class, leaseId);
+                if (granted.isEmpty()) {
+                    return; // Already settled
+                }
+                int sold = jdbcTemplate.queryForObject(SOLD_FROM_LEASE, Integer.class, leaseId);
+                int remaining = Math.max(0, granted.get(0) - sold);
+                if (remaining > 0) {
+                    jdbcTemplate.update(RETURN_STOCK, remaining, productId);
+                }
+                System.out.println("Stock lease " + leaseId + " of product " + productId + " settled: "
+                        + granted.get(0) + " granted, " + sold + " sold, " + remaining + " returned");
+            });
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to settle stock lease " + leaseId + ": " + e.getMessage());
+        }
+    }
+}
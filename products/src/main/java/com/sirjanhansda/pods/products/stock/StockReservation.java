@@ -0,0 +1,50 @@
+package com.sirjanhansda.pods.products.stock;
+
+/**
+ * Stock taken for an order that is still being placed.
+ *
+ * The stock comes either from a local lease (leaseId set; order items sold from it must record that id) or from
+ * the product row itself (leaseId null; the decrement is part of the caller's transaction). Used by one request
+ * thread only.
+ */
+public class StockReservation {
+
+    private final Integer productId;
+    private final StockLease lease;
+    private int remaining;
+
+    StockReservation(Integer productId, StockLease lease, int quantity) {
+        this.productId = productId;
+        this.lease = lease;
+        this.remaining = quantity;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    /**
+     * @return Id of the lease the stock came from, or null if it came from the product row
+     */
+    public Long getLeaseId() {
+        return lease == null ? null : lease.leaseId;
+    }
+
+    // Quantity that has not been released again
+    int remaining() {
+        return remaining;
+    }
+
+    StockLease lease() {
+        return lease;
+    }
+
+    /**
+     * @return The part of the quantity that was actually still reserved
+     */
+    int takeBack(int quantity) {
+        int released = Math.min(quantity, remaining);
+        remaining -= released;
+        return released;
+    }
+}
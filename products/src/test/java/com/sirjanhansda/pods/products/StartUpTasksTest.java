@@ -0,0 +1,63 @@
+package com.sirjanhansda.pods.products;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Catalog load test: a replica whose import fails gives its claim back and keeps retrying until the catalog
+ * is loaded, instead of staying unready.
+ */
+class StartUpTasksTest {
+
+    private final CSVProdReader csvProdReader = mock(CSVProdReader.class);
+    private final CatalogLoadMarker catalogLoadMarker = mock(CatalogLoadMarker.class);
+    private final CatalogHealthIndicator catalogHealth = new CatalogHealthIndicator();
+
+    private StartUpTasks startUpTasks;
+
+    @BeforeEach
+    void wire() {
+        startUpTasks = new StartUpTasks();
+        ReflectionTestUtils.setField(startUpTasks, "csvProdReader", csvProdReader);
+        ReflectionTestUtils.setField(startUpTasks, "catalogLoadMarker", catalogLoadMarker);
+        ReflectionTestUtils.setField(startUpTasks, "catalogHealth", catalogHealth);
+        ReflectionTestUtils.setField(startUpTasks, "csvPath", "/products.csv");
+        ReflectionTestUtils.setField(startUpTasks, "configuredVersion", "v1");
+        ReflectionTestUtils.setField(startUpTasks, "pollIntervalMs", 1L);
+        ReflectionTestUtils.setField(startUpTasks, "retryInitialBackoffMs", 1L);
+        ReflectionTestUtils.setField(startUpTasks, "retryMaxBackoffMs", 4L);
+
+        when(catalogLoadMarker.tryClaim(eq("v1"), anyString())).thenReturn(true);
+    }
+
+    @Test
+    void failedImportIsRetriedUntilItSucceeds() {
+        when(csvProdReader.loadProductsFromCsv("/products.csv"))
+                .thenThrow(new IllegalStateException("database unavailable"))
+                .thenThrow(new IllegalStateException("database unavailable"))
+                .thenReturn(true);
+
+        startUpTasks.loadCatalog();
+
+        assertEquals(Status.UP, catalogHealth.health().getStatus());
+        verify(catalogLoadMarker, times(2)).release(anyString());
+        verify(catalogLoadMarker).markLoaded(eq("v1"), anyString());
+    }
+
+    @Test
+    void failureBeforeTheClaimIsRetried() {
+        doThrow(new IllegalStateException("database unavailable")).doNothing().when(catalogLoadMarker).ensureExists();
+        when(catalogLoadMarker.isLoaded("v1")).thenReturn(true);
+
+        startUpTasks.loadCatalog();
+
+        assertEquals(Status.UP, catalogHealth.health().getStatus());
+        verify(csvProdReader, never()).loadProductsFromCsv(anyString());
+    }
+}
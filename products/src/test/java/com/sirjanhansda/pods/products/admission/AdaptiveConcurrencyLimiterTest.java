@@ -0,0 +1,96 @@
+package com.sirjanhansda.pods.products.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Gradient limiter test: admission up to the limit, growth while latency holds, shrinking when it rises or
+ * requests fail, and no change for requests whose outcome is ignored.
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long BASELINE_RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    void admitsUpToTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(3, 1, 10, 1.5, 0.2, 0.9);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(3, limiter.getInFlight());
+
+        limiter.onIgnored();
+        assertEquals(3, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void growsWhileLatencyStaysAtBaseline() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 4, 50, 1.5, 0.2, 0.9);
+
+        runSaturated(limiter, 50, BASELINE_RTT);
+
+        assertTrue(limiter.getLimit() > 20, "limit " + limiter.getLimit());
+        assertTrue(limiter.getLimit() <= 50);
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 50, 1.5, 0.2, 0.9);
+        // A history long enough that the baseline no longer follows single samples
+        runSaturated(limiter, 500, BASELINE_RTT);
+        int settled = limiter.getLimit();
+
+        // Requests start queueing downstream: five times the baseline latency
+        runSaturated(limiter, 30, 5 * BASELINE_RTT);
+
+        assertTrue(limiter.getLimit() < settled / 2, settled + " -> " + limiter.getLimit());
+        assertTrue(limiter.getLimit() >= 4);
+    }
+
+    @Test
+    void doesNotGrowWhileUnderused() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 50, 1.5, 0.2, 0.9);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSample(BASELINE_RTT);
+        }
+
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    void failuresBackOffDownToTheMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 50, 1.5, 0.2, 0.5);
+
+        limiter.tryAcquire();
+        limiter.onDropped();
+        assertEquals(10, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+            limiter.onDropped();
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    // Keeps the limiter full and completes one request per sample, each taking rtt
+    private static void runSaturated(AdaptiveConcurrencyLimiter limiter, int samples, long rtt) {
+        for (int i = 0; i < samples; i++) {
+            while (limiter.tryAcquire()) {
+                // Fill up to the current limit
+            }
+            limiter.onSample(rtt);
+        }
+        while (limiter.getInFlight() > 0) {
+            limiter.onIgnored();
+        }
+    }
+}
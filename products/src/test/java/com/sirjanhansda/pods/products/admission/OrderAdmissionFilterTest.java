@@ -0,0 +1,113 @@
+package com.sirjanhansda.pods.products.admission;
+
+import com.sirjanhansda.pods.products.mailbox.MailboxFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Admission filter test: which answers of the order endpoints count as failures, and how requests beyond the
+ * limit are shed.
+ */
+class OrderAdmissionFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private OrderAdmissionFilter filter;
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void createFilter() {
+        filter = new OrderAdmissionFilter();
+        ReflectionTestUtils.setField(filter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "initialLimit", 8);
+        ReflectionTestUtils.setField(filter, "minLimit", 2);
+        ReflectionTestUtils.setField(filter, "maxLimit", 50);
+        ReflectionTestUtils.setField(filter, "rttTolerance", 1.5);
+        ReflectionTestUtils.setField(filter, "smoothing", 0.2);
+        ReflectionTestUtils.setField(filter, "dropBackoff", 0.5);
+        ReflectionTestUtils.setField(filter, "retryAfterSeconds", 3);
+        filter.createLimiter();
+        limiter = (AdaptiveConcurrencyLimiter) ReflectionTestUtils.getField(filter, "limiter");
+    }
+
+    @Test
+    void mailboxRefusalIsNotAFailure() throws Exception {
+        MockHttpServletResponse response = placeOrder((request, servletResponse) -> {
+            request.setAttribute(MailboxFullException.REQUEST_ATTRIBUTE, Boolean.TRUE);
+            ((MockHttpServletResponse) servletResponse).setStatus(503);
+        });
+
+        assertEquals(503, response.getStatus());
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void otherServiceUnavailableIsAFailure() throws Exception {
+        placeOrder((request, servletResponse) -> ((MockHttpServletResponse) servletResponse).setStatus(503));
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void exceptionIsAFailure() {
+        assertThrows(IllegalStateException.class, () -> placeOrder((request, servletResponse) -> {
+            throw new IllegalStateException("database unavailable");
+        }));
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void successfulRequestIsASample() throws Exception {
+        placeOrder((request, servletResponse) -> ((MockHttpServletResponse) servletResponse).setStatus(201));
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void requestsBeyondTheLimitAreShed() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        boolean[] called = new boolean[1];
+
+        MockHttpServletResponse response = placeOrder((request, servletResponse) -> called[0] = true);
+
+        assertFalse(called[0]);
+        assertEquals(503, response.getStatus());
+        assertEquals("3", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, meterRegistry.counter("orders.admission.shed").count());
+    }
+
+    @Test
+    void otherEndpointsAreNotLimited() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/orders"), response,
+                (request, servletResponse) -> ((MockHttpServletResponse) servletResponse).setStatus(200));
+
+        assertEquals(200, response.getStatus());
+    }
+
+    private MockHttpServletResponse placeOrder(FilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("POST", "/orders"), response, chain);
+        return response;
+    }
+}
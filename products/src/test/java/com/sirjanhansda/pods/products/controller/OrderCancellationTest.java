@@ -0,0 +1,105 @@
+package com.sirjanhansda.pods.products.controller;
+
+import com.sirjanhansda.pods.products.mailbox.UserMailboxes;
+import com.sirjanhansda.pods.products.model.OrderItem;
+import com.sirjanhansda.pods.products.model.OrderStatus;
+import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.orderdb.OrderStatusService;
+import com.sirjanhansda.pods.products.orderdb.OrdersDb;
+import com.sirjanhansda.pods.products.proddb.ProductStockService;
+import com.sirjanhansda.pods.products.resilience.DependencyUnavailableException;
+import com.sirjanhansda.pods.products.resilience.ServiceClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Cancellation test: a refund that the wallet service's circuit breaker or bulkhead refuses was never sent, so
+ * the cancelled orders go back to PLACED instead of staying cancelled without refund or stock.
+ */
+class OrderCancellationTest {
+
+    private final OrdersDb ordersDb = mock(OrdersDb.class);
+    private final OrderStatusService orderStatusService = mock(OrderStatusService.class);
+    private final ProductStockService productStockService = mock(ProductStockService.class);
+    private final ServiceClient walletsService = mock(ServiceClient.class);
+
+    private final OrdersRouter ordersRouter = new OrdersRouter();
+    private final MarketPlaceRouter marketPlaceRouter = new MarketPlaceRouter();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void wire() {
+        UserMailboxes mailboxes = mock(UserMailboxes.class);
+        when(mailboxes.call(anyInt(), any(Supplier.class)))
+                .thenAnswer(call -> ((Supplier<?>) call.getArgument(1)).get());
+        for (Object router : List.of(ordersRouter, marketPlaceRouter)) {
+            ReflectionTestUtils.setField(router, "walletServiceUrl", "http://wallets");
+            ReflectionTestUtils.setField(router, "walletsService", walletsService);
+            ReflectionTestUtils.setField(router, "ordersDb", ordersDb);
+            ReflectionTestUtils.setField(router, "orderStatusService", orderStatusService);
+            ReflectionTestUtils.setField(router, "productStockService", productStockService);
+            ReflectionTestUtils.setField(router, "userMailboxes", mailboxes);
+        }
+
+        when(ordersDb.findUserIdByOrder_id(5)).thenReturn(Optional.of(1));
+        when(orderStatusService.updatePlacedOrder(anyInt(), eq(OrderStatus.CANCELLED)))
+                .thenAnswer(call -> Optional.of(order(call.getArgument(0), OrderStatus.CANCELLED)));
+        when(walletsService.call(any())).thenThrow(new DependencyUnavailableException("wallets", "circuit open"));
+    }
+
+    @Test
+    void refusedRefundReopensTheOrder() {
+        ResponseEntity<?> response = ordersRouter.deleteOrder(5);
+
+        assertEquals(503, response.getStatusCode().value());
+        verify(orderStatusService).reopenCancelledOrder(5);
+        verify(productStockService, never()).restoreStock(any());
+    }
+
+    @Test
+    void refusedRefundReopensAllOrdersOfTheUser() {
+        when(ordersDb.findOrdersByUser_id(1)).thenReturn(List.of(
+                order(5, OrderStatus.PLACED), order(6, OrderStatus.DELIVERED), order(7, OrderStatus.PLACED)));
+
+        ResponseEntity<?> response = marketPlaceRouter.deleteOrderByUserId(1);
+
+        assertEquals(503, response.getStatusCode().value());
+        verify(orderStatusService).reopenCancelledOrder(5);
+        verify(orderStatusService).reopenCancelledOrder(7);
+        verify(orderStatusService, never()).reopenCancelledOrder(6);
+        verify(productStockService, never()).restoreStock(any());
+    }
+
+    @Test
+    void failedRefundKeepsTheCancellation() {
+        // The credit was sent and may have been applied, so the order must not be cancelled a second time
+        reset(walletsService);
+        when(walletsService.call(any())).thenThrow(new IllegalStateException("connection reset"));
+
+        ResponseEntity<?> response = ordersRouter.deleteOrder(5);
+
+        assertEquals(400, response.getStatusCode().value());
+        verify(orderStatusService, never()).reopenCancelledOrder(anyInt());
+    }
+
+    private static Orders order(Integer orderId, OrderStatus status) {
+        Orders order = new Orders();
+        order.setOrder_id(orderId);
+        order.setUser_id(1);
+        order.setTotal_price(100);
+        order.setStatus(status);
+        order.setItems(new ArrayList<OrderItem>());
+        return order;
+    }
+}
@@ -0,0 +1,210 @@
+package com.sirjanhansda.pods.products.controller;
+
+import com.sirjanhansda.pods.products.mailbox.UserMailboxes;
+import com.sirjanhansda.pods.products.model.Customer;
+import com.sirjanhansda.pods.products.model.Product;
+import com.sirjanhansda.pods.products.model.UsrWallet;
+import com.sirjanhansda.pods.products.orderdb.OrdersDb;
+import com.sirjanhansda.pods.products.proddb.ProdDb;
+import com.sirjanhansda.pods.products.resilience.ServiceClient;
+import com.sirjanhansda.pods.products.stock.StockLeaseManager;
+import com.sirjanhansda.pods.products.stock.StockReservation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Batch ordering test: OrdersRouter.takeOrders against mocked user and wallet services, stock and repositories,
+ * checking which orders are placed, what each user's payment hold covers and when the discount is used up.
+ */
+class OrdersRouterBatchTest {
+
+    private static final String ACCOUNTS = "http://account";
+    private static final String WALLETS = "http://wallets";
+
+    private final RestTemplate accountRest = mock(RestTemplate.class);
+    private final RestTemplate walletRest = mock(RestTemplate.class);
+    private final StockLeaseManager stockLeases = mock(StockLeaseManager.class);
+    private final ProdDb prodDb = mock(ProdDb.class);
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+    // Amount of every payment hold placed, by user id
+    private final Map<Integer, Integer> heldAmounts = new HashMap<>();
+
+    // Whether the batch currently holds the users' mailboxes
+    private boolean mailboxesHeld;
+
+    private OrdersRouter router;
+
+    @BeforeEach
+    void wire() {
+        router = new OrdersRouter();
+        ReflectionTestUtils.setField(router, "accountServiceUrl", ACCOUNTS);
+        ReflectionTestUtils.setField(router, "walletServiceUrl", WALLETS);
+        ReflectionTestUtils.setField(router, "maxBatchSize", 500);
+        ReflectionTestUtils.setField(router, "lookupChunkSize", 100);
+        ReflectionTestUtils.setField(router, "accountService", client(accountRest));
+        ReflectionTestUtils.setField(router, "walletsService", client(walletRest));
+        ReflectionTestUtils.setField(router, "stockLeases", stockLeases);
+        ReflectionTestUtils.setField(router, "prodDb", prodDb);
+
+        UserMailboxes mailboxes = mock(UserMailboxes.class);
+        when(mailboxes.callExclusive(any(), any())).thenAnswer(call -> {
+            mailboxesHeld = true;
+            try {
+                return ((Supplier<?>) call.getArgument(1)).get();
+            } finally {
+                mailboxesHeld = false;
+            }
+        });
+        ReflectionTestUtils.setField(router, "userMailboxes", mailboxes);
+        ReflectionTestUtils.setField(router, "transactionTemplate", new TransactionTemplate(transactionManager));
+        OrdersDb ordersDb = mock(OrdersDb.class);
+        when(ordersDb.saveAll(any())).thenAnswer(call -> call.getArgument(0));
+        ReflectionTestUtils.setField(router, "ordersDb", ordersDb);
+
+        when(prodDb.findAllById(any())).thenReturn(List.of(product(1, 100), product(2, 50)));
+        when(stockLeases.sellableStock(anyInt(), anyInt())).thenAnswer(call -> call.getArgument(1));
+        when(stockLeases.reserve(anyInt(), anyInt())).thenAnswer(call -> mock(StockReservation.class));
+
+        when(accountRest.getForObject(startsWith(ACCOUNTS + "/users?ids="), eq(Customer[].class)))
+                .thenReturn(new Customer[]{customer(1)});
+        when(walletRest.getForObject(startsWith(WALLETS + "/wallets?ids="), eq(UsrWallet[].class)))
+                .thenReturn(new UsrWallet[]{wallet(1, 1000)});
+        when(walletRest.postForObject(endsWith("/holds"), any(), eq(WalletHold.class))).thenAnswer(call -> {
+            String url = call.getArgument(0);
+            Integer userId = Integer.valueOf(url.substring((WALLETS + "/wallets/").length(), url.lastIndexOf('/')));
+            heldAmounts.put(userId, ((WalletHoldRequest) ((HttpEntity<?>) call.getArgument(1)).getBody()).amount);
+            WalletHold hold = new WalletHold();
+            hold.setHold_id(70L + userId);
+            hold.setStatus("HELD");
+            return hold;
+        });
+    }
+
+    @Test
+    void firstOrderGetsTheDiscount() {
+        List<BatchOrderResult> results = takeOrders(order(1, 1), order(1, 2));
+
+        assertEquals(201, results.get(0).getStatus());
+        assertEquals(90, results.get(0).getOrder().getTotal_price());
+        assertEquals(201, results.get(1).getStatus());
+        assertEquals(50, results.get(1).getOrder().getTotal_price());
+        assertEquals(Map.of(1, 140), heldAmounts);
+        verify(accountRest).put(eq(ACCOUNTS + "/users/1"), any(HttpEntity.class));
+    }
+
+    @Test
+    void discountIsKeptWhenDiscountedOrderLosesItsStock() {
+        // Stock of product 1 was sold elsewhere between the read and the reservation
+        when(stockLeases.reserve(eq(1), anyInt())).thenReturn(null);
+
+        List<BatchOrderResult> results = takeOrders(order(1, 1), order(1, 2));
+
+        assertEquals(400, results.get(0).getStatus());
+        assertEquals("Stock insufficient for product 1", results.get(0).getError());
+        assertEquals(201, results.get(1).getStatus());
+        assertEquals(50, results.get(1).getOrder().getTotal_price());
+        assertEquals(Map.of(1, 50), heldAmounts);
+        verify(accountRest, never()).put(anyString(), any());
+    }
+
+    @Test
+    void discountIsKeptWhenPaymentFails() {
+        when(walletRest.postForObject(endsWith("/holds"), any(), eq(WalletHold.class)))
+                .thenThrow(new IllegalStateException("wallet service down"));
+
+        List<BatchOrderResult> results = takeOrders(order(1, 1), order(1, 2));
+
+        results.forEach(result -> assertEquals("Failed to process payment", result.getError()));
+        verify(accountRest, never()).put(anyString(), any());
+    }
+
+    @Test
+    void orderWithoutStockIsRejectedBeforeTheDiscountIsGiven() {
+        when(prodDb.findAllById(any())).thenReturn(List.of(product(1, 100), product(2, 50, 0)));
+
+        List<BatchOrderResult> results = takeOrders(order(1, 2), order(1, 1));
+
+        assertEquals("Product not found or stock insufficient", results.get(0).getError());
+        assertEquals(90, results.get(1).getOrder().getTotal_price());
+        assertEquals(Map.of(1, 90), heldAmounts);
+        verify(accountRest).put(eq(ACCOUNTS + "/users/1"), any(HttpEntity.class));
+    }
+
+    @Test
+    void transactionIsOpenedOnlyOnceTheMailboxesAreHeld() {
+        when(transactionManager.getTransaction(any())).thenAnswer(call -> {
+            assertTrue(mailboxesHeld, "transaction opened before the mailboxes were held");
+            return null;
+        });
+
+        takeOrders(order(1, 1));
+
+        verify(transactionManager).getTransaction(any());
+        verify(transactionManager).commit(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BatchOrderResult> takeOrders(ProdPOSTRequest... requests) {
+        return (List<BatchOrderResult>) router.takeOrders(List.of(requests)).getBody();
+    }
+
+    // Service client that runs every call straight on the given RestTemplate
+    @SuppressWarnings("unchecked")
+    private static ServiceClient client(RestTemplate rest) {
+        ServiceClient client = mock(ServiceClient.class);
+        when(client.call(any())).thenAnswer(call -> ((Function<RestTemplate, ?>) call.getArgument(0)).apply(rest));
+        when(client.callIdempotent(any()))
+                .thenAnswer(call -> ((Function<RestTemplate, ?>) call.getArgument(0)).apply(rest));
+        return client;
+    }
+
+    private static ProdPOSTRequest order(Integer userId, Integer productId) {
+        ItemFormat item = new ItemFormat();
+        item.setProduct_id(productId);
+        item.setQuantity(1);
+        ProdPOSTRequest request = new ProdPOSTRequest();
+        request.setUser_id(userId);
+        request.setItems(new ArrayList<>(List.of(item)));
+        return request;
+    }
+
+    private static Product product(int id, int price) {
+        return product(id, price, 10);
+    }
+
+    private static Product product(int id, int price, int stock) {
+        return new Product(id, "Item " + id, "", price, stock);
+    }
+
+    private static Customer customer(Integer id) {
+        Customer customer = new Customer();
+        customer.setId(id);
+        customer.setDiscount_availed(false);
+        return customer;
+    }
+
+    private static UsrWallet wallet(Integer userId, int balance) {
+        UsrWallet wallet = new UsrWallet();
+        wallet.setUserid(userId);
+        wallet.setBalance(balance);
+        return wallet;
+    }
+}
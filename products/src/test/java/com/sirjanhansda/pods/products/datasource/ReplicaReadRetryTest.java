@@ -0,0 +1,156 @@
+package com.sirjanhansda.pods.products.datasource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routing test on two in-memory databases holding different values of one row, so every read tells which of
+ * them it came from.
+ */
+@SpringJUnitConfig(ReplicaReadRetryTest.Config.class)
+@TestPropertySource(properties = {
+        "spring.datasource.replica.url=jdbc:h2:mem:replica-retry-replica;DB_CLOSE_DELAY=-1",
+        // Heartbeats are checked by the test, not the scheduler
+        "replica.heartbeat-interval-ms=3600000"
+})
+class ReplicaReadRetryTest {
+
+    @Autowired
+    private Reader reader;
+
+    @Autowired
+    private ReplicaLagMonitor lagMonitor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replicaDataSource;
+
+    @BeforeEach
+    void populate() {
+        new JdbcTemplate(primaryDataSource).execute("CREATE TABLE IF NOT EXISTS ITEM (ID INT PRIMARY KEY, SOURCE VARCHAR(16))");
+        new JdbcTemplate(primaryDataSource).execute("MERGE INTO ITEM KEY(ID) VALUES (1, 'primary')");
+
+        // As left by a completed sync
+        JdbcTemplate replica = new JdbcTemplate(replicaDataSource);
+        replica.execute("CREATE TABLE IF NOT EXISTS ITEM (ID INT PRIMARY KEY, SOURCE VARCHAR(16))");
+        replica.execute("MERGE INTO ITEM KEY(ID) VALUES (1, 'replica')");
+        replica.execute("CREATE TABLE IF NOT EXISTS REPLICA_HEARTBEAT (ID INT PRIMARY KEY, BEAT_AT BIGINT NOT NULL)");
+        replica.update("MERGE INTO REPLICA_HEARTBEAT KEY(ID) VALUES (1, ?)", System.currentTimeMillis());
+        replica.execute("CREATE TABLE IF NOT EXISTS REPLICA_READY (ID INT PRIMARY KEY)");
+        lagMonitor.heartbeat();
+    }
+
+    @Test
+    void readOnlyTransactionReadsReplica() {
+        assertTrue(lagMonitor.isReplicaUsable());
+        assertEquals("replica", reader.source());
+        assertEquals("primary", reader.sourceForUpdate());
+    }
+
+    @Test
+    void failedReplicaReadIsRetriedOnPrimary() {
+        // As during a reload: the table is gone for a moment
+        new JdbcTemplate(replicaDataSource).execute("DROP TABLE ITEM");
+
+        assertEquals("primary", reader.source());
+        assertFalse(lagMonitor.isReplicaUsable());
+        assertEquals(1, meterRegistry.counter("replica.read.retries", "method", "Reader.source()").count());
+    }
+
+    @Test
+    void replicaWithoutReadyMarkerIsNotUsed() {
+        new JdbcTemplate(replicaDataSource).execute("DROP TABLE REPLICA_READY");
+        lagMonitor.heartbeat();
+
+        assertFalse(lagMonitor.isReplicaUsable());
+        assertEquals("primary", reader.source());
+    }
+
+    @Test
+    void pinnedThreadReadsPrimary() {
+        PrimaryReads.pin();
+        try {
+            assertEquals("primary", reader.source());
+        } finally {
+            PrimaryReads.release();
+        }
+        assertEquals("replica", reader.source());
+    }
+
+    static class Reader {
+
+        @Autowired
+        private JdbcTemplate jdbcTemplate;
+
+        @Transactional(readOnly = true)
+        public String source() {
+            return jdbcTemplate.queryForObject("SELECT SOURCE FROM ITEM WHERE ID = 1", String.class);
+        }
+
+        @Transactional
+        public String sourceForUpdate() {
+            return jdbcTemplate.queryForObject("SELECT SOURCE FROM ITEM WHERE ID = 1", String.class);
+        }
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    @EnableAspectJAutoProxy
+    @Import({ReplicaDataSourceConfig.class, ReplicaLagMonitor.class, ReplicaReadRetryAspect.class})
+    static class Config {
+
+        @Bean
+        DataSourceProperties dataSourceProperties() {
+            DataSourceProperties properties = new DataSourceProperties();
+            properties.setUrl("jdbc:h2:mem:replica-retry-primary;DB_CLOSE_DELAY=-1");
+            return properties;
+        }
+
+        @Bean
+        JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        Reader reader() {
+            return new Reader();
+        }
+    }
+}
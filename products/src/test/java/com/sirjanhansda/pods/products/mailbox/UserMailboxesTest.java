@@ -0,0 +1,152 @@
+package com.sirjanhansda.pods.products.mailbox;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mailbox test: per-user limits count the running task, a user's tasks never overlap, and different users
+ * run in parallel.
+ */
+class UserMailboxesTest {
+
+    private UserMailboxes mailboxes;
+
+    @BeforeEach
+    void createMailboxes() {
+        mailboxes = new UserMailboxes();
+        ReflectionTestUtils.setField(mailboxes, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(mailboxes, "capacity", 16);
+    }
+
+    @AfterEach
+    void shutdown() {
+        mailboxes.shutdown();
+    }
+
+    @Test
+    void maxPendingCountsTheRunningTask() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> mailboxes.call(1, 2, () -> {
+            running.countDown();
+            await(release);
+            return 1;
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync(() -> mailboxes.call(1, 2, () -> 2));
+        waitFor(() -> mailboxes.pending(1) == 2);
+
+        // One running and one queued: a third is refused
+        assertThrows(MailboxFullException.class, () -> mailboxes.call(1, 2, () -> 3));
+
+        release.countDown();
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        assertEquals(2, second.get(5, TimeUnit.SECONDS));
+        waitFor(() -> mailboxes.pending(1) == 0);
+        assertEquals(4, mailboxes.call(1, 2, () -> 4));
+    }
+
+    @Test
+    void tasksOfOneUserRunOneAtATime() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<CompletableFuture<Integer>> calls = IntStream.range(0, 12)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> mailboxes.call(7, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(5);
+                    running.decrementAndGet();
+                    return i;
+                })))
+                .toList();
+        calls.forEach(CompletableFuture::join);
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void differentUsersRunInParallel() throws Exception {
+        // Only completes if both tasks are running at the same time
+        CyclicBarrier bothRunning = new CyclicBarrier(2);
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> mailboxes.call(1, () -> {
+            await(bothRunning);
+            return 1;
+        }));
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync(() -> mailboxes.call(2, () -> {
+            await(bothRunning);
+            return 2;
+        }));
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        assertEquals(2, second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void exclusiveCallHoldsTheMailboxesOfItsUsers() throws Exception {
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> exclusive = CompletableFuture.runAsync(() -> mailboxes.callExclusive(List.of(3, 4), () -> {
+            inside.countDown();
+            await(release);
+            return null;
+        }));
+        assertTrue(inside.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(() -> mailboxes.call(4, () -> 4));
+        Thread.sleep(50);
+        assertFalse(queued.isDone());
+
+        release.countDown();
+        exclusive.get(5, TimeUnit.SECONDS);
+        assertEquals(4, queued.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
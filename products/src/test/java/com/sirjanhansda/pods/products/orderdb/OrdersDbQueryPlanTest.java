@@ -0,0 +1,107 @@
+package com.sirjanhansda.pods.products.orderdb;
+
+import com.sirjanhansda.pods.products.model.OrderItem;
+import com.sirjanhansda.pods.products.model.OrderStatus;
+import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.proddb.ProdDb;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Query-plan regression test: runs EXPLAIN on the SQL generated for the OrdersDb and ProdDb
+ * lookups against embedded H2 and fails if any of them falls back to a full table scan.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.sirjanhansda.pods.products.orderdb.RecordingStatementInspector")
+class OrdersDbQueryPlanTest {
+
+    @Autowired
+    private OrdersDb ordersDb;
+
+    @Autowired
+    private ProdDb prodDb;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void populate() {
+        // Enough rows that the optimizer's choice reflects the indexes, not an empty table
+        OrderStatus[] statuses = OrderStatus.values();
+        for (int i = 0; i < 300; i++) {
+            Orders order = new Orders();
+            order.setUser_id(i % 50);
+            order.setTotal_price(100);
+            order.setStatus(statuses[i % statuses.length]);
+
+            OrderItem item = new OrderItem();
+            item.setProduct_id(101);
+            item.setQuantity(1);
+            item.setOrder(order);
+            order.setItems(List.of(item));
+
+            ordersDb.save(order);
+        }
+        ordersDb.flush();
+    }
+
+    @Test
+    void findOrdersByUserIdUsesIndex() {
+        assertNoTableScan(() -> ordersDb.findOrdersByUser_id(7));
+    }
+
+    @Test
+    void findOrdersByStatusUsesIndex() {
+        assertNoTableScan(() -> ordersDb.findOrdersByStatus(OrderStatus.PLACED));
+    }
+
+    @Test
+    void findOrdersByOrderIdUsesPrimaryKey() {
+        assertNoTableScan(() -> ordersDb.findOrdersByOrder_id(1));
+    }
+
+    @Test
+    void findOrderRowsByUserIdUsesIndex() {
+        assertNoTableScan(() -> ordersDb.findOrderRowsByUser_id(7));
+    }
+
+    @Test
+    void findOrderRowsByOrderIdUsesPrimaryKey() {
+        assertNoTableScan(() -> ordersDb.findOrderRowsByOrder_id(1));
+    }
+
+    @Test
+    void findProductViewByIdUsesPrimaryKey() {
+        assertNoTableScan(() -> prodDb.findProductViewById(101));
+    }
+
+    @Test
+    void findProductByIdUsesPrimaryKey() {
+        assertNoTableScan(() -> prodDb.findProductById(101));
+    }
+
+    /**
+     * Runs the repository call, then EXPLAINs every SELECT it issued.
+     */
+    private void assertNoTableScan(Runnable repositoryCall) {
+        RecordingStatementInspector.clear();
+        repositoryCall.run();
+
+        List<String> selects = RecordingStatementInspector.statements().stream()
+                .filter(sql -> sql.trim().toLowerCase().startsWith("select"))
+                .toList();
+        assertFalse(selects.isEmpty(), "Repository call issued no SELECT");
+
+        for (String sql : selects) {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class);
+            assertFalse(plan.contains("tableScan"), "Full table scan in plan:\n" + plan);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.sirjanhansda.pods.products.orderdb;
+
+import com.sirjanhansda.pods.products.model.OrderItem;
+import com.sirjanhansda.pods.products.model.OrderStatus;
+import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.readmodel.OrderReadModel;
+import com.sirjanhansda.pods.products.readmodel.OrderView;
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Fetch-plan regression test: counts the SQL statements issued for the order reads behind each
+ * orders endpoint, so that a change to the fetch plans that brings back one items query per order fails here.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.sirjanhansda.pods.products.orderdb.RecordingStatementInspector")
+@Import({OrderReadModel.class, OrderStatusService.class})
+class OrdersFetchPlanTest {
+
+    private static final int USERS = 5;
+    private static final int ORDERS = 40;
+
+    @Autowired
+    private OrdersDb ordersDb;
+
+    @Autowired
+    private OrderReadModel orderReadModel;
+
+    @Autowired
+    private OrderStatusService orderStatusService;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private Integer firstOrderId;
+
+    @BeforeEach
+    void populate() {
+        for (int i = 0; i < ORDERS; i++) {
+            Orders order = new Orders();
+            order.setUser_id(i % USERS);
+            order.setTotal_price(100);
+            order.setStatus(OrderStatus.PLACED);
+
+            List<OrderItem> items = new ArrayList<>();
+            for (int product = 101; product <= 102; product++) {
+                OrderItem item = new OrderItem();
+                item.setProduct_id(product);
+                item.setQuantity(1);
+                item.setOrder(order);
+                items.add(item);
+            }
+            order.setItems(items);
+
+            ordersDb.save(order);
+            if (firstOrderId == null) {
+                firstOrderId = order.getOrder_id();
+            }
+        }
+        // Start every test from an empty persistence context, as a request does
+        entityManager.flush();
+        entityManager.clear();
+        RecordingStatementInspector.clear();
+    }
+
+    @Test
+    void getOrderIssuesOneQuery() {
+        Optional<OrderView> order = orderReadModel.order(firstOrderId);
+
+        assertEquals(2, order.orElseThrow().items().size());
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void getOrdersOfUserIssuesOneQuery() {
+        List<OrderView> orders = orderReadModel.ordersOfUser(0);
+
+        assertEquals(ORDERS / USERS, orders.size());
+        orders.forEach(order -> assertEquals(2, order.items().size()));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void getAllOrdersIssuesOneQuery() {
+        List<OrderView> orders = orderReadModel.allOrders();
+
+        assertEquals(ORDERS, orders.size());
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void cancelOrderLoadsOrderWithItemsInOneQuery() {
+        Optional<Orders> cancelled = orderStatusService.updatePlacedOrder(firstOrderId, OrderStatus.CANCELLED);
+
+        assertEquals(2, cancelled.orElseThrow().getItems().size());
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void deliverOrderDoesNotLoadItems() {
+        Optional<Orders> delivered = orderStatusService.updatePlacedOrder(firstOrderId, OrderStatus.DELIVERED);
+
+        assertFalse(Hibernate.isInitialized(delivered.orElseThrow().getItems()));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void cancelUserOrdersListsOrdersWithoutItems() {
+        List<Orders> orders = ordersDb.findOrdersByUser_id(0);
+
+        assertEquals(ORDERS / USERS, orders.size());
+        assertEquals(1, statements());
+
+        // Items touched on any of them come for all of them with one subselect
+        orders.forEach(order -> assertEquals(2, order.getItems().size()));
+        assertEquals(2, statements());
+    }
+
+    @Test
+    void deleteAllOrdersFindsUsersWithOneQuery() {
+        Set<Integer> userIds = new LinkedHashSet<>();
+        for (Orders order : ordersDb.findOrdersByStatus(OrderStatus.PLACED)) {
+            userIds.add(order.getUser_id());
+        }
+
+        assertEquals(USERS, userIds.size());
+        assertEquals(1, statements());
+    }
+
+    private long statements() {
+        return RecordingStatementInspector.statements().size();
+    }
+}
@@ -0,0 +1,209 @@
+package com.sirjanhansda.pods.products.stock;
+
+import com.sirjanhansda.pods.products.conditional.ResourceVersions;
+import com.sirjanhansda.pods.products.model.OrderItem;
+import com.sirjanhansda.pods.products.model.OrderStatus;
+import com.sirjanhansda.pods.products.model.Orders;
+import com.sirjanhansda.pods.products.model.Product;
+import com.sirjanhansda.pods.products.orderdb.OrdersDb;
+import com.sirjanhansda.pods.products.proddb.ProdDb;
+import com.sirjanhansda.pods.products.proddb.ProductStockService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lease bookkeeping test against embedded H2: reservations that roll back give their lease stock back, a top-up
+ * of a lease another replica has already settled leaves the stock in the product row, and settling returns
+ * exactly what was granted minus what order items recorded, so row stock plus leasedRemaining stays the
+ * product's stock minus what was sold.
+ */
+@DataJpaTest(properties = {
+        "stock.lease.enabled=true",
+        "stock.lease.chunk-size=10"
+})
+@Import({StockLeaseManager.class, ResourceVersions.class, ProductStockService.class})
+// Each step commits on its own, as it does in the service
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockLeaseManagerTest {
+
+    private static final int PRODUCT = 101;
+
+    @Autowired
+    private StockLeaseManager stockLeaseManager;
+
+    @Autowired
+    private ProductStockService productStockService;
+
+    @Autowired
+    private ProdDb prodDb;
+
+    @Autowired
+    private OrdersDb ordersDb;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void product() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        leases().clear();
+        ordersDb.deleteAll();
+        jdbcTemplate.update("DELETE FROM STOCK_LEASE");
+        prodDb.deleteAll();
+        prodDb.save(Product.builder().id(PRODUCT).name("Hot product").description("").price(10).stock_quantity(100).build());
+    }
+
+    @Test
+    void rolledBackReservationGivesLeaseStockBack() {
+        StockLease lease = openLease();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            StockReservation reservation = stockLeaseManager.reserve(PRODUCT, 4);
+            assertEquals(lease.leaseId, reservation.getLeaseId());
+            assertEquals(6, lease.available());
+            status.setRollbackOnly();
+        });
+
+        assertEquals(10, lease.available());
+        assertEquals(90, rowStock());
+        // The rolled-back reservation is no longer in flight
+        assertTrue(lease.close());
+    }
+
+    @Test
+    void committedReservationKeepsLeaseStock() {
+        StockLease lease = openLease();
+
+        placeOrder(4);
+
+        assertEquals(6, lease.available());
+        assertTrue(lease.close());
+    }
+
+    @Test
+    void topUpOfLeaseSettledElsewhereLeavesStockInRow() {
+        StockLease lease = openLease();
+        placeOrder(8);
+
+        // Another replica found the lease expired and settled it
+        settle(lease, true);
+        assertEquals(92, rowStock());
+
+        ReflectionTestUtils.invokeMethod(stockLeaseManager, "topUp", lease);
+
+        assertEquals(92, rowStock());
+        assertTrue(lease.isClosed());
+        assertEquals(0, lease.available());
+        assertEquals(0, stockLeaseManager.leasedRemaining(PRODUCT));
+    }
+
+    @Test
+    void settleReturnsGrantedMinusSold() {
+        StockLease lease = openLease();
+        placeOrder(3);
+        Orders cancelled = placeOrder(2);
+
+        // Cancelling puts the item's quantity straight back into the row, so the lease counts it as sold
+        cancelled.setStatus(OrderStatus.CANCELLED);
+        ordersDb.save(cancelled);
+        productStockService.restoreStock(cancelled.getItems());
+        assertEquals(92, rowStock());
+        assertEquals(5, stockLeaseManager.leasedRemaining(PRODUCT));
+
+        assertTrue(lease.close());
+        settle(lease, false);
+
+        // 10 granted, 5 recorded by order items: 5 returned
+        assertEquals(97, rowStock());
+        assertEquals(0, stockLeaseManager.leasedRemaining(PRODUCT));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM STOCK_LEASE", Integer.class));
+    }
+
+    @Test
+    void leasedRemainingAgreesWithRowStock() {
+        StockLease lease = openLease();
+        assertEquals(100, rowStock() + stockLeaseManager.leasedRemaining(PRODUCT));
+        assertEquals(Map.of(PRODUCT, 10), stockLeaseManager.leasedRemaining());
+
+        placeOrder(8);
+        assertEquals(92, rowStock() + stockLeaseManager.leasedRemaining(PRODUCT));
+
+        ReflectionTestUtils.invokeMethod(stockLeaseManager, "topUp", lease);
+        assertEquals(12, lease.available());
+        assertEquals(80, rowStock());
+        assertEquals(92, rowStock() + stockLeaseManager.leasedRemaining(PRODUCT));
+
+        assertTrue(lease.close());
+        settle(lease, false);
+        assertEquals(92, rowStock());
+        assertEquals(0, stockLeaseManager.leasedRemaining(PRODUCT));
+    }
+
+    private StockLease openLease() {
+        ReflectionTestUtils.invokeMethod(stockLeaseManager, "openLease", PRODUCT);
+        StockLease lease = leases().get(PRODUCT);
+        assertNotNull(lease);
+        assertEquals(10, lease.available());
+        assertEquals(90, rowStock());
+        // Win the refill flag so reservations do not schedule top-ups; the tests run them where they need one
+        assertTrue(lease.requestRefill());
+        return lease;
+    }
+
+    // Places and commits an order of the hot product, sold from the lease
+    private Orders placeOrder(int quantity) {
+        return transactionTemplate.execute(status -> {
+            StockReservation reservation = stockLeaseManager.reserve(PRODUCT, quantity);
+            assertNotNull(reservation.getLeaseId());
+
+            Orders order = new Orders();
+            order.setUser_id(1);
+            order.setTotal_price(10 * quantity);
+            order.setStatus(OrderStatus.PLACED);
+
+            OrderItem item = new OrderItem();
+            item.setProduct_id(PRODUCT);
+            item.setQuantity(quantity);
+            item.setStock_lease_id(reservation.getLeaseId());
+            item.setOrder(order);
+            order.setItems(List.of(item));
+
+            return ordersDb.save(order);
+        });
+    }
+
+    private void settle(StockLease lease, boolean byOtherReplica) {
+        if (byOtherReplica) {
+            jdbcTemplate.update("UPDATE STOCK_LEASE SET EXPIRES_AT = 0 WHERE LEASE_ID = ?", lease.leaseId);
+        }
+        ReflectionTestUtils.invokeMethod(stockLeaseManager, "settle", lease.leaseId, lease.productId, byOtherReplica);
+    }
+
+    private int rowStock() {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM Product WHERE id = ?", Integer.class, PRODUCT);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, StockLease> leases() {
+        return (Map<Integer, StockLease>) ReflectionTestUtils.getField(stockLeaseManager, "leases");
+    }
+}
@@ -0,0 +1,73 @@
+package com.sirjanhansda.pods.products.stock;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lease counter test: a reservation stays in flight from tryTake until finish, so a lease is only reported
+ * ready to settle once every reservation taken before it was closed has finished.
+ */
+class StockLeaseTest {
+
+    @Test
+    void reservationIsInFlightUntilFinished() {
+        StockLease lease = openLease(10);
+
+        assertTrue(lease.tryTake(3));
+        assertFalse(lease.close());
+        assertTrue(lease.isClosed());
+
+        lease.finish();
+        assertTrue(lease.close());
+    }
+
+    @Test
+    void closedLeaseRefusesNewReservations() {
+        StockLease lease = openLease(10);
+        assertTrue(lease.close());
+
+        assertFalse(lease.tryTake(1));
+        assertEquals(0, lease.available());
+        // The refused reservation is not left in flight
+        assertTrue(lease.close());
+    }
+
+    @Test
+    void refusedReservationIsNotInFlight() {
+        StockLease lease = openLease(10);
+
+        assertFalse(lease.tryTake(11));
+
+        assertEquals(10, lease.available());
+        assertTrue(lease.close());
+    }
+
+    @Test
+    void leasePastItsDeadlineRefusesUntilExtended() {
+        StockLease lease = new StockLease(1, 101, 10, System.currentTimeMillis() - 1);
+
+        assertFalse(lease.tryTake(1));
+
+        lease.extendValidity(System.currentTimeMillis() + 60_000);
+        assertTrue(lease.tryTake(1));
+        assertEquals(9, lease.available());
+    }
+
+    @Test
+    void givenBackStockCanBeTakenAgain() {
+        StockLease lease = openLease(10);
+
+        assertTrue(lease.tryTake(10));
+        assertFalse(lease.tryTake(1));
+        lease.giveBack(4);
+        lease.finish();
+
+        assertTrue(lease.tryTake(4));
+        assertEquals(0, lease.available());
+    }
+
+    private static StockLease openLease(int granted) {
+        return new StockLease(1, 101, granted, System.currentTimeMillis() + 60_000);
+    }
+}
@@ -14,7 +14,8 @@ kubectl apply -f ./wallets/wallet-deployment.yaml \
               -f ./user/user-deployment.yaml \
               -f ./products/products-deployment.yaml \
               -f ./h2_database/h2db-deployment.yaml \
-              -f ./h2_database/h2db-service.yaml
+              -f ./h2_database/h2db-service.yaml \
+              -f ./h2_database/h2db-replica.yaml
 
 # Restart all deployments
 # kubectl rollout restart deployment
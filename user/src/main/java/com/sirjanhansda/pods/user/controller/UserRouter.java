@@ -1,20 +1,35 @@
 package com.sirjanhansda.pods.user.controller;
 
+import com.sirjanhansda.pods.user.deadline.Deadline;
+import com.sirjanhansda.pods.user.deadline.DeadlineRequestFactory;
 import com.sirjanhansda.pods.user.model.Customer;
+import com.sirjanhansda.pods.user.readmodel.CustomerView;
+import com.sirjanhansda.pods.user.singleflight.SingleFlight;
 import com.sirjanhansda.pods.user.userdb.UserDb;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * REST Controller for managing user operations in the PODS system.
  * Provides endpoints for CRUD operations on customer data and manages
  * interactions with marketplace and wallet services.
+ * The GET endpoints read CustomerView rows rather than managed Customer entities.
  */
 @RestController
 @RequestMapping("/users")
@@ -23,6 +38,12 @@ public class UserRouter {
     @Autowired
     private UserDb userDb;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Concurrent GET /users/{id} for the same id share one query; writes below make later reads start afresh
+    private SingleFlight<Integer, List<CustomerView>> userLookups;
+
     // Service endpoint configurations
     @Value("${service.marketplace.address}")
     private String marketplaceAddress;
@@ -30,8 +51,17 @@ public class UserRouter {
     @Value("${service.wallets.address}")
     private String walletAddress;
 
-    // RestTemplate for making HTTP requests to other services
-    final RestTemplate restTemplate = new RestTemplate();
+    // Upper bound on the number of ids in one GET /users?ids= request
+    @Value("${user.multi-get.max-ids:100}")
+    private int maxIdsPerLookup;
+
+    // RestTemplate for making HTTP requests to other services; calls forward the request's deadline
+    final RestTemplate restTemplate = new RestTemplate(new DeadlineRequestFactory());
+
+    @PostConstruct
+    void createUserLookups() {
+        userLookups = new SingleFlight<>("user-by-id", meterRegistry);
+    }
 
     /**
      * Creates a new user in the system.
@@ -41,24 +71,22 @@ public class UserRouter {
      */
     @PostMapping
     public ResponseEntity<?> addUser(@RequestBody final CustomerPOST customer) {
-        String custEmail = customer.getEmail();
-
-        // Check for existing user with same email
-        List<Customer> existingCustomer = userDb.findCustomerByEmail(custEmail);
-
-        if (existingCustomer.isEmpty()) {
-            // Create new customer object and set initial values
-            Customer newCustomer = new Customer();
-            newCustomer.setId(customer.getId());
-            newCustomer.setEmail(customer.getEmail());
-            newCustomer.setName(customer.getName());
-            newCustomer.setDiscount_availed(false);
-            userDb.save(newCustomer);
-            return ResponseEntity.status(HttpStatus.CREATED).body(newCustomer);
-        } else {
-            // Return 400 Bad Request if email already exists
+        try {
+            // The unique index on email rejects duplicates, so no lookup is needed first
+            userDb.insertCustomer(customer.getId(), customer.getName(), customer.getEmail());
+            userLookups.forget(customer.getId());
+        } catch (DataIntegrityViolationException e) {
+            // Return 400 Bad Request if the email (or id) already exists
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
         }
+
+        // Build the response from the inserted values
+        Customer newCustomer = new Customer();
+        newCustomer.setId(customer.getId());
+        newCustomer.setEmail(customer.getEmail());
+        newCustomer.setName(customer.getName());
+        newCustomer.setDiscount_availed(false);
+        return ResponseEntity.status(HttpStatus.CREATED).body(newCustomer);
     }
 
     /**
@@ -67,9 +95,10 @@ public class UserRouter {
      * @param usrid User ID to lookup
      * @return ResponseEntity containing user data or 404 if not found
      */
+    @Transactional(readOnly = true)
     @GetMapping("/{usrid}")
     public ResponseEntity<?> getUser(@PathVariable final Integer usrid) {
-        List<Customer> customerLists = userDb.findCustomerById(usrid);
+        List<CustomerView> customerLists = userLookups.load(usrid, () -> userDb.findCustomerViewsById(usrid));
 
         if (customerLists.isEmpty()) {
             return ResponseEntity.notFound().build();
@@ -78,6 +107,38 @@ public class UserRouter {
         return ResponseEntity.ok(customerLists.get(0));
     }
 
+    /**
+     * Retrieves several users with a single query, e.g. GET /users?ids=3,1,2.
+     *
+     * @param ids User IDs to lookup, at most user.multi-get.max-ids distinct ones
+     * @return ResponseEntity containing the users that exist, in the order their ids were first given;
+     *         unknown ids are left out
+     */
+    @Transactional(readOnly = true)
+    @GetMapping(params = "ids")
+    public ResponseEntity<?> getUsers(@RequestParam("ids") final List<Integer> ids) {
+        Set<Integer> uniqueIds = new LinkedHashSet<>(ids);
+        uniqueIds.remove(null);
+        if (uniqueIds.isEmpty()) {
+            return ResponseEntity.badRequest().body("No user ids given");
+        }
+        if (uniqueIds.size() > maxIdsPerLookup) {
+            return ResponseEntity.badRequest().body("At most " + maxIdsPerLookup + " user ids can be looked up at once");
+        }
+
+        // One IN-list query for all of them
+        Map<Integer, CustomerView> customers = userDb.findCustomerViewsByIdIn(uniqueIds).stream()
+                .collect(Collectors.toMap(CustomerView::id, Function.identity()));
+
+        List<CustomerView> found = new ArrayList<>();
+        for (Integer id : uniqueIds) {
+            if (customers.containsKey(id)) {
+                found.add(customers.get(id));
+            }
+        }
+        return ResponseEntity.ok(found);
+    }
+
     /**
      * Updates the discount status for a specific user.
      *
@@ -103,6 +164,8 @@ public class UserRouter {
                 userDb.save(customer);
             } catch (Exception e) {
                 return ResponseEntity.internalServerError().body(e.getMessage());
+            } finally {
+                userLookups.forget(usrid);
             }
 
             return ResponseEntity.ok().build();
@@ -141,6 +204,8 @@ public class UserRouter {
             }
             catch (Exception e)
             {
+                // If the deadline cut the call short, the user is kept as well, as nobody waits for the answer
+                Deadline.check("deleting the user");
                 System.out.println("[WARN] Failed to delete customer wallet");
             }
 
@@ -149,6 +214,8 @@ public class UserRouter {
                 userDb.delete(customer);
             } catch (Exception e) {
                 return ResponseEntity.internalServerError().body(e.getMessage());
+            } finally {
+                userLookups.forget(usrid);
             }
 
             return ResponseEntity.ok().build();
@@ -183,6 +250,8 @@ public class UserRouter {
             userDb.deleteAll();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(e.getMessage());
+        } finally {
+            userLookups.forgetAll();
         }
 
         return ResponseEntity.ok().build();
@@ -0,0 +1,11 @@
+package com.sirjanhansda.pods.user.deadline;
+
+/**
+ * Thrown instead of starting (or waiting for) work whose deadline has passed.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -2,13 +2,17 @@ package com.sirjanhansda.pods.user.model; // Defines the package for this entity
 
 import jakarta.persistence.Entity;        // Marks this class as a JPA entity (table in the database)
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.Data;  // Lombok annotation to generate boilerplate code like toString, equals, hashCode
 
 
 /**
  * Represents a Customer entity in the database.
+ * Email addresses are unique, enforced by a unique index rather than a lookup before insert.
  */
 @Entity  // Marks this class as a JPA entity, meaning it corresponds to a database table
+@Table(indexes = @Index(name = "uk_customer_email", columnList = "email", unique = true))
 @Data    // Lombok annotation that includes @Getter, @Setter, @ToString, @EqualsAndHashCode
 public class Customer {
 
@@ -0,0 +1,8 @@
+package com.sirjanhansda.pods.user.readmodel;
+
+/**
+ * Read model of a customer for the GET endpoints, filled straight from the query result (see UserDb),
+ * so no managed entity is created. Serializes like Customer.
+ */
+public record CustomerView(Integer id, String name, String email, Boolean discount_availed) {
+}
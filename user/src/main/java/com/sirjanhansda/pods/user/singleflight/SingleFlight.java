@@ -0,0 +1,94 @@
+package com.sirjanhansda.pods.user.singleflight;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent lookups of the same key: the first caller runs the lookup, callers that arrive while
+ * it is running wait for it and get the same result (or exception). Nothing is cached; once the lookup has
+ * finished, the next caller runs a new one.
+ *
+ * A caller that joins a running lookup may get a result read before a write that completed after the lookup
+ * started. Writers that need later readers to see their write call forget(key) once the write is visible,
+ * so those readers start a new lookup.
+ *
+ * Metrics (tagged with the name):
+ * - singleflight.calls: lookups by result, executed (ran the lookup) or shared (joined a running one)
+ * - singleflight.coalescing.ratio: share of all lookups so far that were shared
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter shared;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        executed = meterRegistry.counter("singleflight.calls", "name", name, "result", "executed");
+        shared = meterRegistry.counter("singleflight.calls", "name", name, "result", "shared");
+        meterRegistry.gauge("singleflight.coalescing.ratio", Tags.of("name", name), this, SingleFlight::coalescingRatio);
+    }
+
+    /**
+     * @return The result of the running lookup for the key, or of a new one run on this thread
+     */
+    public V load(K key, Supplier<V> lookup) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            shared.increment();
+            return await(running);
+        }
+
+        executed.increment();
+        try {
+            V result = lookup.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Stops later callers from joining the lookup running for the key, if any.
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Stops later callers from joining any running lookup.
+     */
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    private double coalescingRatio() {
+        double total = executed.count() + shared.count();
+        return total == 0 ? 0 : shared.count() / total;
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
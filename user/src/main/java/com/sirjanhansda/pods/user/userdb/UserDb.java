@@ -2,9 +2,15 @@ package com.sirjanhansda.pods.user.userdb;
 
 
 import com.sirjanhansda.pods.user.model.Customer;
+import com.sirjanhansda.pods.user.readmodel.CustomerView;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -14,4 +20,21 @@ public interface UserDb extends JpaRepository<Customer, Integer> {
     List<Customer> findCustomerByName(String name);
     List<Customer> findCustomerByEmail(String email);
 
+    // Read model for the GET endpoints: customers as plain rows, without managed entities
+    @Query("SELECT new com.sirjanhansda.pods.user.readmodel.CustomerView(c.id, c.name, c.email, c.discount_availed) "
+            + "FROM Customer c WHERE c.id = :id")
+    List<CustomerView> findCustomerViewsById(@Param("id") Integer id);
+
+    @Query("SELECT new com.sirjanhansda.pods.user.readmodel.CustomerView(c.id, c.name, c.email, c.discount_availed) "
+            + "FROM Customer c WHERE c.id IN :ids")
+    List<CustomerView> findCustomerViewsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Plain INSERT (save() would merge over an existing id); duplicate ids or emails
+    // surface as DataIntegrityViolationException from the primary key / uk_customer_email
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO customer (id, name, email, discount_availed) VALUES (:id, :name, :email, false)",
+            nativeQuery = true)
+    int insertCustomer(@Param("id") Integer id, @Param("name") String name, @Param("email") String email);
+
 }
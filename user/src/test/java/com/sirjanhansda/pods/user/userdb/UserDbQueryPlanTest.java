@@ -0,0 +1,76 @@
+package com.sirjanhansda.pods.user.userdb;
+
+import com.sirjanhansda.pods.user.model.Customer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Query-plan regression test: runs EXPLAIN on the SQL generated for the UserDb lookups
+ * against embedded H2 and fails if any of them falls back to a full table scan.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.sirjanhansda.pods.user.userdb.RecordingStatementInspector")
+class UserDbQueryPlanTest {
+
+    @Autowired
+    private UserDb userDb;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void populate() {
+        // Enough rows that the optimizer's choice reflects the indexes, not an empty table
+        for (int i = 1; i <= 200; i++) {
+            userDb.insertCustomer(i, "user" + i, "user" + i + "@mail.com");
+        }
+    }
+
+    @Test
+    void findCustomerByEmailUsesIndex() {
+        assertNoTableScan(() -> userDb.findCustomerByEmail("user42@mail.com"));
+    }
+
+    @Test
+    void findCustomerByIdUsesPrimaryKey() {
+        assertNoTableScan(() -> userDb.findCustomerById(42));
+    }
+
+    @Test
+    void findAllByIdUsesPrimaryKey() {
+        // Backs GET /users?ids=: one IN-list lookup on the primary key
+        assertNoTableScan(() -> assertEquals(3, userDb.findAllById(List.of(7, 42, 99)).size()));
+    }
+
+    @Test
+    void duplicateEmailIsRejectedByConstraint() {
+        assertThrows(DataIntegrityViolationException.class,
+                () -> userDb.insertCustomer(1000, "other", "user1@mail.com"));
+    }
+
+    /**
+     * Runs the repository call, then EXPLAINs every SELECT it issued.
+     */
+    private void assertNoTableScan(Runnable repositoryCall) {
+        RecordingStatementInspector.clear();
+        repositoryCall.run();
+
+        List<String> selects = RecordingStatementInspector.statements().stream()
+                .filter(sql -> sql.trim().toLowerCase().startsWith("select"))
+                .toList();
+        assertFalse(selects.isEmpty(), "Repository call issued no SELECT");
+
+        for (String sql : selects) {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class);
+            assertFalse(plan.contains("tableScan"), "Full table scan in plan:\n" + plan);
+        }
+    }
+}
@@ -2,8 +2,10 @@ package com.sirjanhansda.pods.wallets;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
+@EnableScheduling // Drives the expired wallet hold sweeper
 @SpringBootApplication(scanBasePackages = "com.sirjanhansda.pods.wallets")
 public class WalletsApplication {
 	public static void main(String[] args) {
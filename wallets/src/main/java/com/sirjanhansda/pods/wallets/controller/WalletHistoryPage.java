@@ -0,0 +1,18 @@
+package com.sirjanhansda.pods.wallets.controller;
+
+import com.sirjanhansda.pods.wallets.model.WalletLedgerEntry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+// One page of GET /wallets/{userId}/history; next_before_seq is null on the last page
+@Getter
+@AllArgsConstructor
+public class WalletHistoryPage {
+
+    private Integer user_id;
+    private List<WalletLedgerEntry> entries;
+    private Long next_before_seq;
+
+}
@@ -0,0 +1,9 @@
+package com.sirjanhansda.pods.wallets.controller;
+
+// The wallet hold POST Request is in this format; ttl_ms falls back to wallet.holds.default-ttl-ms
+public class WalletHoldRequest {
+
+    public Integer amount;
+    public Long ttl_ms;
+
+}
@@ -1,25 +1,75 @@
 package com.sirjanhansda.pods.wallets.controller;
 
-import com.sirjanhansda.pods.wallets.model.UsrWallet;
-import com.sirjanhansda.pods.wallets.walletdb.WalletDb;
-import jakarta.transaction.Transactional;
+import com.sirjanhansda.pods.wallets.deadline.Deadline;
+import com.sirjanhansda.pods.wallets.hold.HoldFunds;
+import com.sirjanhansda.pods.wallets.model.HoldStatus;
+import com.sirjanhansda.pods.wallets.model.WalletHold;
+import com.sirjanhansda.pods.wallets.model.WalletLedgerEntry;
+import com.sirjanhansda.pods.wallets.readmodel.WalletView;
+import com.sirjanhansda.pods.wallets.singleflight.SingleFlight;
+import com.sirjanhansda.pods.wallets.walletdb.WalletHoldDb;
+import com.sirjanhansda.pods.wallets.walletdb.WalletStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST Controller for managing digital wallet operations.
- * Provides endpoints for creating, reading, updating, and deleting wallet records.
+ * Provides endpoints for creating, reading, updating, and deleting wallet records,
+ * and for placing, reading, capturing, and releasing holds on wallet funds.
+ * Balances are read and written through the configured WalletStore engine; wallets are returned as WalletView.
  */
 @RestController
 @RequestMapping("/wallets")
 public class WalletRouter {
 
     @Autowired
-    private WalletDb walletDb;
+    private WalletHoldDb walletHoldDb;
+
+    @Autowired
+    private WalletStore walletStore;
+
+    @Autowired
+    private HoldFunds holdFunds;
+
+    // Upper bound on the page size of the wallet history endpoint
+    @Value("${wallet.history.max-page-size:500}")
+    private int maxHistoryPageSize;
+
+    // Lifetime of a hold when the request does not specify one
+    @Value("${wallet.holds.default-ttl-ms:60000}")
+    private long defaultHoldTtlMs;
+
+    // Upper bound on the number of ids in one GET /wallets?ids= request
+    @Value("${wallet.multi-get.max-ids:100}")
+    private int maxIdsPerLookup;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Concurrent GET /wallets/{id} for the same wallet share one balance read. Requests that change a balance
+    // make later reads start afresh once the change is visible; holds expired by the HoldSweeper do not.
+    private SingleFlight<Integer, Optional<Integer>> balanceLookups;
+
+    @PostConstruct
+    void createBalanceLookups() {
+        balanceLookups = new SingleFlight<>("wallet-balance", meterRegistry);
+    }
 
     /**
      * Retrieves wallet information for a specific user.
@@ -27,66 +77,212 @@ public class WalletRouter {
      * @param userId The unique identifier of the user
      * @return ResponseEntity containing wallet details or appropriate error response
      */
+    @Transactional(readOnly = true)
     @GetMapping("/{userId}")
     public ResponseEntity<?> getWallet(@PathVariable Integer userId) {
-        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
-        return userWallets.isEmpty()
+        Optional<Integer> balance = balanceLookups.load(userId, () -> walletStore.balance(userId));
+        return balance.isEmpty()
                 ? ResponseEntity.notFound().build()
-                : ResponseEntity.ok(userWallets.get(0));
+                : ResponseEntity.ok(wallet(userId, balance.get()));
+    }
+
+    /**
+     * Retrieves several wallets at once, e.g. GET /wallets?ids=3,1,2.
+     * The database-backed storage engines read all balances with a single query.
+     *
+     * @param ids The unique identifiers of the users, at most wallet.multi-get.max-ids distinct ones
+     * @return ResponseEntity containing the wallets that exist, in the order their ids were first given;
+     *         unknown ids are left out
+     */
+    @Transactional(readOnly = true)
+    @GetMapping(params = "ids")
+    public ResponseEntity<?> getWallets(@RequestParam("ids") List<Integer> ids) {
+        Set<Integer> uniqueIds = new LinkedHashSet<>(ids);
+        uniqueIds.remove(null);
+        if (uniqueIds.isEmpty()) {
+            return ResponseEntity.badRequest().body("No user ids given");
+        }
+        if (uniqueIds.size() > maxIdsPerLookup) {
+            return ResponseEntity.badRequest().body("At most " + maxIdsPerLookup + " wallets can be looked up at once");
+        }
+
+        Map<Integer, Integer> balances = walletStore.balances(uniqueIds);
+        List<WalletView> found = new ArrayList<>();
+        for (Integer userId : uniqueIds) {
+            if (balances.containsKey(userId)) {
+                found.add(wallet(userId, balances.get(userId)));
+            }
+        }
+        return ResponseEntity.ok(found);
+    }
+
+    /**
+     * Retrieves the credits and debits of a wallet, newest first.
+     * Pages are addressed by sequence number (keyset paging): pass the next_before_seq of a page
+     * as before_seq to get the following page. Only the ledger storage engine records history.
+     *
+     * @param userId The unique identifier of the user
+     * @param beforeSeq Only entries with a lower sequence number are returned (default: from the newest entry)
+     * @param limit Maximum number of entries in the page
+     * @return ResponseEntity containing the page of entries or appropriate error response
+     */
+    @Transactional(readOnly = true)
+    @GetMapping("/{userId}/history")
+    public ResponseEntity<?> getWalletHistory(
+            @PathVariable Integer userId,
+            @RequestParam(name = "before_seq", required = false) Long beforeSeq,
+            @RequestParam(name = "limit", defaultValue = "100") Integer limit) {
+
+        if (!walletStore.recordsHistory()) {
+            return ResponseEntity.badRequest().body("Wallet history is only recorded by the ledger storage engine");
+        }
+        if (limit <= 0 || limit > maxHistoryPageSize) {
+            return ResponseEntity.badRequest().body("limit should be between 1 and " + maxHistoryPageSize);
+        }
+        if (walletStore.balance(userId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        List<WalletLedgerEntry> entries = walletStore.history(userId,
+                beforeSeq != null ? beforeSeq : Long.MAX_VALUE, limit);
+        Long nextBeforeSeq = entries.size() < limit ? null : entries.get(entries.size() - 1).getSeq();
+        return ResponseEntity.ok(new WalletHistoryPage(userId, entries, nextBeforeSeq));
     }
 
     /**
      * Updates or creates a wallet for a specific user.
      * Handles both credit and debit operations.
+     * The response carries the balance written by the update itself, so callers do not need a follow-up read.
+     * The response is completed asynchronously, once the storage engine has made the update durable.
+     * An update whose deadline has already passed is not queued at all.
      *
      * @param userId The unique identifier of the user
      * @param walletRequest The request containing action (credit/debit) and amount
      * @return ResponseEntity containing updated wallet details or error message
      */
 
-    @Transactional
     @PutMapping("/{userId}")
-    public ResponseEntity<?> updateWallet(
+    public CompletableFuture<ResponseEntity<?>> updateWallet(
             @PathVariable Integer userId,
             @RequestBody WalletPUTRequest walletRequest) {
 
-        // Get or create wallet
-        getOrCreateWallet(userId);
+        Deadline.check("updating the wallet");
 
-        try {
-            // Process the transaction
-            String errorMessage = processTransaction(userId, walletRequest);
-            if (errorMessage != null) {
-                return ResponseEntity.badRequest().body(errorMessage);
-            }
+        // Process the transaction; a credit creates the wallet if needed
+        return processTransaction(userId, walletRequest)
+                .whenComplete((newBalance, e) -> balanceLookups.forget(userId))
+                .<ResponseEntity<?>>thenApply(newBalance -> newBalance.isEmpty()
+                        ? ResponseEntity.badRequest().body(transactionError(userId, walletRequest))
+                        // Return the updated wallet as written by the conditional update
+                        : ResponseEntity.ok(wallet(userId, newBalance.get())))
+                .exceptionally(e -> ResponseEntity.internalServerError()
+                        .body("Operation failed: " + e.getMessage()));
+    }
+
+    /**
+     * Places a hold on wallet funds.
+     * The amount leaves the balance immediately, with the same conditional update as a debit,
+     * and stays reserved until the hold is captured, released, or expires.
+     *
+     * @param userId The unique identifier of the user
+     * @param holdRequest The amount to hold and an optional lifetime in milliseconds
+     * @return ResponseEntity containing the created hold or error message
+     */
+    @Transactional
+    @PostMapping("/{userId}/holds")
+    public ResponseEntity<?> placeHold(
+            @PathVariable Integer userId,
+            @RequestBody WalletHoldRequest holdRequest) {
 
-            // Save and return updated wallet
-            List<UsrWallet> savedList = walletDb.findUsrWalletByUser_id(userId);
-            UsrWallet savedWallet = savedList.get(0);
-            return ResponseEntity.ok(savedWallet);
+        if (holdRequest.amount == null || holdRequest.amount <= 0) {
+            return ResponseEntity.badRequest().body("Hold amount should be greater than 0");
+        }
 
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError()
-                    .body("Operation failed: " + e.getMessage());
+        // Debited within this transaction; undone if saving the hold fails
+        if (holdFunds.reserve(userId, holdRequest.amount).isEmpty()) {
+            return ResponseEntity.badRequest().body("Insufficient funds");
         }
+        afterCompletion(() -> balanceLookups.forget(userId));
+
+        long ttlMs = holdRequest.ttl_ms != null && holdRequest.ttl_ms > 0 ? holdRequest.ttl_ms : defaultHoldTtlMs;
+        WalletHold hold = new WalletHold();
+        hold.setUser_id(userId);
+        hold.setAmount(holdRequest.amount);
+        hold.setStatus(HoldStatus.HELD);
+        hold.setExpires_at(System.currentTimeMillis() + ttlMs);
+        return ResponseEntity.status(HttpStatus.CREATED).body(walletHoldDb.save(hold));
     }
 
     /**
-     * Deletes a specific user's wallet.
+     * Retrieves a hold, e.g. for a caller whose capture got no answer to find out whether it went through.
+     * Read from the primary (outside a read-only transaction), so the status is current.
      *
      * @param userId The unique identifier of the user
-     * @return ResponseEntity indicating success or failure
+     * @param holdId The hold to retrieve
+     * @return ResponseEntity containing the hold, or 404 if the user has no such hold
      */
-    @DeleteMapping("/{userId}")
-    public ResponseEntity<?> deleteWallet(@PathVariable Integer userId) {
-        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
-
-        if (userWallets.isEmpty()) {
+    @GetMapping("/{userId}/holds/{holdId}")
+    public ResponseEntity<?> getHold(@PathVariable Integer userId, @PathVariable Long holdId) {
+        Optional<WalletHold> hold = walletHoldDb.findById(holdId);
+        if (hold.isEmpty() || !hold.get().getUser_id().equals(userId)) {
             return ResponseEntity.notFound().build();
         }
+        return ResponseEntity.ok(hold.get());
+    }
+
+    /**
+     * Captures a hold, making the reserved payment final.
+     * Only holds that are still HELD and have not expired can be captured.
+     *
+     * @param userId The unique identifier of the user
+     * @param holdId The hold to capture
+     * @return ResponseEntity containing the captured hold or error message
+     */
+    @Transactional
+    @PostMapping("/{userId}/holds/{holdId}/capture")
+    public ResponseEntity<?> captureHold(@PathVariable Integer userId, @PathVariable Long holdId) {
+        if (walletHoldDb.capture(holdId, userId, System.currentTimeMillis()).isEmpty()) {
+            return holdNotActive(userId, holdId);
+        }
+        return ResponseEntity.ok(walletHoldDb.findById(holdId).get());
+    }
+
+    /**
+     * Releases a hold and returns the reserved amount to the wallet.
+     *
+     * @param userId The unique identifier of the user
+     * @param holdId The hold to release
+     * @return ResponseEntity containing the released hold or error message
+     */
+    @Transactional
+    @PostMapping("/{userId}/holds/{holdId}/release")
+    public ResponseEntity<?> releaseHold(@PathVariable Integer userId, @PathVariable Long holdId) {
+        Optional<Integer> amount = walletHoldDb.release(holdId, userId);
+        if (amount.isEmpty()) {
+            return holdNotActive(userId, holdId);
+        }
+        // Credited with this transaction's commit, so a release that rolls back leaves the hold HELD and uncredited
+        holdFunds.refund(userId, amount.get());
+        afterCompletion(() -> balanceLookups.forget(userId));
+        return ResponseEntity.ok(walletHoldDb.findById(holdId).get());
+    }
 
+    /**
+     * Deletes a specific user's wallet. Its live holds are dropped without a refund in the same transaction;
+     * left HELD, the sweeper would credit them on expiry and so create the wallet again.
+     *
+     * @param userId The unique identifier of the user
+     * @return ResponseEntity indicating success or failure
+     */
+    @Transactional
+    @DeleteMapping("/{userId}")
+    public ResponseEntity<?> deleteWallet(@PathVariable Integer userId) {
+        afterCompletion(() -> balanceLookups.forget(userId));
         try {
-            walletDb.delete(userWallets.get(0));
+            walletHoldDb.dropHeldByUser_id(userId);
+            if (!walletStore.delete(userId)) {
+                return ResponseEntity.notFound().build();
+            }
             return ResponseEntity.ok().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
@@ -95,14 +291,17 @@ public class WalletRouter {
     }
 
     /**
-     * Deletes all wallet records from the system.
+     * Deletes all wallet records from the system, dropping all live holds without a refund.
      *
      * @return ResponseEntity indicating success or failure
      */
+    @Transactional
     @DeleteMapping()
     public ResponseEntity<?> deleteAllWallets() {
+        afterCompletion(balanceLookups::forgetAll);
         try {
-            walletDb.deleteAll();
+            walletHoldDb.dropAllHeld();
+            walletStore.deleteAll();
             return ResponseEntity.ok().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
@@ -111,21 +310,19 @@ public class WalletRouter {
     }
 
     /**
-     * Helper method to get existing wallet or create new one if not found.
-     *
-     * @param userId The unique identifier of the user
-     * @return UsrWallet object (either existing or newly created)
+     * Runs the action once the current transaction has finished, or right away outside a transaction.
      */
-    private void getOrCreateWallet(Integer userId) {
-        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
-
-        if (userWallets.isEmpty()) {
-            UsrWallet newWallet = new UsrWallet();
-            newWallet.setUser_id(userId);
-            newWallet.setBalance(0);
-            walletDb.save(newWallet);
+    private void afterCompletion(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
         }
-
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
     }
 
     /**
@@ -133,20 +330,44 @@ public class WalletRouter {
      *
      * @param usrId The wallet to process transaction for
      * @param request The transaction request details
-     * @return Error message if transaction invalid, null if successful
+     * @return The balance after the transaction, or empty if the transaction was rejected
      */
-    private String processTransaction(Integer usrId, WalletPUTRequest request) {
+    private CompletableFuture<Optional<Integer>> processTransaction(Integer usrId, WalletPUTRequest request) {
         if (request.action == WalletPUTRequest.Action.debit) {
-            int updatedRows = walletDb.debitIfSufficient(usrId, request.amount);
-            if (updatedRows == 0) {
-                return "Insufficient funds";  // Prevents race condition
-            }
+            // Balance check and debit happen atomically in the storage engine, which prevents race conditions
+            return walletStore.debitAsync(usrId, request.amount);
         } else if (request.action == WalletPUTRequest.Action.credit) {
-            int updatedRows = walletDb.creditAmount(usrId, request.amount);
-            if (updatedRows == 0) {
-                return "Failed to update balance , amount = " + request.amount + " user id = "+ usrId;
-            }
+            return walletStore.creditAsync(usrId, request.amount);
+        }
+        return CompletableFuture.completedFuture(Optional.empty());
+    }
+
+    /**
+     * Helper method to build the wallet returned to clients.
+     */
+    private WalletView wallet(Integer userId, Integer balance) {
+        return new WalletView(userId, balance);
+    }
+
+    /**
+     * Helper method to describe why a transaction was rejected.
+     */
+    private String transactionError(Integer usrId, WalletPUTRequest request) {
+        if (request.action == WalletPUTRequest.Action.debit) {
+            return "Insufficient funds";
+        }
+        return "Failed to update balance , amount = " + request.amount + " user id = "+ usrId;
+    }
+
+    /**
+     * Helper method to answer a capture/release of a hold that is unknown or no longer HELD.
+     */
+    private ResponseEntity<?> holdNotActive(Integer userId, Long holdId) {
+        Optional<WalletHold> hold = walletHoldDb.findById(holdId);
+        if (hold.isEmpty() || !hold.get().getUser_id().equals(userId)) {
+            return ResponseEntity.notFound().build();
         }
-        return null;
+        return ResponseEntity.badRequest().body("Hold " + holdId + " is " + hold.get().getStatus()
+                + (hold.get().getStatus() == HoldStatus.HELD ? " but has expired" : ""));
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.sirjanhansda.pods.wallets.deadline;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Set;
+
+/**
+ * DataSource that bounds the JDBC work of a request by its deadline (see Deadline).
+ *
+ * Every statement created while the thread has a deadline gets what is left of it as its query timeout
+ * (rounded up to whole seconds, the resolution of JDBC), and no statement is created once it has passed.
+ * Both surface as an SQLTimeoutException, which Spring translates to a QueryTimeoutException.
+ *
+ * Some drivers, H2 among them, apply a query timeout to the whole session rather than the statement, so a
+ * connection that had a timeout set has it reset before statements without a deadline run on it, and before
+ * it goes back to the pool.
+ */
+public class DeadlineDataSource extends DelegatingDataSource {
+
+    private static final Set<String> STATEMENT_FACTORIES = Set.of("createStatement", "prepareStatement", "prepareCall");
+
+    public DeadlineDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return withDeadlines(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return withDeadlines(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private static Connection withDeadlines(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(DeadlineDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new DeadlineConnection(connection));
+    }
+
+    private static class DeadlineConnection implements InvocationHandler {
+
+        private final Connection target;
+
+        // Whether the last statement created on this connection got a query timeout
+        private boolean timeoutSet;
+
+        DeadlineConnection(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    if (timeoutSet) {
+                        resetTimeout();
+                    }
+                    break;
+                default:
+                    if (STATEMENT_FACTORIES.contains(method.getName())) {
+                        return createStatement(method, args);
+                    }
+            }
+            return invokeTarget(method, args);
+        }
+
+        private Object createStatement(Method method, Object[] args) throws Throwable {
+            Deadline deadline = Deadline.current();
+            if (deadline == null) {
+                Object statement = invokeTarget(method, args);
+                if (timeoutSet) {
+                    ((Statement) statement).setQueryTimeout(0);
+                    timeoutSet = false;
+                }
+                return statement;
+            }
+
+            long remainingMs = deadline.remainingMillis();
+            if (remainingMs <= 0) {
+                throw new SQLTimeoutException("Deadline exceeded before running the statement", "57014");
+            }
+            Object statement = invokeTarget(method, args);
+            ((Statement) statement).setQueryTimeout((int) ((remainingMs + 999) / 1000));
+            timeoutSet = true;
+            return statement;
+        }
+
+        private void resetTimeout() {
+            try (Statement statement = target.createStatement()) {
+                statement.setQueryTimeout(0);
+            } catch (SQLException e) {
+                System.out.println("[WARN] Failed to reset the query timeout of a connection: " + e.getMessage());
+            }
+            timeoutSet = false;
+        }
+
+        private Object invokeTarget(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.sirjanhansda.pods.wallets.deadline;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps the datasource used by JPA and JdbcTemplate (the auto-configured bean named dataSource) in a
+ * DeadlineDataSource.
+ */
+@Component
+public class DeadlineDataSourcePostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if ("dataSource".equals(beanName) && bean instanceof DataSource dataSource) {
+            return new DeadlineDataSource(dataSource);
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,29 @@
+package com.sirjanhansda.pods.wallets.deadline;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers requests abandoned because their deadline passed, including those whose JDBC query timed out,
+ * with 504. The client has most likely given up already; the answer is for the ones that have not.
+ *
+ * Metrics:
+ * - requests.deadline.exceeded: requests abandoned because of their deadline
+ */
+@RestControllerAdvice
+public class DeadlineExceptionHandler {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @ExceptionHandler({DeadlineExceededException.class, QueryTimeoutException.class})
+    public ResponseEntity<String> deadlineExceeded(RuntimeException e) {
+        meterRegistry.counter("requests.deadline.exceeded").increment();
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(e.getMessage());
+    }
+}
@@ -0,0 +1,76 @@
+package com.sirjanhansda.pods.wallets.hold;
+
+import com.sirjanhansda.pods.wallets.walletdb.WalletStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+
+/**
+ * Moves the funds of wallet holds in and out of the wallets, in step with the transaction that changes the
+ * WalletHold rows.
+ *
+ * With the database-backed storage engines the debit or credit is part of that transaction and commits or rolls
+ * back with it. Engines that write outside it (see WalletStore.joinsTransactions) are kept in step instead:
+ * - reserve: the debit is credited back if the transaction rolls back, so no funds leave without a hold.
+ * - refund: the credit is applied only once the transaction has committed, so a hold whose release rolls back
+ *   stays HELD without having been credited and is not credited twice later.
+ * A crash between the transaction and the compensating or deferred write still loses that write.
+ */
+@Component
+public class HoldFunds {
+
+    @Autowired
+    private WalletStore walletStore;
+
+    /**
+     * Debits the funds of a new hold, within the current transaction.
+     *
+     * @return The balance after the debit, or empty if the wallet does not exist or the balance is insufficient
+     */
+    public Optional<Integer> reserve(Integer userId, Integer amount) {
+        Optional<Integer> balance = walletStore.debit(userId, amount);
+        if (balance.isPresent() && !walletStore.joinsTransactions() && inTransaction()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        credit(userId, amount, "hold of a rolled back transaction");
+                    }
+                }
+            });
+        }
+        return balance;
+    }
+
+    /**
+     * Credits the funds of a hold that was released or expired in the current transaction.
+     */
+    public void refund(Integer userId, Integer amount) {
+        if (walletStore.joinsTransactions() || !inTransaction()) {
+            walletStore.credit(userId, amount);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                credit(userId, amount, "released hold");
+            }
+        });
+    }
+
+    private void credit(Integer userId, Integer amount, String what) {
+        try {
+            walletStore.credit(userId, amount);
+        } catch (Exception e) {
+            System.out.println("[ERROR] Failed to credit " + amount + " of a " + what + " back to user " + userId
+                    + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean inTransaction() {
+        return TransactionSynchronizationManager.isSynchronizationActive();
+    }
+}
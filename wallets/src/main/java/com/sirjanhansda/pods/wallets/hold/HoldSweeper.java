@@ -0,0 +1,82 @@
+package com.sirjanhansda.pods.wallets.hold;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Returns the funds of expired wallet holds to their wallets.
+ *
+ * Each run expires holds in batches: one statement flips up to a batch of HELD holds past their expiry
+ * to EXPIRED and reports which ones it changed, and the amounts are credited back with one credit per user
+ * through HoldFunds, in step with the same transaction. A hold that is captured or released concurrently is no longer HELD when the
+ * UPDATE reaches it, so it is never refunded twice.
+ */
+@Component
+public class HoldSweeper {
+
+    private static final String EXPIRE_BATCH =
+            "SELECT user_id, amount FROM FINAL TABLE (UPDATE wallet_hold SET status = 'EXPIRED' "
+                    + "WHERE status = 'HELD' AND hold_id IN (SELECT hold_id FROM wallet_hold "
+                    + "WHERE status = 'HELD' AND expires_at < ? ORDER BY expires_at FETCH FIRST ? ROWS ONLY))";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HoldFunds holdFunds;
+
+    // Maximum number of holds expired per transaction
+    @Value("${wallet.holds.sweep-batch-size:500}")
+    private int batchSize;
+
+    @Scheduled(fixedDelayString = "${wallet.holds.sweep-interval-ms:5000}")
+    public void sweepExpiredHolds() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        long now = System.currentTimeMillis();
+        int expired = 0;
+
+        try {
+            while (true) {
+                Integer swept = transaction.execute(status -> expireBatch(now));
+                expired += swept;
+                if (swept < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to sweep expired wallet holds: " + e.getMessage());
+        }
+
+        if (expired > 0) {
+            System.out.println("Released " + expired + " expired wallet holds");
+        }
+    }
+
+    /**
+     * Expires one batch of holds and credits their amounts back.
+     *
+     * @return Number of holds expired
+     */
+    private int expireBatch(long now) {
+        Map<Integer, Integer> refunds = new HashMap<>();
+        int[] count = {0};
+        jdbcTemplate.query(EXPIRE_BATCH, rs -> {
+            refunds.merge(rs.getInt(1), rs.getInt(2), Integer::sum);
+            count[0]++;
+        }, now, batchSize);
+
+        refunds.forEach(holdFunds::refund);
+        return count[0];
+    }
+}
@@ -0,0 +1,48 @@
+package com.sirjanhansda.pods.wallets.http2;
+
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Tunes Tomcat's HTTP/2 handling (enabled with server.http2.enabled, which without TLS means h2c) for the
+ * marketplace, which multiplexes its concurrent calls to this service over a few connections:
+ * - http2.max-concurrent-streams: streams a connection may have open at once
+ * - http2.max-concurrent-stream-execution: streams of a connection that are processed at once; the rest
+ *   wait for a request thread
+ * - http2.overhead-data-threshold: DATA frames smaller than this (other than the last of a request) count
+ *   as overhead, and a connection with too much overhead is closed, which guards against floods of tiny
+ *   frames. The client sends a request body as a DATA frame followed by an empty one ending the stream, and
+ *   the smallest body sent here (a hold of a one-digit amount) is 26 bytes, which trips Tomcat's default of
+ *   1024. At 256 those calls stay well clear of the limit while frames of about a dozen bytes still count
+ * The customizer is always registered and only finds an Http2Protocol to tune when server.http2.enabled is set
+ * at startup, so an ahead-of-time compiled build follows the setting it is started with.
+ */
+@Configuration
+public class Http2ServerConfig {
+
+    @Value("${http2.max-concurrent-streams:200}")
+    private long maxConcurrentStreams;
+
+    @Value("${http2.max-concurrent-stream-execution:200}")
+    private int maxConcurrentStreamExecution;
+
+    @Value("${http2.overhead-data-threshold:256}")
+    private int overheadDataThreshold;
+
+    @Bean
+    public TomcatConnectorCustomizer http2ConnectorCustomizer() {
+        return connector -> {
+            for (UpgradeProtocol upgradeProtocol : connector.findUpgradeProtocols()) {
+                if (upgradeProtocol instanceof Http2Protocol http2) {
+                    http2.setMaxConcurrentStreams(maxConcurrentStreams);
+                    http2.setMaxConcurrentStreamExecution(maxConcurrentStreamExecution);
+                    http2.setOverheadDataThreshold(overheadDataThreshold);
+                }
+            }
+        };
+    }
+}
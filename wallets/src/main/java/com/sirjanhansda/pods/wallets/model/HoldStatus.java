@@ -0,0 +1,9 @@
+package com.sirjanhansda.pods.wallets.model;
+
+// Lifecycle of a wallet hold: HELD until it is captured, released by the caller, or expired by the sweeper
+public enum HoldStatus {
+    HELD,
+    CAPTURED,
+    RELEASED,
+    EXPIRED
+}
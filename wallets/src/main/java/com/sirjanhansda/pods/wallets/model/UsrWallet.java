@@ -1,7 +1,10 @@
 package com.sirjanhansda.pods.wallets.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Version;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
@@ -18,5 +21,10 @@ public class UsrWallet {
 
     private Integer balance;
 
-    
+    // Optimistic-lock version, checked by Hibernate on entity updates. The SQL balance updates of the
+    // storage engines bypass that check and increment it themselves. The column default covers old rows.
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
 }
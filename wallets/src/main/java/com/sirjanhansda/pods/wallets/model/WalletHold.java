@@ -0,0 +1,36 @@
+package com.sirjanhansda.pods.wallets.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Funds reserved from a wallet for a pending payment.
+ * Placing a hold moves the amount out of the wallet balance; capturing it makes the payment final,
+ * while releasing or expiring it puts the amount back. Holds that are neither captured nor released
+ * before expires_at are returned to the wallet by the HoldSweeper.
+ *
+ * The (status, expires_at) index lets the sweeper find expired holds without scanning settled ones.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_wallet_hold_status_expires_at", columnList = "status, expires_at"))
+@Data
+@Getter
+@Setter
+public class WalletHold {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long hold_id;
+
+    private Integer user_id;
+
+    private Integer amount;
+
+    @Enumerated(EnumType.STRING)
+    private HoldStatus status;
+
+    // Epoch milliseconds after which the hold can no longer be captured
+    private Long expires_at;
+}
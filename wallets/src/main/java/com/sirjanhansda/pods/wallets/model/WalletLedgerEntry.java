@@ -0,0 +1,22 @@
+package com.sirjanhansda.pods.wallets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One credit (positive amount) or debit (negative amount) in the append-only wallet ledger.
+ * seq numbers the entries of a wallet from 1 without gaps.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletLedgerEntry {
+
+    private Long seq;
+
+    private Integer amount;
+
+    // Epoch milliseconds at which the entry was appended
+    private Long created_at;
+}
@@ -0,0 +1,9 @@
+package com.sirjanhansda.pods.wallets.readmodel;
+
+/**
+ * Wallet as the endpoints return it: the user and the balance, without the UsrWallet entity's version.
+ * Database-backed storage engines fill it straight from a query (see WalletDb), so reads create no
+ * managed entity.
+ */
+public record WalletView(Integer user_id, Integer balance) {
+}
@@ -0,0 +1,109 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import com.sirjanhansda.pods.wallets.model.UsrWallet;
+import com.sirjanhansda.pods.wallets.readmodel.WalletView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wallet storage engine that keeps the balance in the UsrWallet row and updates it in place
+ * with conditional UPDATE statements.
+ * With wallet.group-commit.enabled, wallet PUTs (debitAsync/creditAsync) are coalesced by the
+ * WalletUpdateBatcher and committed together.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.storage.engine", havingValue = "balance", matchIfMissing = true)
+public class BalanceWalletStore implements WalletStore {
+
+    @Autowired
+    private WalletDb walletDb;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Present only when group commit is enabled
+    @Autowired(required = false)
+    private WalletUpdateBatcher batcher;
+
+    @Override
+    public Optional<Integer> balance(Integer userId) {
+        return walletDb.findBalanceByUser_id(userId);
+    }
+
+    @Override
+    public Map<Integer, Integer> balances(Collection<Integer> userIds) {
+        // user_id is the primary key, so this is a single IN-list lookup
+        return walletDb.findWalletViewsByUser_idIn(userIds).stream()
+                .collect(Collectors.toMap(WalletView::user_id, WalletView::balance));
+    }
+
+    @Override
+    public Optional<Integer> debit(Integer userId, Integer amount) {
+        return walletDb.debitReturningBalance(userId, amount);
+    }
+
+    @Override
+    public Optional<Integer> credit(Integer userId, Integer amount) {
+        return walletDb.creditReturningBalance(userId, amount);
+    }
+
+    @Override
+    @Transactional
+    public void createIfMissing(Integer userId) {
+        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
+        if (userWallets.isEmpty()) {
+            UsrWallet newWallet = new UsrWallet();
+            newWallet.setUser_id(userId);
+            newWallet.setBalance(0);
+            walletDb.saveAndFlush(newWallet);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> debitAsync(Integer userId, Integer amount) {
+        if (batcher != null) {
+            return batcher.submit(userId, -amount, false);
+        }
+        return CompletableFuture.completedFuture(debit(userId, amount));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> creditAsync(Integer userId, Integer amount) {
+        if (batcher != null) {
+            return batcher.submit(userId, amount, true);
+        }
+        // Wallet creation and credit share one transaction (and one connection)
+        return CompletableFuture.completedFuture(new TransactionTemplate(transactionManager).execute(status -> {
+            createIfMissing(userId);
+            return credit(userId, amount);
+        }));
+    }
+
+    @Override
+    @Transactional
+    public boolean delete(Integer userId) {
+        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
+        if (userWallets.isEmpty()) {
+            return false;
+        }
+        walletDb.delete(userWallets.get(0));
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll() {
+        walletDb.deleteAll();
+    }
+}
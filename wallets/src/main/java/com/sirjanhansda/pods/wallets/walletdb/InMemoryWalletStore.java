@@ -0,0 +1,391 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wallet storage engine that keeps every balance in memory and applies all operations on one thread.
+ *
+ * Requests are published to a Disruptor ring buffer and consumed by a single writer thread, which owns
+ * the WalletBalanceTable, so no locks or database round trips are needed per operation. Each mutation is
+ * appended to the write-ahead log; at the end of every ring-buffer batch the log is written and fsynced
+ * once (group commit), and only then are the futures of that batch completed. A request is therefore
+ * acknowledged only after it is durable, and the HTTP thread does not wait for it.
+ *
+ * Periodically the writer hands the wallets changed since the previous checkpoint to a checkpoint, which stores
+ * them in the UsrWallet table; the log segments covered by a stored checkpoint are then deleted.
+ * On startup the table is loaded from UsrWallet and the remaining log is replayed.
+ * Durability is that of the log directory plus the configured datasource.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.storage.engine", havingValue = "memory")
+@DependsOn("entityManagerFactory") // UsrWallet is created by Hibernate's schema generation
+public class InMemoryWalletStore implements WalletStore {
+
+    private static final String SELECT_WALLETS = "SELECT user_id, balance FROM usr_wallet";
+
+    private static final String MERGE_WALLET =
+            "MERGE INTO usr_wallet w USING (VALUES (CAST(? AS INT), CAST(? AS INT))) v(user_id, balance) "
+                    + "ON w.user_id = v.user_id "
+                    + "WHEN MATCHED THEN UPDATE SET balance = v.balance, version = w.version + 1 "
+                    + "WHEN NOT MATCHED THEN INSERT (user_id, balance, version) VALUES (v.user_id, v.balance, 0)";
+
+    private static final String DELETE_WALLET = "DELETE FROM usr_wallet WHERE user_id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Directory holding the write-ahead log segments
+    @Value("${wallet.memory.wal-dir:./wallet-wal}")
+    private String walDir;
+
+    // Number of slots in the ring buffer (a power of two); publishers wait when it is full
+    @Value("${wallet.memory.ring-size:8192}")
+    private int ringSize;
+
+    // Size of the in-memory buffer for log records between fsyncs
+    @Value("${wallet.memory.wal-buffer-bytes:1048576}")
+    private int walBufferBytes;
+
+    private final WalletBalanceTable balances = new WalletBalanceTable(1024);
+
+    // Wallets changed since the last checkpoint, with null marking a deleted wallet (writer thread only)
+    private Map<Integer, Integer> dirty = new HashMap<>();
+    private boolean clearedSinceCheckpoint = false;
+
+    // Futures of the current batch, completed after the batch's log records are durable (writer thread only)
+    private final List<WalletCommand> batch = new ArrayList<>();
+
+    // Changes taken from the writer that are not yet stored in the database (checkpoint thread only)
+    private final Map<Integer, Integer> pendingCheckpoint = new HashMap<>();
+    private boolean pendingClear = false;
+
+    private WalletWriteAheadLog wal;
+    private Disruptor<WalletCommand> disruptor;
+    private RingBuffer<WalletCommand> ringBuffer;
+
+    // Set once the log cannot be written; no further request is acknowledged after that
+    private volatile IOException walFailure;
+
+    // Written by the writer thread before it completes the CHECKPOINT command's future
+    private volatile WalletCommand.Checkpoint lastCheckpoint;
+
+    @PostConstruct
+    void start() throws IOException {
+        jdbcTemplate.query(SELECT_WALLETS, rs -> {
+            balances.put(rs.getInt(1), rs.getInt(2));
+        });
+
+        wal = new WalletWriteAheadLog(Path.of(walDir), walBufferBytes);
+        wal.recover((type, userId, balance) -> {
+            apply(type, userId, balance);
+        });
+        System.out.println("In-memory wallet engine recovered " + balances.size() + " wallets");
+
+        disruptor = new Disruptor<>(WalletCommand::new, ringSize,
+                runnable -> new Thread(runnable, "wallet-writer"),
+                ProducerType.MULTI, new BlockingWaitStrategy());
+        disruptor.handleEventsWith(this::onCommand);
+        ringBuffer = disruptor.start();
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        disruptor.shutdown(); // Waits until every published command has been processed
+        wal.close();
+    }
+
+    @Override
+    public Optional<Integer> balance(Integer userId) {
+        return submit(CommandType.BALANCE, userId, 0).join();
+    }
+
+    @Override
+    public Optional<Integer> debit(Integer userId, Integer amount) {
+        return debitAsync(userId, amount).join();
+    }
+
+    @Override
+    public Optional<Integer> credit(Integer userId, Integer amount) {
+        return submit(CommandType.CREDIT, userId, amount).join();
+    }
+
+    @Override
+    public void createIfMissing(Integer userId) {
+        submit(CommandType.CREATE, userId, 0).join();
+    }
+
+    @Override
+    public boolean delete(Integer userId) {
+        return submit(CommandType.DELETE, userId, 0).join().isPresent();
+    }
+
+    @Override
+    public void deleteAll() {
+        submit(CommandType.CLEAR, 0, 0).join();
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> debitAsync(Integer userId, Integer amount) {
+        return submit(CommandType.DEBIT, userId, amount);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> creditAsync(Integer userId, Integer amount) {
+        // A credit creates the wallet if needed, in the same step
+        return submit(CommandType.CREDIT_OR_CREATE, userId, amount);
+    }
+
+    @Override
+    public boolean joinsTransactions() {
+        // Writes are durable once they are in the log, whatever happens to the caller's transaction
+        return false;
+    }
+
+    /**
+     * Takes the wallets changed since the last checkpoint from the writer and stores them in UsrWallet.
+     * The writer only swaps its change set and starts a new log segment; the database work happens here.
+     */
+    @Scheduled(fixedDelayString = "${wallet.memory.checkpoint-interval-ms:5000}")
+    public void checkpoint() {
+        CompletableFuture<Optional<Integer>> rotated = submit(CommandType.CHECKPOINT, 0, 0);
+        WalletCommand.Checkpoint taken;
+        try {
+            rotated.join();
+            taken = lastCheckpoint;
+        } catch (Exception e) {
+            System.out.println("[WARN] Wallet checkpoint failed: " + e.getMessage());
+            return;
+        }
+
+        // Changes that could not be stored last time are retried together with the new ones
+        if (taken.cleared()) {
+            pendingCheckpoint.clear();
+            pendingClear = true;
+        }
+        pendingCheckpoint.putAll(taken.changes());
+        if (pendingCheckpoint.isEmpty() && !pendingClear) {
+            deleteLogSegments(taken.closedSegment());
+            return;
+        }
+
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                if (pendingClear) {
+                    jdbcTemplate.update("DELETE FROM usr_wallet");
+                }
+                List<Object[]> merges = new ArrayList<>();
+                List<Object[]> deletes = new ArrayList<>();
+                pendingCheckpoint.forEach((userId, balance) -> {
+                    if (balance == null) {
+                        deletes.add(new Object[]{userId});
+                    } else {
+                        merges.add(new Object[]{userId, balance});
+                    }
+                });
+                jdbcTemplate.batchUpdate(MERGE_WALLET, merges);
+                jdbcTemplate.batchUpdate(DELETE_WALLET, deletes);
+            });
+            pendingCheckpoint.clear();
+            pendingClear = false;
+            deleteLogSegments(taken.closedSegment());
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to store wallet checkpoint: " + e.getMessage());
+        }
+    }
+
+    // Segments are only deleted once their changes are in the database, so a failure here just leaves them for later
+    private void deleteLogSegments(long upToSegment) {
+        try {
+            wal.deleteSegmentsUpTo(upToSegment);
+        } catch (IOException e) {
+            System.out.println("[WARN] Failed to delete wallet log segments: " + e.getMessage());
+        }
+    }
+
+    private CompletableFuture<Optional<Integer>> submit(CommandType type, int userId, int amount) {
+        CompletableFuture<Optional<Integer>> future = new CompletableFuture<>();
+        ringBuffer.publishEvent((command, sequence) -> command.set(type, userId, amount, future));
+        return future;
+    }
+
+    /**
+     * Writer thread: applies one command, and at the end of a batch makes the batch durable and acknowledges it.
+     */
+    private void onCommand(WalletCommand command, long sequence, boolean endOfBatch) {
+        if (walFailure != null) {
+            command.future.completeExceptionally(walFailure);
+        } else {
+            try {
+                command.result = execute(command);
+                batch.add(command.detach());
+            } catch (IOException e) {
+                walFailure = e;
+                System.out.println("[ERROR] Wallet write-ahead log failed, rejecting all further requests: " + e.getMessage());
+                command.future.completeExceptionally(e);
+            }
+        }
+        command.clear();
+
+        if (endOfBatch && !batch.isEmpty()) {
+            try {
+                if (walFailure == null) {
+                    wal.flush(); // Group commit: one fsync for the whole batch
+                }
+            } catch (IOException e) {
+                walFailure = e;
+                System.out.println("[ERROR] Wallet write-ahead log failed, rejecting all further requests: " + e.getMessage());
+            }
+            for (WalletCommand done : batch) {
+                if (walFailure != null) {
+                    done.future.completeExceptionally(walFailure);
+                } else {
+                    done.future.complete(done.result);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writer thread: executes a command against the table and logs its effect.
+     *
+     * @return The balance to report, or empty if the command was rejected or the wallet does not exist
+     */
+    private Optional<Integer> execute(WalletCommand command) throws IOException {
+        int userId = command.userId;
+        boolean exists = balances.contains(userId);
+        switch (command.type) {
+            case BALANCE:
+                return exists ? Optional.of(balances.get(userId)) : Optional.empty();
+            case CREATE:
+                if (!exists) {
+                    log(WalletWriteAheadLog.SET, userId, 0);
+                }
+                return Optional.of(exists ? balances.get(userId) : 0);
+            case DEBIT:
+                if (!exists || balances.get(userId) < command.amount) {
+                    return Optional.empty();
+                }
+                return Optional.of(log(WalletWriteAheadLog.SET, userId, balances.get(userId) - command.amount));
+            case CREDIT:
+                if (!exists) {
+                    return Optional.empty();
+                }
+                return Optional.of(log(WalletWriteAheadLog.SET, userId, balances.get(userId) + command.amount));
+            case CREDIT_OR_CREATE:
+                return Optional.of(log(WalletWriteAheadLog.SET, userId, (exists ? balances.get(userId) : 0) + command.amount));
+            case DELETE:
+                if (!exists) {
+                    return Optional.empty();
+                }
+                log(WalletWriteAheadLog.DELETE, userId, 0);
+                return Optional.of(0);
+            case CLEAR:
+                log(WalletWriteAheadLog.CLEAR, 0, 0);
+                return Optional.of(0);
+            case CHECKPOINT:
+                long closedSegment = wal.rotate();
+                lastCheckpoint = new WalletCommand.Checkpoint(dirty, clearedSinceCheckpoint, closedSegment);
+                dirty = new HashMap<>();
+                clearedSinceCheckpoint = false;
+                return Optional.of(0);
+            default:
+                throw new IllegalStateException("Unknown wallet command " + command.type);
+        }
+    }
+
+    /**
+     * Appends a record to the log and applies it to the table.
+     *
+     * @return The balance written
+     */
+    private int log(byte type, int userId, int balance) throws IOException {
+        wal.append(type, userId, balance);
+        apply(type, userId, balance);
+        return balance;
+    }
+
+    // Applies a log record to the table and the change set of the next checkpoint
+    private void apply(byte type, int userId, int balance) {
+        if (type == WalletWriteAheadLog.SET) {
+            balances.put(userId, balance);
+            dirty.put(userId, balance);
+        } else if (type == WalletWriteAheadLog.DELETE) {
+            balances.remove(userId);
+            dirty.put(userId, null);
+        } else if (type == WalletWriteAheadLog.CLEAR) {
+            balances.clear();
+            dirty.clear();
+            clearedSinceCheckpoint = true;
+        }
+    }
+
+    enum CommandType {
+        BALANCE,
+        CREATE,
+        DEBIT,
+        CREDIT,
+        CREDIT_OR_CREATE,
+        DELETE,
+        CLEAR,
+        CHECKPOINT
+    }
+
+    // Ring buffer slot; slots are reused, so a command is copied out before its future is completed
+    static final class WalletCommand {
+        CommandType type;
+        int userId;
+        int amount;
+        CompletableFuture<Optional<Integer>> future;
+        Optional<Integer> result;
+
+        // Changes handed from the writer to a checkpoint
+        record Checkpoint(Map<Integer, Integer> changes, boolean cleared, long closedSegment) {
+        }
+
+        void set(CommandType type, int userId, int amount, CompletableFuture<Optional<Integer>> future) {
+            this.type = type;
+            this.userId = userId;
+            this.amount = amount;
+            this.future = future;
+        }
+
+        WalletCommand detach() {
+            WalletCommand copy = new WalletCommand();
+            copy.future = future;
+            copy.result = result;
+            return copy;
+        }
+
+        void clear() {
+            future = null;
+            result = null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolls new wallet ledger entries into the per-wallet snapshots of the ledger storage engine.
+ *
+ * Wallets are visited in pages of user ids. A wallet whose snapshot is at least min-entries behind its ledger
+ * gets a new snapshot at its last entry. Ledger entries are immutable, so a snapshot computed from
+ * entries up to a given sequence number stays correct no matter what is appended meanwhile.
+ * The ledger itself is kept, since it is the wallet history.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.storage.engine", havingValue = "ledger")
+public class LedgerCompactor {
+
+    private static final String SELECT_PAGE =
+            "SELECT w.user_id, COALESCE(s.BALANCE, w.balance), "
+                    + "(SELECT COUNT(*) FROM WALLET_LEDGER l WHERE l.USER_ID = w.user_id AND l.SEQ > COALESCE(s.SEQ, 0)), "
+                    + "(SELECT MAX(l.SEQ) FROM WALLET_LEDGER l WHERE l.USER_ID = w.user_id AND l.SEQ > COALESCE(s.SEQ, 0)), "
+                    + "(SELECT SUM(l.AMOUNT) FROM WALLET_LEDGER l WHERE l.USER_ID = w.user_id AND l.SEQ > COALESCE(s.SEQ, 0)) "
+                    + "FROM usr_wallet w LEFT JOIN WALLET_SNAPSHOT s ON s.USER_ID = w.user_id "
+                    + "WHERE w.user_id > ? ORDER BY w.user_id FETCH FIRST ? ROWS ONLY";
+
+    private static final String MERGE_SNAPSHOT =
+            "MERGE INTO WALLET_SNAPSHOT (USER_ID, SEQ, BALANCE, TAKEN_AT) KEY(USER_ID) VALUES (?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Wallets inspected per query
+    @Value("${wallet.ledger.compact-page-size:1000}")
+    private int pageSize;
+
+    // Minimum number of entries after the snapshot before a wallet is compacted
+    @Value("${wallet.ledger.compact-min-entries:64}")
+    private int minEntries;
+
+    @Scheduled(fixedDelayString = "${wallet.ledger.compact-interval-ms:10000}")
+    public void compact() {
+        int compacted = 0;
+        int lastUserId = Integer.MIN_VALUE;
+
+        try {
+            while (true) {
+                List<Object[]> snapshots = new ArrayList<>();
+                int[] page = {0, lastUserId};
+                jdbcTemplate.query(SELECT_PAGE, rs -> {
+                    page[0]++;
+                    page[1] = rs.getInt(1);
+                    if (rs.getLong(3) >= minEntries) {
+                        snapshots.add(new Object[]{rs.getInt(1), rs.getLong(4), rs.getInt(2) + rs.getInt(5),
+                                System.currentTimeMillis()});
+                    }
+                }, lastUserId, pageSize);
+
+                if (!snapshots.isEmpty()) {
+                    jdbcTemplate.batchUpdate(MERGE_SNAPSHOT, snapshots);
+                    compacted += snapshots.size();
+                }
+                if (page[0] < pageSize) {
+                    break;
+                }
+                lastUserId = page[1];
+            }
+        } catch (Exception e) {
+            System.out.println("[WARN] Failed to compact wallet ledger: " + e.getMessage());
+        }
+
+        if (compacted > 0) {
+            System.out.println("Compacted the ledger of " + compacted + " wallets into snapshots");
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import com.sirjanhansda.pods.wallets.model.UsrWallet;
+import com.sirjanhansda.pods.wallets.model.WalletLedgerEntry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wallet storage engine backed by an append-only ledger.
+ *
+ * Every credit or debit is an INSERT of (USER_ID, SEQ, AMOUNT) into WALLET_LEDGER; rows are never updated.
+ * The balance of a wallet is the balance of its latest snapshot in WALLET_SNAPSHOT plus the amounts of the
+ * ledger entries after that snapshot. LedgerCompactor periodically rolls new entries into the snapshot, so
+ * this sum stays short. Until a wallet has its first snapshot, the balance column of its usr_wallet row is the
+ * opening balance, so wallets written by the balance engine keep their balances when a deployment switches
+ * to this engine.
+ *
+ * A debit reads the balance together with the last sequence number and appends the entry with the next one.
+ * If another writer appended to the same wallet in between, the primary key (USER_ID, SEQ) rejects the insert
+ * and the debit retries against the new balance. A balance can therefore never go negative, and writers only
+ * conflict with concurrent writers of the same wallet.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.storage.engine", havingValue = "ledger")
+public class LedgerWalletStore implements WalletStore {
+
+    private static final String CREATE_LEDGER_TABLE =
+            "CREATE TABLE IF NOT EXISTS WALLET_LEDGER (USER_ID INT NOT NULL, SEQ BIGINT NOT NULL, "
+                    + "AMOUNT INT NOT NULL, CREATED_AT BIGINT NOT NULL, PRIMARY KEY (USER_ID, SEQ))";
+
+    private static final String CREATE_SNAPSHOT_TABLE =
+            "CREATE TABLE IF NOT EXISTS WALLET_SNAPSHOT (USER_ID INT PRIMARY KEY, SEQ BIGINT NOT NULL, "
+                    + "BALANCE INT NOT NULL, TAKEN_AT BIGINT NOT NULL)";
+
+    // Snapshot plus the entries after it, for an existing wallet; both ledger lookups are primary key range scans
+    private static final String SELECT_STATE =
+            "SELECT COALESCE(s.SEQ, 0), COALESCE(s.BALANCE, w.balance), "
+                    + "(SELECT MAX(l.SEQ) FROM WALLET_LEDGER l WHERE l.USER_ID = w.user_id AND l.SEQ > COALESCE(s.SEQ, 0)), "
+                    + "(SELECT SUM(l.AMOUNT) FROM WALLET_LEDGER l WHERE l.USER_ID = w.user_id AND l.SEQ > COALESCE(s.SEQ, 0)) "
+                    + "FROM usr_wallet w LEFT JOIN WALLET_SNAPSHOT s ON s.USER_ID = w.user_id WHERE w.user_id = ?";
+
+    // Balances of several existing wallets, computed like SELECT_STATE; %s is the list of id placeholders
+    private static final String SELECT_BALANCES =
+            "SELECT w.user_id, COALESCE(s.BALANCE, w.balance) + COALESCE("
+                    + "(SELECT SUM(l.AMOUNT) FROM WALLET_LEDGER l WHERE l.USER_ID = w.user_id AND l.SEQ > COALESCE(s.SEQ, 0)), 0) "
+                    + "FROM usr_wallet w LEFT JOIN WALLET_SNAPSHOT s ON s.USER_ID = w.user_id WHERE w.user_id IN (%s)";
+
+    private static final String INSERT_ENTRY =
+            "INSERT INTO WALLET_LEDGER (USER_ID, SEQ, AMOUNT, CREATED_AT) VALUES (?, ?, ?, ?)";
+
+    private static final String SELECT_HISTORY =
+            "SELECT SEQ, AMOUNT, CREATED_AT FROM WALLET_LEDGER WHERE USER_ID = ? AND SEQ < ? "
+                    + "ORDER BY SEQ DESC FETCH FIRST ? ROWS ONLY";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private WalletDb walletDb;
+
+    // How often an append is retried after losing a race for the next sequence number
+    @Value("${wallet.ledger.max-append-attempts:20}")
+    private int maxAppendAttempts;
+
+    @PostConstruct
+    void createTables() {
+        jdbcTemplate.execute(CREATE_LEDGER_TABLE);
+        jdbcTemplate.execute(CREATE_SNAPSHOT_TABLE);
+    }
+
+    @Override
+    public Optional<Integer> balance(Integer userId) {
+        return readState(userId).map(WalletState::balance);
+    }
+
+    @Override
+    public Map<Integer, Integer> balances(Collection<Integer> userIds) {
+        Map<Integer, Integer> balances = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return balances;
+        }
+        String sql = String.format(SELECT_BALANCES, String.join(", ", Collections.nCopies(userIds.size(), "?")));
+        jdbcTemplate.query(sql, rs -> {
+            balances.put(rs.getInt(1), rs.getInt(2));
+        }, userIds.toArray());
+        return balances;
+    }
+
+    @Override
+    @Transactional
+    public Optional<Integer> debit(Integer userId, Integer amount) {
+        return append(userId, -amount);
+    }
+
+    @Override
+    @Transactional
+    public Optional<Integer> credit(Integer userId, Integer amount) {
+        return append(userId, amount);
+    }
+
+    @Override
+    @Transactional
+    public void createIfMissing(Integer userId) {
+        // The wallet row marks the wallet as existing; its balance column is the opening balance of the ledger
+        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
+        if (userWallets.isEmpty()) {
+            UsrWallet newWallet = new UsrWallet();
+            newWallet.setUser_id(userId);
+            newWallet.setBalance(0);
+            walletDb.saveAndFlush(newWallet); // Flushed so that the JDBC queries below see the new wallet
+        }
+    }
+
+    // Wallet creation and credit share one transaction (and one connection)
+    @Override
+    @Transactional
+    public CompletableFuture<Optional<Integer>> creditAsync(Integer userId, Integer amount) {
+        createIfMissing(userId);
+        return CompletableFuture.completedFuture(credit(userId, amount));
+    }
+
+    @Override
+    @Transactional
+    public boolean delete(Integer userId) {
+        List<UsrWallet> userWallets = walletDb.findUsrWalletByUser_id(userId);
+        if (userWallets.isEmpty()) {
+            return false;
+        }
+        jdbcTemplate.update("DELETE FROM WALLET_LEDGER WHERE USER_ID = ?", userId);
+        jdbcTemplate.update("DELETE FROM WALLET_SNAPSHOT WHERE USER_ID = ?", userId);
+        walletDb.delete(userWallets.get(0));
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll() {
+        jdbcTemplate.update("DELETE FROM WALLET_LEDGER");
+        jdbcTemplate.update("DELETE FROM WALLET_SNAPSHOT");
+        walletDb.deleteAll();
+    }
+
+    @Override
+    public boolean recordsHistory() {
+        return true;
+    }
+
+    @Override
+    public List<WalletLedgerEntry> history(Integer userId, long beforeSeq, int limit) {
+        return jdbcTemplate.query(SELECT_HISTORY,
+                (rs, rowNum) -> new WalletLedgerEntry(rs.getLong(1), rs.getInt(2), rs.getLong(3)),
+                userId, beforeSeq, limit);
+    }
+
+    /**
+     * Appends a signed amount to the wallet's ledger unless it would make the balance negative.
+     *
+     * @return The balance after the entry, or empty if the wallet does not exist or the balance is insufficient
+     */
+    private Optional<Integer> append(Integer userId, int amount) {
+        for (int attempt = 0; attempt < maxAppendAttempts; attempt++) {
+            Optional<WalletState> state = readState(userId);
+            if (state.isEmpty()) {
+                return Optional.empty();
+            }
+
+            int newBalance = state.get().balance() + amount;
+            if (newBalance < 0) {
+                return Optional.empty();
+            }
+
+            try {
+                jdbcTemplate.update(INSERT_ENTRY, userId, state.get().lastSeq() + 1, amount, System.currentTimeMillis());
+                return Optional.of(newBalance);
+            } catch (DuplicateKeyException e) {
+                // Another writer took this sequence number; retry against the new balance
+            }
+        }
+        throw new IllegalStateException("Could not append to the ledger of wallet " + userId
+                + " after " + maxAppendAttempts + " attempts");
+    }
+
+    private Optional<WalletState> readState(Integer userId) {
+        List<WalletState> states = jdbcTemplate.query(SELECT_STATE, (rs, rowNum) -> {
+            long snapshotSeq = rs.getLong(1);
+            long lastSeq = rs.getLong(3);
+            return new WalletState(rs.wasNull() ? snapshotSeq : lastSeq, rs.getInt(2) + rs.getInt(4));
+        }, userId);
+        return states.stream().findFirst();
+    }
+
+    // Balance of a wallet as of its last ledger entry
+    private record WalletState(long lastSeq, int balance) {
+    }
+}
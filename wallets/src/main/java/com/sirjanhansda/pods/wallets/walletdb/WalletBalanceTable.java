@@ -0,0 +1,127 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Open-addressing hash map from user id to balance on primitive int arrays, used by the in-memory wallet engine.
+ * Linear probing with backward-shift deletion, so there are no tombstones and lookups stay short.
+ *
+ * Not thread-safe: it is only touched by the engine's single writer thread (and during startup recovery).
+ */
+class WalletBalanceTable {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    WalletBalanceTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int key) {
+        return used[indexOf(key)];
+    }
+
+    /**
+     * @return The balance of the wallet; only meaningful if contains(key)
+     */
+    int get(int key) {
+        return values[indexOf(key)];
+    }
+
+    void put(int key, int value) {
+        int index = indexOf(key);
+        if (!used[index]) {
+            used[index] = true;
+            keys[index] = key;
+            if (++size > keys.length * LOAD_FACTOR) {
+                values[index] = value;
+                grow();
+                return;
+            }
+        }
+        values[index] = value;
+    }
+
+    /**
+     * @return Whether the key was present
+     */
+    boolean remove(int key) {
+        int index = indexOf(key);
+        if (!used[index]) {
+            return false;
+        }
+        used[index] = false;
+        size--;
+
+        // Shift later entries of the probe sequence back into the hole
+        int mask = keys.length - 1;
+        int hole = index;
+        for (int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            // Move the entry unless its home slot lies cyclically within (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                used[hole] = true;
+                used[next] = false;
+                hole = next;
+            }
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    void forEach(BiConsumer<Integer, Integer> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    // Slot holding the key, or the empty slot where it would be inserted
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int index = slot(key);
+        while (used[index] && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9; // Fibonacci hashing spreads sequential user ids
+        return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
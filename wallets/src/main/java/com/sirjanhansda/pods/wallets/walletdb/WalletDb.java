@@ -8,10 +8,14 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.sirjanhansda.pods.wallets.model.UsrWallet;
+import com.sirjanhansda.pods.wallets.readmodel.WalletView;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface WalletDb extends JpaRepository<UsrWallet, Integer>{
@@ -19,13 +23,36 @@ public interface WalletDb extends JpaRepository<UsrWallet, Integer>{
     @Query("SELECT uw FROM UsrWallet uw WHERE uw.user_id = :userid")
     List<UsrWallet> findUsrWalletByUser_id(@Param("userid") Integer userid);
 
+    // Balance reads, without hydrating UsrWallet entities
+    @Query("SELECT uw.balance FROM UsrWallet uw WHERE uw.user_id = :userid")
+    Optional<Integer> findBalanceByUser_id(@Param("userid") Integer userid);
+
+    @Query("SELECT new com.sirjanhansda.pods.wallets.readmodel.WalletView(uw.user_id, uw.balance) "
+            + "FROM UsrWallet uw WHERE uw.user_id IN :userids")
+    List<WalletView> findWalletViewsByUser_idIn(@Param("userids") Collection<Integer> userids);
+
     @Modifying
-    @Query("UPDATE UsrWallet uw SET uw.balance = uw.balance - :amount WHERE uw.user_id = :userid AND uw.balance >= :amount")
+    @Query("UPDATE UsrWallet uw SET uw.balance = uw.balance - :amount, uw.version = uw.version + 1 "
+            + "WHERE uw.user_id = :userid AND uw.balance >= :amount")
     int debitIfSufficient(@Param("userid") Integer userid, @Param("amount") Integer amount);
 
     @Modifying
-    @Query("UPDATE UsrWallet uw SET uw.balance = uw.balance + :amount WHERE uw.user_id = :userid")
+    @Query("UPDATE UsrWallet uw SET uw.balance = uw.balance + :amount, uw.version = uw.version + 1 "
+            + "WHERE uw.user_id = :userid")
     int creditAmount(@Param("userid") Integer userid, @Param("amount") Integer amount);
 
+    // Conditional debit that also reports the balance after the update, in a single statement.
+    // Empty when the wallet does not exist or holds less than the amount.
+    @Transactional
+    @Query(value = "SELECT balance FROM FINAL TABLE (UPDATE usr_wallet SET balance = balance - :amount, "
+            + "version = version + 1 WHERE user_id = :userid AND balance >= :amount)", nativeQuery = true)
+    Optional<Integer> debitReturningBalance(@Param("userid") Integer userid, @Param("amount") Integer amount);
+
+    // Credit that reports the balance after the update; empty when the wallet does not exist
+    @Transactional
+    @Query(value = "SELECT balance FROM FINAL TABLE (UPDATE usr_wallet SET balance = balance + :amount, "
+            + "version = version + 1 WHERE user_id = :userid)", nativeQuery = true)
+    Optional<Integer> creditReturningBalance(@Param("userid") Integer userid, @Param("amount") Integer amount);
+
 
 }   
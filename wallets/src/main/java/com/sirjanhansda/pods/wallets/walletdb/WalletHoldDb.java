@@ -0,0 +1,43 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import com.sirjanhansda.pods.wallets.model.WalletHold;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface WalletHoldDb extends JpaRepository<WalletHold, Long> {
+
+    // Moves a live hold to CAPTURED and returns its amount; empty if the hold is settled or has expired
+    @Transactional
+    @Query(value = "SELECT amount FROM FINAL TABLE (UPDATE wallet_hold SET status = 'CAPTURED' "
+            + "WHERE hold_id = :holdid AND user_id = :userid AND status = 'HELD' AND expires_at >= :now)",
+            nativeQuery = true)
+    Optional<Integer> capture(@Param("holdid") Long holdid, @Param("userid") Integer userid, @Param("now") Long now);
+
+    // Moves a live hold to RELEASED and returns its amount; empty if the hold is already settled
+    @Transactional
+    @Query(value = "SELECT amount FROM FINAL TABLE (UPDATE wallet_hold SET status = 'RELEASED' "
+            + "WHERE hold_id = :holdid AND user_id = :userid AND status = 'HELD')",
+            nativeQuery = true)
+    Optional<Integer> release(@Param("holdid") Long holdid, @Param("userid") Integer userid);
+
+    // Moves the live holds of a deleted wallet to RELEASED without refunding them, so the sweeper does not
+    // credit them back into a wallet that no longer exists
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE wallet_hold SET status = 'RELEASED' WHERE user_id = :userid AND status = 'HELD'",
+            nativeQuery = true)
+    int dropHeldByUser_id(@Param("userid") Integer userid);
+
+    // Same for all wallets at once
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE wallet_hold SET status = 'RELEASED' WHERE status = 'HELD'", nativeQuery = true)
+    int dropAllHeld();
+}
@@ -0,0 +1,110 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import com.sirjanhansda.pods.wallets.model.WalletLedgerEntry;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage engine for wallet balances.
+ * The engine decides which wallets exist and how their balances are stored and updated.
+ * It is selected with wallet.storage.engine:
+ * - balance (default): BalanceWalletStore, the balance column of UsrWallet updated in place.
+ * - ledger: LedgerWalletStore, an append-only ledger rolled up into periodic snapshots.
+ * - memory: InMemoryWalletStore, balances held in memory by a single writer thread, made durable
+ *   with a write-ahead log and checkpointed to UsrWallet.
+ */
+public interface WalletStore {
+
+    /**
+     * @return The current balance, or empty if the wallet does not exist
+     */
+    Optional<Integer> balance(Integer userId);
+
+    /**
+     * Reads the balances of several wallets. Engines that can read them with one query override this;
+     * by default each balance is read on its own.
+     *
+     * @return The balance of each of the wallets that exist, by user id
+     */
+    default Map<Integer, Integer> balances(Collection<Integer> userIds) {
+        Map<Integer, Integer> balances = new HashMap<>();
+        for (Integer userId : userIds) {
+            balance(userId).ifPresent(balance -> balances.put(userId, balance));
+        }
+        return balances;
+    }
+
+    /**
+     * Debits the wallet only if its balance covers the amount.
+     *
+     * @return The balance after the debit, or empty if the wallet does not exist or the balance is insufficient
+     */
+    Optional<Integer> debit(Integer userId, Integer amount);
+
+    /**
+     * Credits the wallet.
+     *
+     * @return The balance after the credit, or empty if the wallet does not exist
+     */
+    Optional<Integer> credit(Integer userId, Integer amount);
+
+    /**
+     * Creates an empty wallet unless the user already has one.
+     */
+    void createIfMissing(Integer userId);
+
+    /**
+     * Deletes a wallet.
+     *
+     * @return false if the wallet did not exist
+     */
+    boolean delete(Integer userId);
+
+    /**
+     * Deletes every wallet.
+     */
+    void deleteAll();
+
+    /**
+     * Asynchronous form of debit; engines that acknowledge writes in batches complete the future
+     * once the debit is durable. By default the debit runs on the calling thread.
+     */
+    default CompletableFuture<Optional<Integer>> debitAsync(Integer userId, Integer amount) {
+        return CompletableFuture.completedFuture(debit(userId, amount));
+    }
+
+    /**
+     * Asynchronous form of createIfMissing followed by credit.
+     */
+    default CompletableFuture<Optional<Integer>> creditAsync(Integer userId, Integer amount) {
+        createIfMissing(userId);
+        return CompletableFuture.completedFuture(credit(userId, amount));
+    }
+
+    /**
+     * @return Whether writes are part of the caller's database transaction and roll back with it. Engines that
+     *         write elsewhere (e.g. to their own log) return false.
+     */
+    default boolean joinsTransactions() {
+        return true;
+    }
+
+    /**
+     * @return Whether the engine keeps the individual credits and debits of a wallet
+     */
+    default boolean recordsHistory() {
+        return false;
+    }
+
+    /**
+     * Returns the newest ledger entries of a wallet with a sequence number below beforeSeq, newest first.
+     */
+    default List<WalletLedgerEntry> history(Integer userId, long beforeSeq, int limit) {
+        return List.of();
+    }
+}
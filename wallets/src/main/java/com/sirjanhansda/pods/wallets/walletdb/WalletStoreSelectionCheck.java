@@ -0,0 +1,60 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Stops the service at startup when its storage beans do not match wallet.storage.engine and
+ * wallet.group-commit.enabled.
+ *
+ * The engine and the batcher are chosen with @ConditionalOnProperty / @ConditionalOnExpression. An image built
+ * with Spring AOT (mvn -Paot, run with -Dspring.aot.enabled=true) evaluates those conditions when it is built,
+ * not when it starts, so setting the properties differently at deployment time would otherwise leave the
+ * service running on the engine it was built with, e.g. with every balance read from the wrong table.
+ */
+@Component
+public class WalletStoreSelectionCheck implements SmartInitializingSingleton {
+
+    private static final Map<String, Class<? extends WalletStore>> ENGINES = Map.of(
+            "balance", BalanceWalletStore.class,
+            "ledger", LedgerWalletStore.class,
+            "memory", InMemoryWalletStore.class);
+
+    @Autowired
+    private ListableBeanFactory beanFactory;
+
+    @Autowired
+    private Environment environment;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        String engine = environment.getProperty("wallet.storage.engine", "balance").toLowerCase();
+        Class<? extends WalletStore> expected = ENGINES.get(engine);
+        String[] stores = beanFactory.getBeanNamesForType(WalletStore.class);
+        boolean engineMatches = expected != null && stores.length == 1
+                && expected.isAssignableFrom(ClassUtils.getUserClass(beanFactory.getType(stores[0])));
+        if (!engineMatches) {
+            throw new IllegalStateException("wallet.storage.engine is '" + engine + "', but the storage beans of this "
+                    + "build are " + Arrays.toString(stores) + "; an ahead-of-time compiled build keeps the engine "
+                    + "it was built with, so rebuild it with this setting or start it without -Dspring.aot.enabled");
+        }
+
+        boolean groupCommit = "balance".equals(engine)
+                && environment.getProperty("wallet.group-commit.enabled", Boolean.class, false);
+        boolean batcherPresent = beanFactory.getBeanNamesForType(WalletUpdateBatcher.class).length > 0;
+        if (groupCommit != batcherPresent) {
+            throw new IllegalStateException("Group commit is " + (groupCommit ? "enabled" : "disabled")
+                    + " by wallet.group-commit.enabled, but this build was made with it "
+                    + (batcherPresent ? "enabled" : "disabled") + "; an ahead-of-time compiled build keeps the "
+                    + "setting it was built with, so rebuild it with this setting or start it without "
+                    + "-Dspring.aot.enabled");
+        }
+    }
+}
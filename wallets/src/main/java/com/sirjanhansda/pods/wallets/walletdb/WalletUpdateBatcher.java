@@ -0,0 +1,190 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for the balance storage engine.
+ *
+ * Concurrent wallet updates are queued and applied by one flusher thread: it takes the first waiting update,
+ * collects more until the batch holds max-batch-size updates or max-wait-micros have passed, and applies the
+ * whole batch in one transaction with a single JDBC batch of conditional UPDATEs. Each caller's future is
+ * completed with its own outcome once the transaction has committed.
+ *
+ * Every update is "add delta unless the balance would go negative", so debits and credits share one statement
+ * and keep their arrival order. The balances reported to callers are reconstructed from the balances read at the
+ * end of the transaction, while its row locks still keep other writers out.
+ */
+@Component
+@ConditionalOnExpression("'${wallet.storage.engine:balance}' == 'balance' and ${wallet.group-commit.enabled:false}")
+public class WalletUpdateBatcher {
+
+    private static final String CREATE_WALLET =
+            "INSERT INTO usr_wallet (user_id, balance, version) SELECT ?, 0, 0 WHERE NOT EXISTS "
+                    + "(SELECT 1 FROM usr_wallet WHERE user_id = ?)";
+
+    private static final String APPLY_DELTA =
+            "UPDATE usr_wallet SET balance = balance + ?, version = version + 1 WHERE user_id = ? AND balance + ? >= 0";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Largest number of updates applied in one transaction
+    @Value("${wallet.group-commit.max-batch-size:64}")
+    private int maxBatchSize;
+
+    // How long the flusher waits for more updates after the first one of a batch
+    @Value("${wallet.group-commit.max-wait-micros:500}")
+    private long maxWaitMicros;
+
+    private final BlockingQueue<PendingUpdate> queue = new LinkedBlockingQueue<>();
+    private Thread flusher;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    void start() {
+        flusher = new Thread(this::run, "wallet-group-commit");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(5000);
+    }
+
+    /**
+     * Queues a credit (positive delta) or debit (negative delta).
+     *
+     * @param createIfMissing Whether to create an empty wallet first (credits do, debits do not)
+     * @return Future of the balance after the update, or empty if the wallet is missing or the balance is insufficient
+     */
+    public CompletableFuture<Optional<Integer>> submit(Integer userId, int delta, boolean createIfMissing) {
+        PendingUpdate update = new PendingUpdate(userId, delta, createIfMissing, new CompletableFuture<>());
+        queue.add(update);
+        return update.future();
+    }
+
+    private void run() {
+        List<PendingUpdate> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingUpdate next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        // Updates that arrive during shutdown are not applied
+        queue.forEach(update -> update.future().completeExceptionally(new IllegalStateException("Shutting down")));
+    }
+
+    private void flush(List<PendingUpdate> batch) {
+        List<Optional<Integer>> results;
+        try {
+            results = new TransactionTemplate(transactionManager).execute(status -> apply(batch));
+        } catch (Exception e) {
+            // One bad update must not fail the others, so fall back to applying them one by one
+            System.out.println("[WARN] Wallet group commit of " + batch.size() + " updates failed, retrying individually: "
+                    + e.getMessage());
+            for (PendingUpdate update : batch) {
+                try {
+                    update.future().complete(new TransactionTemplate(transactionManager)
+                            .execute(status -> apply(List.of(update)).get(0)));
+                } catch (Exception single) {
+                    update.future().completeExceptionally(single);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future().complete(results.get(i));
+        }
+    }
+
+    /**
+     * Applies a batch inside the current transaction.
+     *
+     * @return The outcome of every update, in batch order
+     */
+    private List<Optional<Integer>> apply(List<PendingUpdate> batch) {
+        List<Object[]> creates = new ArrayList<>();
+        Set<Integer> created = new LinkedHashSet<>();
+        List<Object[]> deltas = new ArrayList<>(batch.size());
+        for (PendingUpdate update : batch) {
+            if (update.createIfMissing() && created.add(update.userId())) {
+                creates.add(new Object[]{update.userId(), update.userId()});
+            }
+            deltas.add(new Object[]{update.delta(), update.userId(), update.delta()});
+        }
+        if (!creates.isEmpty()) {
+            jdbcTemplate.batchUpdate(CREATE_WALLET, creates);
+        }
+        int[] updated = jdbcTemplate.batchUpdate(APPLY_DELTA, deltas);
+
+        // Balances at the end of the batch; this transaction still holds the row locks
+        Set<Integer> userIds = new LinkedHashSet<>();
+        batch.forEach(update -> userIds.add(update.userId()));
+        Map<Integer, Integer> balances = new HashMap<>();
+        jdbcTemplate.query("SELECT user_id, balance FROM usr_wallet WHERE user_id IN ("
+                        + String.join(", ", Collections.nCopies(userIds.size(), "?")) + ")",
+                rs -> {
+                    balances.put(rs.getInt(1), rs.getInt(2));
+                },
+                userIds.toArray());
+
+        // Walk backwards, undoing each applied delta to find the balance right after it
+        List<Optional<Integer>> results = new ArrayList<>(Collections.nCopies(batch.size(), Optional.empty()));
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            PendingUpdate update = batch.get(i);
+            if (updated[i] > 0) {
+                int after = balances.get(update.userId());
+                results.set(i, Optional.of(after));
+                balances.put(update.userId(), after - update.delta());
+            }
+        }
+        return results;
+    }
+
+    // A queued wallet update and the caller waiting for it
+    private record PendingUpdate(Integer userId, int delta, boolean createIfMissing,
+                                 CompletableFuture<Optional<Integer>> future) {
+    }
+}
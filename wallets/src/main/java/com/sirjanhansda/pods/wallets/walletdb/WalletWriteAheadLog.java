@@ -0,0 +1,148 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead log of the in-memory wallet engine.
+ *
+ * Records are fixed-size (type, user id, balance) and carry absolute balances rather than deltas,
+ * so replaying a record that a checkpoint already contains is harmless. Records are buffered by the
+ * writer thread and made durable with one write + fsync per ring-buffer batch (group commit).
+ *
+ * The log is split into numbered segment files (wal-&lt;n&gt;.log). A checkpoint starts a new segment; once
+ * the checkpoint is stored in the database, every segment up to the one it closed is deleted.
+ * Not thread-safe: appends, flushes and rotation happen on the writer thread.
+ */
+class WalletWriteAheadLog implements AutoCloseable {
+
+    static final byte SET = 1;
+    static final byte DELETE = 2;
+    static final byte CLEAR = 3;
+
+    private static final int RECORD_BYTES = 1 + 4 + 4;
+
+    // Receives replayed records during recovery
+    interface RecordHandler {
+        void apply(byte type, int userId, int balance);
+    }
+
+    private final Path directory;
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+    private long segment;
+
+    WalletWriteAheadLog(Path directory, int bufferBytes) throws IOException {
+        this.directory = directory;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, RECORD_BYTES));
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Replays every segment in order and opens a new segment after the last one.
+     * A record cut short by a crash at the end of a segment is ignored.
+     */
+    void recover(RecordHandler handler) throws IOException {
+        List<Long> segments = segments();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        for (long number : segments) {
+            try (FileChannel in = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+                while (true) {
+                    record.clear();
+                    while (record.hasRemaining() && in.read(record) > 0) {
+                        // Keep reading until the record is complete or the file ends
+                    }
+                    if (record.hasRemaining()) {
+                        break;
+                    }
+                    record.flip();
+                    handler.apply(record.get(), record.getInt(), record.getInt());
+                }
+            }
+        }
+        segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        channel = openSegment(segment);
+    }
+
+    void append(byte type, int userId, int balance) throws IOException {
+        if (buffer.remaining() < RECORD_BYTES) {
+            writeBuffer();
+        }
+        buffer.put(type).putInt(userId).putInt(balance);
+    }
+
+    /**
+     * Writes the buffered records and forces them to disk.
+     */
+    void flush() throws IOException {
+        writeBuffer();
+        channel.force(false);
+    }
+
+    /**
+     * Flushes the current segment and continues in a new one.
+     *
+     * @return Number of the segment that was closed
+     */
+    long rotate() throws IOException {
+        flush();
+        channel.close();
+        long closed = segment;
+        channel = openSegment(++segment);
+        return closed;
+    }
+
+    /**
+     * Deletes every segment up to and including the given one.
+     */
+    void deleteSegmentsUpTo(long number) throws IOException {
+        for (long existing : segments()) {
+            if (existing <= number) {
+                Files.deleteIfExists(segmentPath(existing));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve("wal-" + number + ".log");
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("wal-\\d+\\.log"))
+                    .forEach(name -> numbers.add(Long.parseLong(name.substring(4, name.length() - 4))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
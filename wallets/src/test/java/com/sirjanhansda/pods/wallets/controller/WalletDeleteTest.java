@@ -0,0 +1,96 @@
+package com.sirjanhansda.pods.wallets.controller;
+
+import com.sirjanhansda.pods.wallets.hold.HoldSweeper;
+import com.sirjanhansda.pods.wallets.model.HoldStatus;
+import com.sirjanhansda.pods.wallets.model.WalletHold;
+import com.sirjanhansda.pods.wallets.walletdb.WalletHoldDb;
+import com.sirjanhansda.pods.wallets.walletdb.WalletStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Wallet deletion test: the live holds of a deleted wallet are not refunded when they expire, so the sweeper
+ * neither brings the wallet back nor pays them into a new wallet of the same user.
+ */
+@SpringBootTest(properties = {
+        // The sweeper is run by the test, not the scheduler
+        "wallet.holds.sweep-interval-ms=3600000"
+})
+class WalletDeleteTest {
+
+    @Autowired
+    private WalletRouter walletRouter;
+
+    @Autowired
+    private WalletStore walletStore;
+
+    @Autowired
+    private WalletHoldDb walletHoldDb;
+
+    @Autowired
+    private HoldSweeper holdSweeper;
+
+    @BeforeEach
+    void wallets() {
+        walletStore.deleteAll();
+        walletHoldDb.deleteAll();
+        walletStore.createIfMissing(1);
+        walletStore.credit(1, 100);
+        walletStore.createIfMissing(2);
+        walletStore.credit(2, 100);
+    }
+
+    @Test
+    void deletedWalletStaysGoneWhenItsHoldExpires() throws Exception {
+        Long deletedHold = placeShortHold(1, 40);
+        Long otherHold = placeShortHold(2, 30);
+        Thread.sleep(10);
+
+        assertEquals(200, walletRouter.deleteWallet(1).getStatusCode().value());
+        holdSweeper.sweepExpiredHolds();
+
+        assertEquals(Optional.empty(), walletStore.balance(1));
+        assertEquals(HoldStatus.RELEASED, walletHoldDb.findById(deletedHold).get().getStatus());
+        // Holds of other wallets still expire and are refunded
+        assertEquals(Optional.of(100), walletStore.balance(2));
+        assertEquals(HoldStatus.EXPIRED, walletHoldDb.findById(otherHold).get().getStatus());
+    }
+
+    @Test
+    void holdOfDeletedWalletIsNotPaidIntoANewOne() throws Exception {
+        placeShortHold(1, 40);
+        Thread.sleep(10);
+
+        walletRouter.deleteWallet(1);
+        walletStore.createIfMissing(1);
+        holdSweeper.sweepExpiredHolds();
+
+        assertEquals(Optional.of(0), walletStore.balance(1));
+    }
+
+    @Test
+    void deletedWalletsStayGoneWhenTheirHoldsExpire() throws Exception {
+        placeShortHold(1, 40);
+        placeShortHold(2, 30);
+        Thread.sleep(10);
+
+        assertEquals(200, walletRouter.deleteAllWallets().getStatusCode().value());
+        holdSweeper.sweepExpiredHolds();
+
+        assertEquals(Optional.empty(), walletStore.balance(1));
+        assertEquals(Optional.empty(), walletStore.balance(2));
+    }
+
+    private Long placeShortHold(Integer userId, int amount) {
+        WalletHoldRequest request = new WalletHoldRequest();
+        request.amount = amount;
+        request.ttl_ms = 1L;
+        return ((WalletHold) walletRouter.placeHold(userId, request).getBody()).getHold_id();
+    }
+}
@@ -0,0 +1,146 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import com.sirjanhansda.pods.wallets.hold.HoldFunds;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recovery test for the in-memory engine: writes, checkpoints, writes more, then starts a second engine on
+ * the same log directory and database without stopping the first (as after a crash) and compares balances.
+ */
+@SpringBootTest(properties = {
+        "wallet.storage.engine=memory",
+        // Checkpoints are taken by the test, not the scheduler
+        "wallet.memory.checkpoint-interval-ms=3600000",
+        "wallet.holds.sweep-interval-ms=3600000"
+})
+class InMemoryWalletStoreTest {
+
+    @TempDir
+    static Path walDir;
+
+    @DynamicPropertySource
+    static void walDir(DynamicPropertyRegistry registry) {
+        registry.add("wallet.memory.wal-dir", () -> walDir.toString());
+    }
+
+    @Autowired
+    private InMemoryWalletStore store;
+
+    @Autowired
+    private HoldFunds holdFunds;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void recoversBalancesFromCheckpointAndLog() throws IOException {
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int userId = 1; userId <= 20; userId++) {
+            expected.put(userId, store.creditAsync(userId, 1000 + userId).join().orElseThrow());
+        }
+        assertEquals(Optional.of(1001 - 300), store.debit(1, 300));
+        expected.put(1, 701);
+        assertTrue(store.debit(2, 5000).isEmpty());
+        assertTrue(store.delete(3));
+        expected.remove(3);
+
+        // Stored in UsrWallet; the segments it covers are deleted
+        store.checkpoint();
+        assertEquals(Optional.of(701), Optional.ofNullable(jdbcTemplate.queryForObject(
+                "SELECT balance FROM usr_wallet WHERE user_id = 1", Integer.class)));
+        List<Path> segmentsAfterCheckpoint = segments();
+        assertEquals(1, segmentsAfterCheckpoint.size());
+
+        // Changes after the checkpoint live only in the log
+        assertEquals(Optional.of(801), store.credit(1, 100));
+        expected.put(1, 801);
+        assertEquals(Optional.of(1004 - 4), store.debit(4, 4));
+        expected.put(4, 1000);
+        expected.put(21, store.creditAsync(21, 21).join().orElseThrow());
+        assertTrue(store.delete(5));
+        expected.remove(5);
+
+        // A record cut short by a crash at the end of a segment is ignored
+        long last = number(segments().get(segments().size() - 1));
+        Files.write(walDir.resolve("wal-" + (last + 1) + ".log"), new byte[]{1, 0, 0}, StandardOpenOption.CREATE_NEW);
+
+        InMemoryWalletStore recovered = restart();
+        try {
+            for (int userId = 1; userId <= 21; userId++) {
+                assertEquals(Optional.ofNullable(expected.get(userId)), recovered.balance(userId), "wallet " + userId);
+            }
+        } finally {
+            recovered.stop();
+        }
+    }
+
+    @Test
+    void debitOfHoldIsCreditedBackWhenTransactionRollsBack() {
+        store.creditAsync(100, 500).join();
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertEquals(Optional.of(300), holdFunds.reserve(100, 200));
+            status.setRollbackOnly();
+        });
+        assertEquals(Optional.of(500), store.balance(100));
+
+        // A refund waits for the commit, and is dropped with a rollback
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            holdFunds.refund(100, 50);
+            assertEquals(Optional.of(500), store.balance(100));
+            status.setRollbackOnly();
+        });
+        assertEquals(Optional.of(500), store.balance(100));
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> holdFunds.refund(100, 50));
+        assertEquals(Optional.of(550), store.balance(100));
+    }
+
+    // Second engine on the same log directory and database, as a restarted process would have
+    private InMemoryWalletStore restart() throws IOException {
+        InMemoryWalletStore recovered = new InMemoryWalletStore();
+        ReflectionTestUtils.setField(recovered, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(recovered, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(recovered, "walDir", walDir.toString());
+        ReflectionTestUtils.setField(recovered, "ringSize", 1024);
+        ReflectionTestUtils.setField(recovered, "walBufferBytes", 4096);
+        recovered.start();
+        return recovered;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(walDir)) {
+            return files.filter(path -> path.getFileName().toString().matches("wal-\\d+\\.log"))
+                    .sorted((a, b) -> Long.compare(number(a), number(b)))
+                    .toList();
+        }
+    }
+
+    private static long number(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+}
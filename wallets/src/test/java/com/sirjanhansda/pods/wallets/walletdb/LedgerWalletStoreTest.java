@@ -0,0 +1,70 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Switch-over test for the ledger engine: wallets whose balances were written by the balance engine keep them,
+ * before and after their first snapshot.
+ */
+@SpringBootTest(properties = {
+        "wallet.storage.engine=ledger",
+        // Compaction is run by the test, not the scheduler
+        "wallet.ledger.compact-interval-ms=3600000",
+        "wallet.ledger.compact-min-entries=1",
+        "wallet.holds.sweep-interval-ms=3600000"
+})
+class LedgerWalletStoreTest {
+
+    @Autowired
+    private LedgerWalletStore store;
+
+    @Autowired
+    private LedgerCompactor compactor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void walletsOfBalanceEngine() {
+        store.deleteAll();
+        // As left behind by the balance engine: balances in usr_wallet, no ledger
+        jdbcTemplate.update("INSERT INTO usr_wallet (user_id, balance) VALUES (1, 500), (2, 70)");
+    }
+
+    @Test
+    void existingBalanceIsOpeningBalanceOfLedger() {
+        assertEquals(Optional.of(500), store.balance(1));
+        assertEquals(Map.of(1, 500, 2, 70), store.balances(List.of(1, 2, 3)));
+
+        assertEquals(Optional.of(600), store.credit(1, 100));
+        assertTrue(store.debit(1, 601).isEmpty());
+        assertEquals(Optional.of(0), store.debit(1, 600));
+        assertEquals(Optional.of(70), store.balance(2));
+    }
+
+    @Test
+    void snapshotCarriesOpeningBalance() {
+        assertEquals(Optional.of(450), store.debit(1, 50));
+        assertEquals(Optional.of(20), store.debit(2, 50));
+
+        compactor.compact();
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM WALLET_SNAPSHOT", Integer.class));
+        assertEquals(Optional.of(450), store.balance(1));
+        assertEquals(Optional.of(20), store.balance(2));
+
+        // From the first snapshot on, the usr_wallet balance is no longer read
+        jdbcTemplate.update("UPDATE usr_wallet SET balance = 0");
+        assertEquals(Optional.of(470), store.credit(1, 20));
+        assertEquals(Map.of(1, 470, 2, 20), store.balances(List.of(1, 2)));
+    }
+}
@@ -0,0 +1,109 @@
+package com.sirjanhansda.pods.wallets.walletdb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Group commit test: credits and debits of one wallet that share a batch each report the balance right after
+ * themselves, and the wallet ends up with all of them applied.
+ */
+@SpringBootTest(properties = {
+        "wallet.storage.engine=balance",
+        "wallet.group-commit.enabled=true",
+        // Long enough that updates submitted together end up in one batch
+        "wallet.group-commit.max-wait-micros=50000",
+        "wallet.holds.sweep-interval-ms=3600000"
+})
+class WalletUpdateBatcherTest {
+
+    @Autowired
+    private BalanceWalletStore store;
+
+    @Autowired
+    private WalletUpdateBatcher batcher;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void wallet() {
+        store.deleteAll();
+        jdbcTemplate.update("INSERT INTO usr_wallet (user_id, balance, version) VALUES (1, 100, 0)");
+    }
+
+    @Test
+    void interleavedUpdatesReportTheirOwnBalance() {
+        // Applied in arrival order: 100 -> 150 -> 30 -> (40 refused) -> 50 -> 0 -> (1 refused) -> 5
+        List<CompletableFuture<Optional<Integer>>> results = List.of(
+                store.creditAsync(1, 50),
+                store.debitAsync(1, 120),
+                store.debitAsync(1, 40),
+                store.creditAsync(1, 20),
+                store.debitAsync(1, 50),
+                store.debitAsync(1, 1),
+                store.creditAsync(1, 5));
+
+        assertEquals(Optional.of(150), results.get(0).join());
+        assertEquals(Optional.of(30), results.get(1).join());
+        assertEquals(Optional.empty(), results.get(2).join());
+        assertEquals(Optional.of(50), results.get(3).join());
+        assertEquals(Optional.of(0), results.get(4).join());
+        assertEquals(Optional.empty(), results.get(5).join());
+        assertEquals(Optional.of(5), results.get(6).join());
+        assertEquals(Optional.of(5), store.balance(1));
+    }
+
+    @Test
+    void concurrentUpdatesFormOneHistory() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<Optional<Integer>>> results = new ArrayList<>();
+        List<Integer> deltas = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            int delta = i % 3 == 0 ? 40 : -25;
+            deltas.add(delta);
+            results.add(CompletableFuture.supplyAsync(() -> delta > 0
+                    ? batcher.submit(1, delta, true).join()
+                    : batcher.submit(1, delta, false).join(), callers));
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        callers.shutdown();
+
+        // Every applied update moves the balance from (reported - delta) to reported. For those steps to chain
+        // from the opening to the final balance, each balance must be entered as often as it is left.
+        int applied = 0;
+        Map<Integer, Integer> entered = new HashMap<>(Map.of(100, 1));
+        Map<Integer, Integer> left = new HashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            Optional<Integer> balance = results.get(i).join();
+            if (deltas.get(i) > 0) {
+                assertTrue(balance.isPresent(), "credit " + i + " refused");
+            }
+            if (balance.isPresent()) {
+                assertTrue(balance.get() >= 0);
+                applied += deltas.get(i);
+                left.merge(balance.get() - deltas.get(i), 1, Integer::sum);
+                entered.merge(balance.get(), 1, Integer::sum);
+            }
+        }
+        int finalBalance = store.balance(1).orElseThrow();
+        left.merge(finalBalance, 1, Integer::sum);
+
+        assertEquals(100 + applied, finalBalance);
+        assertEquals(left, entered);
+    }
+}